@@ -5,16 +5,16 @@ import com.ajaxjs.data.crud.CRUD_Service;
 import com.ajaxjs.data.jdbc_helper.JdbcConn;
 import com.ajaxjs.data.jdbc_helper.JdbcReader;
 import com.ajaxjs.data.jdbc_helper.JdbcWriter;
+import com.ajaxjs.data.jdbc_helper.ReadReplicas;
+import com.ajaxjs.data.jdbc_helper.UnitOfWorkInterceptor;
 import com.ajaxjs.framework.entity.BaseCrudPlugins;
 import com.ajaxjs.framework.entity.DisableWritePlugins;
 import com.ajaxjs.iam.resource_server.UserInterceptor;
 import com.ajaxjs.util.logger.LogHelper;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Scope;
 import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistration;
@@ -22,6 +22,8 @@ import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -40,42 +42,66 @@ public class BaseConfiguration implements WebMvcConfigurer {
     @Value("${db.psw}")
     private String psw;
 
+    /**
+     * 从库的连接地址，多个用逗号分隔，账号密码与主库的相同。不填的话不做读写分离
+     */
+    @Value("${db.replicas: }")
+    private String replicas;
+
     @Bean(value = "dataSource", destroyMethod = "close")
     DataSource getDs() {
         return JdbcConn.setupJdbcPool("com.mysql.cj.jdbc.Driver", url, user, psw);
     }
 
 
+    /**
+     * 不绑定连接，执行 SQL 的时候使用当前请求的工作单元的连接，所以单例即可
+     */
     @Bean
-    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public JdbcWriter jdbcWriter() {
         JdbcWriter jdbcWriter = new JdbcWriter();
         jdbcWriter.setIdField("id");
         jdbcWriter.setIsAutoIns(true);
-        jdbcWriter.setConn(JdbcConn.getConnection());
+        jdbcWriter.setDataSource(getDs());
 
         return jdbcWriter;
     }
 
     @Bean
-    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public JdbcReader jdbcReader() {
         JdbcReader jdbcReader = new JdbcReader();
-        jdbcReader.setConn(JdbcConn.getConnection());
+        jdbcReader.setDataSource(getDs());
 
         return jdbcReader;
     }
 
     @Bean
-    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public CRUD_Service getCRUD_Service() {
         CRUD_Service crud = new CRUD_Service();
         crud.setWriter(jdbcWriter());
         crud.setReader(jdbcReader());
+        crud.setDataSource(getDs());
+
+        if (StringUtils.hasText(replicas)) {
+            List<DataSource> list = new ArrayList<>();
+
+            for (String replicaUrl : replicas.split(","))
+                list.add(JdbcConn.setupJdbcPool("com.mysql.cj.jdbc.Driver", replicaUrl.trim(), user, psw));
+
+            crud.setReplicas(new ReadReplicas(crud.getReader(), list));
+        }
 
         return crud;
     }
 
+    /**
+     * 每个请求一个工作单元，请求结束的时候归还连接
+     */
+    @Bean
+    UnitOfWorkInterceptor unitOfWorkInterceptor() {
+        return new UnitOfWorkInterceptor(getDs());
+    }
+
     @Value("${auth.excludes: }")
     private String excludes;
 
@@ -84,6 +110,8 @@ public class BaseConfiguration implements WebMvcConfigurer {
      */
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(unitOfWorkInterceptor()).addPathPatterns("/**");
+
         LogHelper.p("初始化 SSO 拦截器");
         InterceptorRegistration interceptorRegistration = registry.addInterceptor(authInterceptor());
         interceptorRegistration.addPathPatterns("/**"); // 拦截所有
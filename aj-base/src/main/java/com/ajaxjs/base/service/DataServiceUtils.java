@@ -4,6 +4,7 @@ package com.ajaxjs.base.service;
 import com.ajaxjs.base.model.DataServiceConstant;
 import com.ajaxjs.base.model.DataSourceInfo;
 import com.ajaxjs.framework.CRUD;
+import com.ajaxjs.data.jdbc_helper.DataSourceRegistry;
 import com.ajaxjs.data.jdbc_helper.JdbcConn;
 import com.ajaxjs.data.jdbc_helper.JdbcReader;
 import com.ajaxjs.framework.DiContextUtil;
@@ -68,21 +69,19 @@ public class DataServiceUtils {
 //	}
 
     /**
-     * 通过 Tomcat JDBC Pool 获取 DataSource
+     * 通过 Tomcat JDBC Pool 获取 DataSource，同一个数据源复用同一个连接池
      */
     public static DataSource getDataSourceByDataSourceInfo(DataSourceInfo info) {
-        return JdbcConn.setupJdbcPool(getDbDriver(info), info.getUrl(), info.getUsername(), info.getPassword());
+        return DataSourceRegistry.getDataSource(info.getId(), getDbDriver(info), info.getUrl(), info.getUsername(), info.getPassword(), DataSourceRegistry.PoolPreset.SMALL);
     }
 
     /**
-     * 通过 Tomcat JDBC Pool 获取 Connection
+     * 通过 Tomcat JDBC Pool 获取 Connection，用完须关闭（归还到连接池）
      *
      * @return 数据库连接对象
      */
     public static Connection getConnectionByDataSourceInfo(DataSourceInfo info) {
-//        return new JdbcConn().getConnection(getDataSourceByDataSourceInfo(info));
-        /* 貌似不能从 DataSource 获取 conn，直接创建 conn 吧 */
-        return new JdbcConn().getConnection(info.getUrl(), info.getUsername(), info.getPassword());
+        return DataSourceRegistry.getConnection(info.getId(), getDbDriver(info), info.getUrl(), info.getUsername(), info.getPassword(), DataSourceRegistry.PoolPreset.SMALL);
     }
 
     /**
@@ -4,6 +4,7 @@ import com.ajaxjs.base.controller.DatasourceController;
 import com.ajaxjs.base.model.DataSourceInfo;
 import com.ajaxjs.base.service.DataServiceUtils;
 import com.ajaxjs.data.PageResult;
+import com.ajaxjs.data.jdbc_helper.DataSourceRegistry;
 import com.ajaxjs.data.jdbc_helper.JdbcConn;
 import com.ajaxjs.framework.CRUD;
 import lombok.extern.slf4j.Slf4j;
@@ -68,12 +69,16 @@ public class DatasourceService implements DatasourceController {
             throw new IllegalArgumentException("缺少 id 参数");
 
         checkIfIsRepeat(entity, entity.getId());
+        Boolean updated = CRUD.updateWithIdField(entity);
+        DataSourceRegistry.remove(entity.getId()); // 连接池按新的配置重新创建
 
-        return CRUD.updateWithIdField(entity);
+        return updated;
     }
 
     @Override
     public Boolean delete(Long id) {
+        DataSourceRegistry.remove(id);
+
         return CRUD.delete("adp_datasource", id);
     }
 
@@ -93,9 +98,15 @@ public class DatasourceService implements DatasourceController {
         }
     }
 
+    /**
+     * 从数据源的连接池获取连接，用完须关闭（归还到连接池）
+     */
     Connection getConnectionByDataSourceId(Long id) {
         DataSourceInfo info = CRUD.info(DataSourceInfo.class, "SELECT * FROM adp_datasource WHERE stat!= 1 AND id =?", id);
 
+        if (info == null)
+            throw new IllegalArgumentException("数据源不存在：" + id);
+
         return DataServiceUtils.getConnectionByDataSourceInfo(info);
     }
 
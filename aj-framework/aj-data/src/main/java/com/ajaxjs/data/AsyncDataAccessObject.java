@@ -0,0 +1,265 @@
+package com.ajaxjs.data;
+
+import com.ajaxjs.data.crud.CRUD_Service;
+import com.ajaxjs.data.data_service.SecurityContext;
+import com.ajaxjs.data.jdbc_helper.UnitOfWork;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 异步执行的 DAO，返回 CompletableFuture
+ * <p>
+ * 每次调用在线程池中执行，使用单独的连接（从连接池获取，执行完毕归还；设置了读写分离的话，读取在从库的连接上执行），所以互不依赖的查询可以同时执行，
+ * 总的耗时取决于最慢的那个，而不是所有查询的耗时之和：
+ * <pre>
+ * CompletableFuture&lt;Map&lt;String, Object&gt;&gt; user = async.infoMap("SELECT * FROM user WHERE id = ?", id);
+ * CompletableFuture&lt;List&lt;Map&lt;String, Object&gt;&gt;&gt; orders = async.listMap("SELECT * FROM orders WHERE user_id = ?", id);
+ * CompletableFuture.allOf(user, orders).join();
+ * </pre>
+ * 每次调用可以设置超时，超时或者取消（{@link CompletableFuture#cancel(boolean)}）的话，正在执行的语句通知数据库停止执行，
+ * 还在排队的不再执行。当前请求的 {@link SecurityContext} 会带到执行的线程，租户、用户的过滤照常生效。
+ * 注意在别的连接上执行，看不到当前事务还没提交的数据
+ */
+public class AsyncDataAccessObject {
+    private final CRUD_Service dao;
+
+    /**
+     * 主库和从库（设置了读写分离的话）的数据源。每次调用在每个数据源上打开一个工作单元，
+     * 读取分流到从库的话，超时、取消同样作用于从库上执行的语句
+     */
+    private final List<DataSource> dataSources = new ArrayList<>();
+
+    private final Executor executor;
+
+    /**
+     * 默认的超时时间（毫秒），0 表示不限制
+     */
+    @Getter
+    @Setter
+    private long timeout;
+
+    /**
+     * 创建，使用默认的线程池
+     *
+     * @param dao 须设置了数据源的 CRUD_Service
+     */
+    public AsyncDataAccessObject(CRUD_Service dao) {
+        this(dao, getDefaultExecutor());
+    }
+
+    /**
+     * 创建
+     *
+     * @param dao      须设置了数据源的 CRUD_Service
+     * @param executor 执行查询的线程池
+     */
+    public AsyncDataAccessObject(CRUD_Service dao, Executor executor) {
+        if (dao.getDataSource() == null)
+            throw new IllegalArgumentException("CRUD_Service 没有设置数据源，不能在另外的连接上执行");
+
+        this.dao = dao;
+        this.executor = executor;
+        dataSources.add(dao.getDataSource());
+
+        if (dao.getReplicas() != null)
+            dataSources.addAll(dao.getReplicas().getDataSources());
+    }
+
+    /**
+     * 异步执行，使用默认的超时时间
+     *
+     * @param action 执行的操作
+     * @param <T>    返回值的类型
+     * @return 操作的结果
+     */
+    public <T> CompletableFuture<T> supply(Function<DataAccessObject, T> action) {
+        return supply(action, timeout);
+    }
+
+    /**
+     * 异步执行。操作里的所有 SQL 在同一个连接上执行
+     *
+     * @param action  执行的操作
+     * @param timeout 超时时间（毫秒），从调用的时候开始算，包括排队的时间。0 表示不限制
+     * @param <T>     返回值的类型
+     * @return 操作的结果。超时的话以 TimeoutException 结束
+     */
+    public <T> CompletableFuture<T> supply(Function<DataAccessObject, T> action, long timeout) {
+        Call<T> call = new Call<>();
+        SecurityContext context = SecurityContext.current();
+        long start = System.nanoTime();
+
+        if (timeout > 0) // 先于执行设置，在调用者的线程执行的话同样生效
+            call.orTimeout(timeout, TimeUnit.MILLISECONDS);
+
+        try {
+            executor.execute(() -> call.run(() -> SecurityContext.run(context, () -> action.apply(dao)), timeout, start));
+        } catch (RejectedExecutionException e) {
+            call.completeExceptionally(e);
+        }
+
+        return call;
+    }
+
+    /**
+     * 一次异步的调用。结束的时候还在执行的话（超时、取消），取消正在执行的语句
+     */
+    private class Call<T> extends CompletableFuture<T> {
+        private volatile UnitOfWork[] units;
+
+        Call() {
+            whenComplete((result, e) -> {
+                if (e != null)
+                    cancelUnits();
+            });
+        }
+
+        private void cancelUnits() {
+            UnitOfWork[] running = units;
+
+            if (running != null)
+                for (UnitOfWork unit : running)
+                    unit.cancel();
+        }
+
+        void run(Supplier<T> task, long timeout, long start) {
+            if (isDone()) // 排队的时候已经超时、取消了
+                return;
+
+            UnitOfWork[] opened = new UnitOfWork[dataSources.size()];
+            T result = null;
+            Throwable error = null;
+
+            try {
+                long remaining = timeout > 0 ? Math.max(1, timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)) : 0;
+
+                for (int i = 0; i < opened.length; i++) { // 用到的时候才获取连接，没用到的从库不占用连接
+                    opened[i] = UnitOfWork.openNew(dataSources.get(i));
+                    opened[i].setTimeout(remaining); // 数据库那边也按剩余的时间停止执行
+                }
+
+                units = opened;
+
+                if (isDone())
+                    cancelUnits();
+
+                result = task.get();
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                units = null;
+
+                for (int i = opened.length - 1; i >= 0; i--)
+                    if (opened[i] != null)
+                        opened[i].close();
+            }
+
+            // 关闭了工作单元才通知，后续的回调在这个线程执行的话不会用到这些连接
+            if (error != null)
+                completeExceptionally(error);
+            else
+                complete(result);
+        }
+    }
+
+    public <T> CompletableFuture<T> queryOne(Class<T> clz, String sql, Object... params) {
+        return supply(dao -> dao.queryOne(clz, sql, params));
+    }
+
+    public <T> CompletableFuture<T> info(Class<T> beanClz, String sql, Object... params) {
+        return supply(dao -> dao.info(beanClz, sql, params));
+    }
+
+    public CompletableFuture<Map<String, Object>> infoMap(String sql, Object... params) {
+        return supply(dao -> dao.infoMap(sql, params));
+    }
+
+    public <T> CompletableFuture<List<T>> list(Class<T> beanClz, String sql, Object... params) {
+        return supply(dao -> dao.list(beanClz, sql, params));
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> listMap(String sql, Object... params) {
+        return supply(dao -> dao.listMap(sql, params));
+    }
+
+    public <K, T> CompletableFuture<Map<K, T>> findByIds(Class<T> beanClz, String tableName, String idField, Collection<K> ids) {
+        return supply(dao -> dao.findByIds(beanClz, tableName, idField, ids));
+    }
+
+    public <K> CompletableFuture<Map<K, Map<String, Object>>> findMapByIds(String tableName, String idField, Collection<K> ids) {
+        return supply(dao -> dao.findMapByIds(tableName, idField, ids));
+    }
+
+    public <T> CompletableFuture<PageResult<T>> page(Class<T> beanClz, String sql, Map<String, Object> paramsMap, Object... params) {
+        return supply(dao -> dao.page(beanClz, sql, paramsMap, params));
+    }
+
+    /**
+     * 默认的线程池
+     */
+    private static volatile ExecutorService defaultExecutor;
+
+    /**
+     * 获取默认的线程池
+     *
+     * @return 线程池
+     */
+    public static ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            synchronized (AsyncDataAccessObject.class) {
+                if (defaultExecutor == null)
+                    defaultExecutor = newExecutor("async-dao");
+            }
+        }
+
+        return defaultExecutor;
+    }
+
+    /**
+     * 设置默认的线程池，例如与应用的其他异步任务共用
+     *
+     * @param executor 线程池
+     */
+    public static void setDefaultExecutor(ExecutorService executor) {
+        defaultExecutor = executor;
+    }
+
+    /**
+     * 创建执行数据库操作的线程池。运行在 Java 21 以上的话使用虚拟线程，同时执行的数量由连接池限制；
+     * 否则为有界的线程池，队列满了的话在调用者的线程执行，即退化为依次执行
+     *
+     * @param name 线程名称的前缀
+     * @return 线程池
+     */
+    public static ExecutorService newExecutor(String name) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int size = Math.max(2, Runtime.getRuntime().availableProcessors());
+            AtomicInteger n = new AtomicInteger();
+
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(size * 16), r -> {
+                Thread thread = new Thread(r, name + "-" + n.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+
+            return executor;
+        }
+    }
+}
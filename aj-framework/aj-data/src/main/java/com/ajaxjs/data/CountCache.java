@@ -0,0 +1,163 @@
+package com.ajaxjs.data;
+
+import com.ajaxjs.data.util.LruCache;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.util.TablesNamesFinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分页统计总数的缓存
+ * <p>
+ * 翻页时过滤条件一般不变，总数可以复用，不用每翻一页都执行一次 COUNT(*)。
+ * key 为 COUNT 语句涉及的表（及其版本号）、合并空白之后的 COUNT 语句和参数。租户、当前用户的条件已经在 SQL 里面，所以不同租户的总数不会混在一起。
+ * 每张表有一个版本号，JdbcWriter 写入一张表的时候递增，旧版本的总数就不会再被命中，过期或者被淘汰之后自然清除。
+ * 表的版本号也供 {@link ResultCache} 使用
+ */
+@Slf4j
+public class CountCache {
+    /**
+     * 默认的过期时间（毫秒）
+     */
+    public static final long DEFAULT_TTL = 30 * 1000;
+
+    private static volatile LruCache<List<Object>, Long> cache = new LruCache<>(4096, DEFAULT_TTL);
+
+    /**
+     * 表的版本号，只记录缓存过总数的表
+     */
+    private static final Map<String, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+
+    /**
+     * COUNT 语句涉及哪些表
+     */
+    private static final LruCache<String, List<String>> TABLES = new LruCache<>(1024);
+
+    /**
+     * 从 INSERT/UPDATE/DELETE/REPLACE 语句获取表名
+     */
+    private static final Pattern WRITE_TABLE = Pattern.compile("^\\s*(?:INSERT\\s+(?:IGNORE\\s+)?INTO|REPLACE\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+([\\w.`\"\\[\\]]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * 获取总数，没有缓存的话执行 loader 并保存
+     *
+     * @param countSql COUNT 语句
+     * @param params   COUNT 语句的参数
+     * @param loader   执行 COUNT 语句
+     * @return 总数
+     */
+    public static Long get(String countSql, Object[] params, Supplier<Long> loader) {
+        List<String> tables = getTables(countSql);
+        List<Object> key = new ArrayList<>(tables.size() * 2 + 2);
+
+        for (String table : tables) // 先取版本号再执行 COUNT，期间有写入的话，保存的总数用的是旧的版本号，不会被命中
+            key.add(VERSIONS.computeIfAbsent(table, k -> new AtomicLong()).get());
+
+        key.add(PageEnhancer.normalize(countSql));
+        key.add(params == null ? null : Arrays.asList(params));
+
+        return cache.computeIfAbsent(key, k -> loader.get());
+    }
+
+    /**
+     * 获取表的版本号，之后这张表有写入的话递增
+     *
+     * @param tableName 表名
+     * @return 版本号
+     */
+    public static long version(String tableName) {
+        return VERSIONS.computeIfAbsent(normalizeTable(tableName), k -> new AtomicLong()).get();
+    }
+
+    /**
+     * 表有写入，之前缓存的总数作废
+     *
+     * @param tableName 表名
+     */
+    public static void invalidate(String tableName) {
+        if (VERSIONS.isEmpty() || tableName == null)
+            return;
+
+        AtomicLong version = VERSIONS.get(normalizeTable(tableName));
+
+        if (version != null)
+            version.incrementAndGet();
+    }
+
+    /**
+     * 根据写入的 SQL 判断是哪张表有写入，之前缓存的总数作废
+     *
+     * @param sql INSERT/UPDATE/DELETE 语句，其他语句忽略
+     */
+    public static void invalidateBySql(String sql) {
+        if (VERSIONS.isEmpty() || sql == null)
+            return;
+
+        Matcher matcher = WRITE_TABLE.matcher(sql);
+
+        if (matcher.find())
+            invalidate(matcher.group(1));
+    }
+
+    /**
+     * 清空所有缓存的总数
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * 设置过期时间，已经缓存的总数会被清空
+     *
+     * @param ttl 过期时间（毫秒）
+     */
+    public static void setTtl(long ttl) {
+        cache = new LruCache<>(4096, ttl);
+    }
+
+    /**
+     * 获取缓存，可用于查看命中率
+     *
+     * @return 缓存
+     */
+    public static LruCache<List<Object>, Long> getCache() {
+        return cache;
+    }
+
+    private static List<String> getTables(String countSql) {
+        return TABLES.computeIfAbsent(countSql, k -> {
+            List<String> tables = new ArrayList<>();
+
+            try {
+                for (String table : new TablesNamesFinder().getTableList(CCJSqlParserUtil.parse(countSql)))
+                    tables.add(normalizeTable(table));
+            } catch (JSQLParserException e) {
+                log.warn("解析 COUNT 语句的表名失败：" + countSql, e);
+            }
+
+            return tables;
+        });
+    }
+
+    /**
+     * 去掉引号和库名，转为小写
+     */
+    static String normalizeTable(String table) {
+        String name = table.replaceAll("[`\"\\[\\]]", "");
+        int dot = name.lastIndexOf('.');
+
+        return (dot == -1 ? name : name.substring(dot + 1)).toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,8 +1,12 @@
 package com.ajaxjs.data;
 
+import com.ajaxjs.data.jdbc_helper.common.RowHandler;
+
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * 数据访问接口 DAO
@@ -72,6 +76,30 @@ public interface DataAccessObject {
      */
     <T> List<T> list(Class<T> beanClz, String sql, Object... params);
 
+    /**
+     * 按 id 批量查询，以 Java Bean 格式返回。id 分批以 IN (?, ?, ...) 查询，用于代替循环里逐个调用 info()
+     *
+     * @param beanClz   返回的 Bean 类型
+     * @param tableName 表名
+     * @param idField   id 字段
+     * @param ids       id，可以有重复
+     * @param <K>       id 类型
+     * @param <T>       返回的 Bean 类型
+     * @return id -> 实体，按 ids 的顺序，查不到的 id 不包含在内
+     */
+    <K, T> Map<K, T> findByIds(Class<T> beanClz, String tableName, String idField, Collection<K> ids);
+
+    /**
+     * 按 id 批量查询，以 Map 格式返回
+     *
+     * @param tableName 表名
+     * @param idField   id 字段
+     * @param ids       id，可以有重复
+     * @param <K>       id 类型
+     * @return id -> 实体，按 ids 的顺序，查不到的 id 不包含在内
+     */
+    <K> Map<K, Map<String, Object>> findMapByIds(String tableName, String idField, Collection<K> ids);
+
     /**
      * 查询列表记录，以 List Java Bean 格式返回
      *
@@ -103,16 +131,84 @@ public interface DataAccessObject {
      */
     List<Map<String, Object>> listMapBySqlId(String sqlId, Map<String, Object> mapParams, Object... params);
 
+    /**
+     * 流式查询列表记录，逐行回调 Java Bean，内存占用不随行数增长
+     *
+     * @param beanClz 实体 Bean 类型
+     * @param handler 逐行处理的回调
+     * @param sql     SQL 语句
+     * @param params  SQL 参数列表（选填项，能对应 SQL 里面的`?`的插值符）
+     * @param <T>     实体 Bean 类型
+     * @return 处理的行数
+     */
+    <T> int forEach(Class<T> beanClz, RowHandler<T> handler, String sql, Object... params);
+
+    /**
+     * 流式查询列表记录，逐行回调 Map，内存占用不随行数增长
+     *
+     * @param handler 逐行处理的回调
+     * @param sql     SQL 语句
+     * @param params  SQL 参数列表（选填项，能对应 SQL 里面的`?`的插值符）
+     * @return 处理的行数
+     */
+    int forEachMap(RowHandler<Map<String, Object>> handler, String sql, Object... params);
+
+    /**
+     * 流式查询列表记录，以 Stream Java Bean 格式返回。用完必须关闭 Stream
+     *
+     * @param beanClz 实体 Bean 类型
+     * @param sql     SQL 语句
+     * @param params  SQL 参数列表（选填项，能对应 SQL 里面的`?`的插值符）
+     * @param <T>     实体 Bean 类型
+     * @return 惰性读取的 Stream
+     */
+    <T> Stream<T> stream(Class<T> beanClz, String sql, Object... params);
+
+    /**
+     * 流式查询列表记录，以 Stream Map 格式返回。用完必须关闭 Stream
+     *
+     * @param sql    SQL 语句
+     * @param params SQL 参数列表（选填项，能对应 SQL 里面的`?`的插值符）
+     * @return 惰性读取的 Stream
+     */
+    Stream<Map<String, Object>> streamMap(String sql, Object... params);
+
     /**
      * 分页查询列表记录，以 List Java Bean 格式返回
      *
      * @param beanClz   实体 Bean 类型
      * @param sql       SQL 语句
      * @param paramsMap Map 格式的参数（若没有可传 null）
+     * @param params    SQL 参数列表（选填项，能对应 SQL 里面的`?`的插值符）
      * @param <T>       实体 Bean 类型
      * @return 查询结果，如果没数据返回一个空 List
      */
-    <T> PageResult<T> page(Class<T> beanClz, String sql, Map<String, Object> paramsMap);
+    <T> PageResult<T> page(Class<T> beanClz, String sql, Map<String, Object> paramsMap, Object... params);
+
+    /**
+     * 分页查询列表记录，可以指定 keyset 分页和统计总数的方式
+     *
+     * @param beanClz   实体 Bean 类型，为 null 的话返回 Map
+     * @param sql       SQL 语句。keyset 分页的话不用写 ORDER BY
+     * @param paramsMap Map 格式的参数（若没有可传 null）
+     * @param options   分页的选项
+     * @param params    SQL 参数列表（选填项，能对应 SQL 里面的`?`的插值符）
+     * @param <T>       实体 Bean 类型
+     * @return 查询结果，keyset 分页的话包含下一页的 cursor
+     */
+    <T> PageResult<T> page(Class<T> beanClz, String sql, Map<String, Object> paramsMap, PageOptions options, Object... params);
+
+    /**
+     * 分页查询列表记录，SQL 原样执行，不作模板处理。用于已经处理过的 SQL（例如 FastCRUD 的），免得条件里的内容被当作模板解析
+     *
+     * @param beanClz 实体 Bean 类型，为 null 的话返回 Map
+     * @param sql     SQL 语句
+     * @param options 分页的选项，可以为 null
+     * @param params  SQL 参数列表，对应 SQL 里面的`?`的插值符
+     * @param <T>     实体 Bean 类型
+     * @return 查询结果
+     */
+    <T> PageResult<T> pageRaw(Class<T> beanClz, String sql, PageOptions options, Object... params);
 
     /**
      * 分页查询列表记录，以 List Java Bean 格式返回
@@ -125,6 +221,18 @@ public interface DataAccessObject {
      */
     <T> PageResult<T> pageBySqlId(Class<T> beanClz, String sqlId, Map<String, Object> paramsMap);
 
+    /**
+     * 分页查询列表记录，可以指定 keyset 分页和统计总数的方式
+     *
+     * @param beanClz   实体 Bean 类型，为 null 的话返回 Map
+     * @param sqlId     SQL Id，于 XML 里的索引
+     * @param paramsMap Map 格式的参数（若没有可传 null）
+     * @param options   分页的选项
+     * @param <T>       实体 Bean 类型
+     * @return 查询结果，keyset 分页的话包含下一页的 cursor
+     */
+    <T> PageResult<T> pageBySqlId(Class<T> beanClz, String sqlId, Map<String, Object> paramsMap, PageOptions options);
+
     /**
      * 创建数据并返回创建的记录数量
      *
@@ -0,0 +1,318 @@
+package com.ajaxjs.data;
+
+import com.ajaxjs.data.util.TinyLfuCache;
+import com.ajaxjs.util.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 实体的二级缓存，按命名空间划分，用于 FastCRUD 的 info()/infoMap()
+ * <p>
+ * 本地一级为 {@link TinyLfuCache}，可选再加一级 Redis（通过 {@link RedisUtils}，多个节点共享）。
+ * 缓存的 key 为 id，同一个 id 下按变体（租户、当前用户、实体还是 Map、SQL 和参数）分别保存，所以不同租户的数据不会混在一起，
+ * 修改或者删除一个 id 的时候，其所有的变体一起作废。
+ * JdbcWriter 按 id 修改、删除的时候会调用 {@link #invalidate(String, Object)}；直接执行 SQL 写入的，须自己调用
+ */
+@Slf4j
+public class EntityCache {
+    /**
+     * 默认的过期时间（毫秒）
+     */
+    public static final long DEFAULT_TTL = 60 * 1000;
+
+    /**
+     * Redis 的 key 的前缀
+     */
+    private static final String REDIS_PREFIX = "aj:entity:";
+
+    private static final Map<String, EntityCache> BY_NAMESPACE = new ConcurrentHashMap<>();
+
+    /**
+     * 表名 -> 用到这张表的缓存
+     */
+    private static final Map<String, List<EntityCache>> BY_TABLE = new ConcurrentHashMap<>();
+
+    private final String namespace;
+
+    private final String table;
+
+    private final long ttl;
+
+    private final boolean redis;
+
+    /**
+     * id -> 变体 -> 实体
+     */
+    private final TinyLfuCache<String, Map<String, Object>> local;
+
+    /**
+     * 每次作废递增。加载期间有作废的话，加载的结果不保存，免得保存了旧的数据
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    private EntityCache(String namespace, String table, int maxSize, long ttl, boolean redis) {
+        this.namespace = namespace;
+        this.table = table;
+        this.ttl = ttl;
+        this.redis = redis;
+        local = new TinyLfuCache<>(maxSize, ttl);
+    }
+
+    /**
+     * 获取命名空间的缓存，没有的话创建。配置改了的话，重新创建
+     *
+     * @param namespace 命名空间
+     * @param tableName 表名
+     * @param maxSize   本地最多缓存多少个 id
+     * @param ttl       过期时间（毫秒）
+     * @param redis     是否使用 Redis
+     * @return 缓存
+     */
+    public static EntityCache of(String namespace, String tableName, int maxSize, long ttl, boolean redis) {
+        String table = CountCache.normalizeTable(tableName);
+        EntityCache cache = BY_NAMESPACE.get(namespace);
+
+        if (cache != null && cache.sameAs(table, maxSize, ttl, redis))
+            return cache;
+
+        return BY_NAMESPACE.compute(namespace, (k, old) -> {
+            if (old != null) {
+                if (old.sameAs(table, maxSize, ttl, redis))
+                    return old;
+
+                BY_TABLE.getOrDefault(old.table, new CopyOnWriteArrayList<>()).remove(old);
+            }
+
+            EntityCache created = new EntityCache(namespace, table, maxSize, ttl, redis);
+            BY_TABLE.computeIfAbsent(table, t -> new CopyOnWriteArrayList<>()).add(created);
+
+            return created;
+        });
+    }
+
+    private boolean sameAs(String table, int maxSize, long ttl, boolean redis) {
+        return this.table.equals(table) && local.getMaxSize() == maxSize && this.ttl == ttl && this.redis == redis;
+    }
+
+    /**
+     * 获取实体，没有缓存的话执行 loader 并保存。loader 返回 null 的话不保存
+     *
+     * @param id      实体 id
+     * @param variant 变体，须包含影响查询结果的所有因素
+     * @param type    实体的类型，用于检查 Redis 返回的值
+     * @param loader  从数据库查询
+     * @param <T>     实体的类型
+     * @return 实体
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object id, String variant, Class<?> type, Supplier<T> loader) {
+        String key = String.valueOf(id);
+        Map<String, Object> variants = local.get(key);
+        Object value = variants == null ? null : variants.get(variant);
+
+        if (value != null)
+            return (T) value;
+
+        long before = version.get();
+
+        if (redis) {
+            value = redisGet(key, variant);
+
+            if (type.isInstance(value)) {
+                putLocal(key, variant, value, before);
+                return (T) value;
+            }
+        }
+
+        T loaded = loader.get();
+
+        if (loaded != null && putLocal(key, variant, loaded, before) && redis)
+            redisPut(key, variant, loaded, before);
+
+        return loaded;
+    }
+
+    /**
+     * 批量获取实体，没有缓存的由 loader 一次查询并保存
+     *
+     * @param ids     实体 id，可以有重复
+     * @param variant 每个 id 的变体，见 {@link #get(Object, String, Class, Supplier)}
+     * @param type    实体的类型，用于检查 Redis 返回的值
+     * @param loader  查询没有缓存的 id，返回 id -> 实体
+     * @param <K>     id 类型
+     * @param <T>     实体的类型
+     * @return id -> 实体，按 ids 的顺序，查不到的不包含在内
+     */
+    @SuppressWarnings("unchecked")
+    public <K, T> Map<K, T> getAll(Collection<K> ids, Function<K, String> variant, Class<?> type, Function<List<K>, Map<K, T>> loader) {
+        Map<K, T> found = new HashMap<>();
+        Map<K, String> missing = new LinkedHashMap<>();
+        long before = version.get();
+
+        for (K id : new LinkedHashSet<>(ids)) {
+            String key = String.valueOf(id), v = variant.apply(id);
+            Map<String, Object> variants = local.get(key);
+            Object value = variants == null ? null : variants.get(v);
+
+            if (value == null && redis) {
+                value = redisGet(key, v);
+
+                if (type.isInstance(value))
+                    putLocal(key, v, value, before);
+                else
+                    value = null;
+            }
+
+            if (value == null)
+                missing.put(id, v);
+            else
+                found.put(id, (T) value);
+        }
+
+        if (!missing.isEmpty()) {
+            Map<K, T> loaded = loader.apply(new ArrayList<>(missing.keySet()));
+
+            loaded.forEach((id, value) -> {
+                if (value != null) {
+                    found.put(id, value);
+                    String key = String.valueOf(id);
+
+                    if (putLocal(key, missing.get(id), value, before) && redis)
+                        redisPut(key, missing.get(id), value, before);
+                }
+            });
+        }
+
+        Map<K, T> result = new LinkedHashMap<>();
+
+        for (K id : ids)
+            if (found.containsKey(id))
+                result.put(id, found.get(id));
+
+        return result;
+    }
+
+    /**
+     * 保存到本地。检查版本和保存不是原子的：检查之后、保存之前有作废的话，保存之后再检查一次，版本变了的话删掉
+     * （作废先递增版本再删除，所以不是在这里删掉，就是被作废删掉）
+     */
+    private boolean putLocal(String key, String variant, Object value, long before) {
+        if (version.get() != before)
+            return false;
+
+        Map<String, Object> variants = local.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        variants.put(variant, value);
+
+        if (version.get() != before) {
+            variants.remove(variant, value);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 作废一个 id 的缓存
+     *
+     * @param id 实体 id
+     */
+    public void invalidate(Object id) {
+        String key = String.valueOf(id);
+        version.incrementAndGet();
+        local.remove(key);
+
+        if (redis) {
+            try {
+                RedisUtils.getInstance().del(redisKey(key));
+            } catch (Throwable e) {
+                log.warn("删除 Redis 的实体缓存失败", e);
+            }
+        }
+    }
+
+    /**
+     * 作废本地的所有缓存。Redis 的等待过期
+     */
+    public void clear() {
+        version.incrementAndGet();
+        local.clear();
+    }
+
+    /**
+     * 表的一条记录修改或者删除了，作废用到这张表的所有命名空间的缓存
+     *
+     * @param tableName 表名
+     * @param id        实体 id
+     */
+    public static void invalidate(String tableName, Object id) {
+        if (BY_TABLE.isEmpty() || tableName == null || id == null)
+            return;
+
+        List<EntityCache> caches = BY_TABLE.get(CountCache.normalizeTable(tableName));
+
+        if (caches != null)
+            for (EntityCache cache : caches)
+                cache.invalidate(id);
+    }
+
+    /**
+     * 表有不确定是哪些记录的修改，作废用到这张表的所有命名空间的本地缓存
+     *
+     * @param tableName 表名
+     */
+    public static void invalidateTable(String tableName) {
+        if (BY_TABLE.isEmpty() || tableName == null)
+            return;
+
+        List<EntityCache> caches = BY_TABLE.get(CountCache.normalizeTable(tableName));
+
+        if (caches != null)
+            caches.forEach(EntityCache::clear);
+    }
+
+    private Object redisGet(String key, String variant) {
+        try {
+            return RedisUtils.getInstance().hashGet(redisKey(key), variant);
+        } catch (Throwable e) { // Redis 不可用的话，直接查数据库
+            log.warn("读取 Redis 的实体缓存失败", e);
+            return null;
+        }
+    }
+
+    private void redisPut(String key, String variant, Object value, long before) {
+        try {
+            RedisUtils redisUtils = RedisUtils.getInstance();
+            redisUtils.hashPut(redisKey(key), variant, value);
+            redisUtils.expire(redisKey(key), ttl, TimeUnit.MILLISECONDS);
+
+            if (version.get() != before) // 同 putLocal()，期间作废了的话删掉
+                redisUtils.del(redisKey(key));
+        } catch (Throwable e) {
+            log.warn("写入 Redis 的实体缓存失败", e);
+        }
+    }
+
+    private String redisKey(String key) {
+        return REDIS_PREFIX + namespace + ":" + key;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * 获取本地的缓存，可用于查看命中率
+     *
+     * @return 本地的缓存
+     */
+    public TinyLfuCache<String, Map<String, Object>> getLocal() {
+        return local;
+    }
+}
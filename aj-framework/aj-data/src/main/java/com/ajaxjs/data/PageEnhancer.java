@@ -2,18 +2,31 @@ package com.ajaxjs.data;
 
 import com.ajaxjs.data.data_service.DataServiceException;
 import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.EntityMetadata;
 import com.ajaxjs.data.jdbc_helper.JdbcReader;
+import com.ajaxjs.data.jdbc_helper.UnitOfWork;
+import com.ajaxjs.data.util.LruCache;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.Function;
-import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
 import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.statement.select.*;
+import org.springframework.util.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  * SQL 增强器
@@ -43,6 +56,26 @@ public class PageEnhancer {
 
     private JdbcReader jdbcReader;
 
+    /**
+     * SQL 里 ? 对应的参数，统计总数和分页查询都会用到
+     */
+    private Object[] params;
+
+    /**
+     * 分页的选项，为 null 的话为普通分页，统计总数
+     */
+    private PageOptions options;
+
+    /**
+     * keyset 分页时，上一页最后一条记录的排序字段的值，第一页为 null
+     */
+    private Object[] cursorValues;
+
+    /**
+     * 数据源。同时统计总数（PageOptions.parallelCount）时，从这里另外取一个连接执行 COUNT，为 null 的话依次执行
+     */
+    private DataSource dataSource;
+
     /**
      * 获取分页参数
      *
@@ -94,9 +127,47 @@ public class PageEnhancer {
     public PageEnhancer initSql(String sql, HttpServletRequest req) {
         getParams(req);
 
+        if (options != null && options.getLimit() > 0)
+            limit = options.getLimit();
+
+        if (options != null && options.isKeyset()) {
+            String cursor = options.getCursor();
+
+            if (cursor == null && req != null)
+                cursor = req.getParameter("cursor");
+
+            return initKeyset(sql, StringUtils.hasText(cursor) ? PageOptions.decodeCursor(cursor) : null);
+        }
+
         return initSql(sql, start, limit);
     }
 
+    /**
+     * keyset 分页
+     *
+     * @param sql          普通 SELECT 语句，不用写 ORDER BY
+     * @param cursorValues 上一页最后一条记录的排序字段的值，第一页为 null
+     * @return 该实例
+     */
+    public PageEnhancer initKeyset(String sql, Object[] cursorValues) {
+        String[] keys = options.getKeys();
+
+        if (cursorValues != null && cursorValues.length != keys.length)
+            throw new IllegalArgumentException("cursor 与排序字段的个数不一致");
+
+        this.start = 0;
+        this.cursorValues = cursorValues;
+
+        DatabaseVendor vendor = jdbcReader.getDatabaseVendor();
+        String normalized = normalize(sql);
+        countTotal = SQL_CACHE.computeIfAbsent(vendor + ":" + normalized, k -> parse(sql, vendor)).countSql;
+
+        String key = String.join(",", keys) + (options.isDesc() ? " DESC" : "") + (cursorValues == null ? ":" : ":C:") + vendor + ":" + normalized;
+        pageSql = KEYSET_SQL_CACHE.computeIfAbsent(key, k -> keysetSql(sql, vendor, keys, options.isDesc(), cursorValues != null));
+
+        return this;
+    }
+
     /**
      * 分页
      *
@@ -106,78 +177,341 @@ public class PageEnhancer {
      * @return 该实例
      */
     public PageEnhancer initSql(String sql, int start, int limit) {
-        Select selectStatement = null;
+        this.start = start;
+        this.limit = limit;
+
+        DatabaseVendor vendor = jdbcReader.getDatabaseVendor();
+        PageSql cached = SQL_CACHE.computeIfAbsent(vendor + ":" + normalize(sql), k -> parse(sql, vendor));
+        countTotal = cached.countSql;
+        pageSql = cached.pageSql;
+
+        return this;
+    }
+
+    /**
+     * 从普通 SELECT 语句推导出来的统计总数和分页的 SQL
+     */
+    public static class PageSql {
+        /**
+         * 统计总数的 SQL
+         */
+        public final String countSql;
+
+        /**
+         * 分页 SQL，最后两个 ? 分别为 start 和 limit
+         */
+        public final String pageSql;
+
+        PageSql(String countSql, String pageSql) {
+            this.countSql = countSql;
+            this.pageSql = pageSql;
+        }
+    }
+
+    /**
+     * 解析过的 SQL。同一个接口的 SQL 结构基本不变，不用每次都解析
+     */
+    private static final LruCache<String, PageSql> SQL_CACHE = new LruCache<>(512);
+
+    /**
+     * 获取 SQL 的缓存，可用于查看命中率
+     *
+     * @return SQL 的缓存
+     */
+    public static LruCache<String, PageSql> getSqlCache() {
+        return SQL_CACHE;
+    }
+
+    /**
+     * 合并空白字符（引号里面的除外），作为缓存的 key
+     */
+    static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean space = false, quoted = false;
+
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+
+            if (c == '\'')
+                quoted = !quoted;
+
+            if (!quoted && Character.isWhitespace(c))
+                space = sb.length() > 0;
+            else {
+                if (space)
+                    sb.append(' ');
+
+                sb.append(c);
+                space = false;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * 解析 SQL，生成统计总数和分页的 SQL。分页的 start 和 limit 以 ? 绑定，所以不同页共用同一条 SQL
+     *
+     * @param sql    普通 SELECT 语句
+     * @param vendor 数据库厂商
+     * @return 统计总数和分页的 SQL
+     */
+    static PageSql parse(String sql, DatabaseVendor vendor) {
+        String pageSql;
+
+        if (vendor == DatabaseVendor.MYSQL)
+            pageSql = sql + " LIMIT ?, ?";
+        else if (vendor == DatabaseVendor.DERBY)
+            pageSql = sql + " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+        else throw new DataServiceException("TODO: add db vendor");
+
+        Select selectStatement;
 
         try {
             selectStatement = (Select) CCJSqlParserUtil.parse(sql);
         } catch (JSQLParserException e) {
             log.warn("ERROR>>", e);
+            throw new DataServiceException("解析分页的 SQL 失败：" + e.getMessage());
         }
 
-        assert selectStatement != null;
         SelectBody selectBody = selectStatement.getSelectBody();
 
         if (selectBody instanceof PlainSelect) {
             PlainSelect plainSelect = (PlainSelect) selectBody;
 
-            // 设置分页语句
-//            Limit limitObj = new Limit();
-//            limitObj.setRowCount(new LongValue(limit));
-//            limitObj.setOffset(new LongValue(start));
-//            plainSelect.setLimit(limitObj);
-
-//            pageSql = selectStatement.toString();
-            if (jdbcReader.getDatabaseVendor() == DatabaseVendor.MYSQL)
-                pageSql = sql + " LIMIT " + start + ", " + limit;
-            else if (jdbcReader.getDatabaseVendor() == DatabaseVendor.DERBY)
-                pageSql = sql + " OFFSET " + start + " ROWS FETCH NEXT " + limit + " ROWS ONLY";
-            else throw new DataServiceException("TODO: add db vendor");
+            // 移除 排序 语句。排序里有 ? 的话保留，免得参数对不上
+            List<OrderByElement> orderBy = plainSelect.getOrderByElements();
 
-            // 移除 排序 语句
-            if (sql.toUpperCase().contains("ORDER BY")) {
-                List<OrderByElement> orderBy = plainSelect.getOrderByElements();
-
-                if (orderBy != null) plainSelect.setOrderByElements(null);
-            }
+            if (orderBy != null && !orderBy.toString().contains("?"))
+                plainSelect.setOrderByElements(null);
 
             // 创建一个 count 函数的表达式
             Function countFunc = new Function();
             countFunc.setName("COUNT");
             countFunc.setParameters(new ExpressionList(new AllColumns()));
 
-            // 替换所有的 Select Item
+            // 替换所有的 Select Item。Select Item 里有 ? 的话用子查询，免得参数对不上
             List<SelectItem> selectItems = plainSelect.getSelectItems();
+
+            if (selectItems.toString().contains("?") || plainSelect.getDistinct() != null || plainSelect.getGroupBy() != null)
+                return new PageSql("SELECT COUNT(*) FROM (" + sql + ") t", pageSql);
+
             selectItems.clear();
             selectItems.add(new SelectExpressionItem(countFunc));
 
-            countTotal = selectStatement.toString();
-        } else if (selectBody instanceof SetOperationList) {
-            SetOperationList setOperationList = (SetOperationList) selectBody;
-            List<SelectBody> selectBodies = setOperationList.getSelects();
-
-            /*
-             * 我们还考虑了 SQL 查询语句中使用了 SetOperationList 的情况，这时需要对每个 SELECT 子查询都进行分页，同时修改 FROM
-             * 部分的表名，以避免语法错误。
-             */
-            selectBodies.forEach(selectItem -> {
-                if (selectItem instanceof PlainSelect) {
-                    PlainSelect plainSelect = (PlainSelect) selectItem;
-                    Limit limitObj = new Limit();
-                    limitObj.setRowCount(new LongValue(limit));
-                    limitObj.setOffset(new LongValue(start));
-                    plainSelect.setLimit(limitObj);
-
-//                    if (plainSelect.getFromItem() != null) {
-                    // modify the original table by adding an alias
-//						plainSelect.getFromItem().setAlias(new Table("original_table_alias"));
-//                    }
+            return new PageSql(selectStatement.toString(), pageSql);
+        } else // UNION 等，对整个结果统计总数和分页
+            return new PageSql("SELECT COUNT(*) FROM (" + sql + ") t", pageSql);
+    }
+
+    /**
+     * 限制最多返回多少行，行数以 ? 绑定，须放在参数的最后
+     *
+     * @param sql    SELECT 语句
+     * @param vendor 数据库厂商
+     * @return 加上了限制的 SQL
+     */
+    public static String limitSql(String sql, DatabaseVendor vendor) {
+        if (vendor == DatabaseVendor.MYSQL || vendor == DatabaseVendor.MARIADB)
+            return sql + " LIMIT ?";
+        else // SQL:2008 的标准写法
+            return sql + " FETCH FIRST ? ROWS ONLY";
+    }
+
+    /**
+     * 自定义的 SQL 加上行数限制之后的 SQL
+     */
+    private static final LruCache<String, String> CAP_SQL_CACHE = new LruCache<>(512);
+
+    /**
+     * 限制任意的 SELECT 最多返回多少行，行数以 ? 绑定，须放在参数的最后。
+     * 没有 LIMIT 的话直接加在后面，排序不变；已经有 LIMIT 的话用子查询，外层按同样的字段再排序一次：
+     * 子查询（派生表）里的 ORDER BY 数据库可以忽略，例如 MariaDB，只用子查询的话返回的是任意的若干行
+     *
+     * @param sql    SELECT 语句
+     * @param vendor 数据库厂商
+     * @return 加上了限制的 SQL
+     */
+    public static String capSql(String sql, DatabaseVendor vendor) {
+        return CAP_SQL_CACHE.computeIfAbsent(vendor + ":" + sql, k -> {
+            SelectBody selectBody;
+
+            try {
+                selectBody = ((Select) CCJSqlParserUtil.parse(sql)).getSelectBody();
+            } catch (JSQLParserException | ClassCastException e) {
+                log.warn("解析 SQL 失败，用子查询限制行数：" + sql, e);
+                return limitSql("SELECT * FROM (" + sql + ") t", vendor);
+            }
+
+            List<OrderByElement> orderBy;
+            boolean limited;
+
+            if (selectBody instanceof PlainSelect) {
+                PlainSelect plainSelect = (PlainSelect) selectBody;
+                orderBy = plainSelect.getOrderByElements();
+                limited = plainSelect.getLimit() != null || plainSelect.getOffset() != null || plainSelect.getFetch() != null || plainSelect.getTop() != null;
+            } else if (selectBody instanceof SetOperationList) {
+                SetOperationList union = (SetOperationList) selectBody;
+                orderBy = union.getOrderByElements();
+                limited = union.getLimit() != null || union.getOffset() != null || union.getFetch() != null;
+            } else {
+                orderBy = null;
+                limited = true;
+            }
+
+            if (!limited)
+                return limitSql(sql, vendor);
+
+            return limitSql("SELECT * FROM (" + sql + ") t" + outerOrderBy(selectBody, orderBy), vendor);
+        });
+    }
+
+    /**
+     * 子查询里的排序，改为对外层 t 的字段排序。只支持按字段（或者别名）排序，且这个字段在结果里，否则不排序
+     */
+    private static String outerOrderBy(SelectBody selectBody, List<OrderByElement> orderBy) {
+        if (orderBy == null || orderBy.isEmpty())
+            return "";
+
+        StringBuilder sb = new StringBuilder(" ORDER BY ");
+
+        for (int i = 0; i < orderBy.size(); i++) {
+            OrderByElement element = orderBy.get(i);
+
+            if (!(element.getExpression() instanceof Column))
+                return "";
+
+            String column = ((Column) element.getExpression()).getColumnName();
+
+            if (selectBody instanceof PlainSelect && !isSelected((PlainSelect) selectBody, column))
+                return "";
+
+            sb.append(i == 0 ? "" : ", ").append("t.").append(column).append(element.isAsc() ? "" : " DESC");
+        }
+
+        return sb.toString();
+    }
+
+    private static boolean isSelected(PlainSelect plainSelect, String column) {
+        for (SelectItem item : plainSelect.getSelectItems()) {
+            if (item instanceof AllColumns || item instanceof AllTableColumns)
+                return true;
+
+            if (item instanceof SelectExpressionItem) {
+                SelectExpressionItem expressionItem = (SelectExpressionItem) item;
+
+                if (expressionItem.getAlias() != null ? expressionItem.getAlias().getName().equalsIgnoreCase(column)
+                        : expressionItem.getExpression() instanceof Column && ((Column) expressionItem.getExpression()).getColumnName().equalsIgnoreCase(column))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * keyset 分页的 SQL
+     */
+    private static final LruCache<String, String> KEYSET_SQL_CACHE = new LruCache<>(512);
+
+    /**
+     * 生成 keyset 分页的 SQL：加上排序字段的条件，按排序字段排序，最后的 ? 为读取数量。
+     * 简单的 SELECT 直接在 WHERE 里加上条件，这样可以用上索引；其他的（GROUP BY、UNION 等）用子查询
+     *
+     * @param sql       普通 SELECT 语句
+     * @param vendor    数据库厂商
+     * @param keys      排序字段
+     * @param desc      是否倒序
+     * @param hasCursor 是否有上一页，没有的话不加条件
+     * @return keyset 分页的 SQL
+     */
+    static String keysetSql(String sql, DatabaseVendor vendor, String[] keys, boolean desc, boolean hasCursor) {
+        String limitSql;
+
+        if (vendor == DatabaseVendor.MYSQL)
+            limitSql = " LIMIT ?";
+        else if (vendor == DatabaseVendor.DERBY)
+            limitSql = " FETCH FIRST ? ROWS ONLY";
+        else throw new DataServiceException("TODO: add db vendor");
+
+        Select selectStatement;
+
+        try {
+            selectStatement = (Select) CCJSqlParserUtil.parse(sql);
+        } catch (JSQLParserException e) {
+            log.warn("ERROR>>", e);
+            throw new DataServiceException("解析分页的 SQL 失败：" + e.getMessage());
+        }
+
+        SelectBody selectBody = selectStatement.getSelectBody();
+
+        if (selectBody instanceof PlainSelect) {
+            PlainSelect plainSelect = (PlainSelect) selectBody;
+            List<OrderByElement> orderBy = plainSelect.getOrderByElements();
+
+            if (plainSelect.getGroupBy() == null && plainSelect.getHaving() == null && plainSelect.getDistinct() == null && plainSelect.getLimit() == null
+                    && plainSelect.getOffset() == null && plainSelect.getFetch() == null && (orderBy == null || !orderBy.toString().contains("?"))) {
+                plainSelect.setOrderByElements(null);
+
+                if (hasCursor) {
+                    Expression where = plainSelect.getWhere(), predicate;
+
+                    try {
+                        predicate = CCJSqlParserUtil.parseCondExpression(keysetPredicate(keys, desc));
+                    } catch (JSQLParserException e) {
+                        throw new DataServiceException("非法的排序字段：" + String.join(",", keys));
+                    }
+
+                    plainSelect.setWhere(where == null ? predicate : new AndExpression(new Parenthesis(where), predicate));
                 }
-            });
 
-            countTotal = selectStatement.toString();
+                return selectStatement + keysetOrderBy(keys, desc) + limitSql;
+            }
         }
 
-        return this;
+        String[] columns = new String[keys.length];// 子查询外面不能带表的别名
+
+        for (int i = 0; i < keys.length; i++)
+            columns[i] = keys[i].substring(keys[i].lastIndexOf('.') + 1);
+
+        return "SELECT * FROM (" + sql + ") t" + (hasCursor ? " WHERE " + keysetPredicate(columns, desc) : "") + keysetOrderBy(columns, desc) + limitSql;
+    }
+
+    /**
+     * 排序字段的条件，例如 (a &gt; ?) OR (a = ? AND b &gt; ?)。有的数据库（例如 Derby）不支持 (a, b) &gt; (?, ?) 的写法，所以展开
+     */
+    private static String keysetPredicate(String[] keys, boolean desc) {
+        StringBuilder sb = new StringBuilder("(");
+
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0)
+                sb.append(" OR ");
+
+            sb.append('(');
+
+            for (int j = 0; j < i; j++)
+                sb.append(keys[j]).append(" = ? AND ");
+
+            sb.append(keys[i]).append(desc ? " < ?" : " > ?").append(')');
+        }
+
+        return sb.append(')').toString();
+    }
+
+    private static String keysetOrderBy(String[] keys, boolean desc) {
+        StringBuilder sb = new StringBuilder(" ORDER BY ");
+
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+
+            sb.append(keys[i]);
+
+            if (desc)
+                sb.append(" DESC");
+        }
+
+        return sb.toString();
     }
 
     /**
@@ -190,30 +524,304 @@ public class PageEnhancer {
     @SuppressWarnings("unchecked")
     public <T> PageResult<T> page(Class<T> beanCls) {
         PageResult<T> result = new PageResult<>();
-        Long total = jdbcReader.queryOne(countTotal, Long.class);
-
-        if (total != null && total > 0) {
-            List<T> list;
+        boolean keyset = options != null && options.isKeyset();
+        Future<Long> countFuture = isParallelCount() ? submitCount() : null;
+        Long total = null;
 
-            // 如果 beanCls 为 null，则将查询结果作为 Map 列表返回
-            // 否则将查询结果转换为指定实体类的列表
-            if (beanCls == null) list = (List<T>) jdbcReader.queryAsMapList(pageSql);
-            else list = jdbcReader.queryAsBeanList(beanCls, pageSql);
+        if (countFuture == null) {
+            total = count(jdbcReader);
 
-            if (list != null) {
-                result.setTotalCount(total.intValue());
-                result.addAll(list);
+            if (total != null && total == 0) {
+                result.setTotalCount(0);
+                result.setZero(true);
 
                 return result;
             }
         }
 
-        result.setTotalCount(0);
-        result.setZero(true);
+        boolean fetchMore = keyset || total == null; // 没有总数的话，多读一条来判断是否还有下一页
+        Object[] pageParams = keyset ? getKeysetParams() : getPageParams(fetchMore);
+        List<T> list;
+
+        // 如果 beanCls 为 null，则将查询结果作为 Map 列表返回
+        // 否则将查询结果转换为指定实体类的列表
+        try {
+            if (beanCls == null) list = (List<T>) jdbcReader.queryAsMapList(pageSql, pageParams);
+            else list = jdbcReader.queryAsBeanList(beanCls, pageSql, pageParams);
+        } catch (RuntimeException e) {
+            if (countFuture != null)
+                countFuture.cancel(true);
+
+            throw e;
+        }
+
+        if (list == null)
+            list = new ArrayList<>();
+
+        if (countFuture != null)
+            total = awaitCount(countFuture);
+
+        boolean hasMore;
+
+        if (fetchMore) {
+            hasMore = list.size() > limit;
+
+            if (hasMore)
+                list = list.subList(0, limit);
+        } else
+            hasMore = start + list.size() < total;
+
+        result.addAll(list);
+        result.setTotalCount(total == null ? -1 : total.intValue());
+        result.setHasMore(hasMore);
+        result.setZero(list.isEmpty() && start == 0 && cursorValues == null);
+
+        if (keyset && hasMore)
+            result.setNextCursor(PageOptions.encodeCursor(getKeyValues(list.get(list.size() - 1), options.getKeys())));
 
         return result;
     }
 
+    /**
+     * 是否在另外一个连接上同时统计总数。在事务里或者已经写入过的话不同时统计，免得另外的连接看不到自己写入的数据，总数与列表不一致
+     *
+     * @return true 表示同时统计
+     */
+    private boolean isParallelCount() {
+        if (options == null || !options.isParallelCount() || dataSource == null || options.getCountMode() == PageOptions.CountMode.SKIP)
+            return false;
+
+        UnitOfWork unit = UnitOfWork.current(dataSource);
+
+        return unit == null || !unit.isTransactional() && !unit.isWritten();
+    }
+
+    /**
+     * 在另外一个连接上统计总数
+     *
+     * @return 总数的结果
+     */
+    private Future<Long> submitCount() {
+        long timeout = options.getCountTimeout();
+
+        return getCountExecutor().submit(() -> {
+            JdbcReader reader = new JdbcReader();
+            reader.setDatabaseVendor(jdbcReader.getDatabaseVendor());
+
+            if (timeout > 0) // 超时后让数据库也停止执行，不要继续占用连接
+                reader.setQueryTimeout((int) Math.max(1, (timeout + 999) / 1000));
+
+            try (Connection conn = dataSource.getConnection()) {
+                reader.setConn(conn);
+
+                return count(reader);
+            }
+        });
+    }
+
+    /**
+     * 等待总数的结果
+     *
+     * @param countFuture 总数的结果
+     * @return 总数，超时或者出错的话返回 null，按照没有统计总数处理
+     */
+    private Long awaitCount(Future<Long> countFuture) {
+        long timeout = options.getCountTimeout();
+
+        try {
+            return timeout > 0 ? countFuture.get(timeout, TimeUnit.MILLISECONDS) : countFuture.get();
+        } catch (TimeoutException e) {
+            countFuture.cancel(true);
+            log.info("统计总数超过 {} 毫秒，不返回总数：{}", timeout, countTotal);
+        } catch (ExecutionException e) {
+            log.warn("统计总数失败", e.getCause());
+        } catch (InterruptedException e) {
+            countFuture.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+
+        return null;
+    }
+
+    /**
+     * 按照选项统计总数
+     *
+     * @param jdbcReader 执行统计的 JdbcReader
+     * @return 总数，为 null 表示没有统计
+     */
+    private Long count(JdbcReader jdbcReader) {
+        PageOptions.CountMode mode = options == null ? PageOptions.CountMode.EXACT : options.getCountMode();
+
+        switch (mode) {
+            case SKIP:
+                return null;
+            case ESTIMATE:
+                Long estimated = estimate(jdbcReader);
+
+                if (estimated != null)
+                    return estimated;
+
+                break;
+            case CACHE:
+                return CountCache.get(countTotal, params, () -> jdbcReader.queryOne(countTotal, Long.class, params));
+        }
+
+        return jdbcReader.queryOne(countTotal, Long.class, params);
+    }
+
+    /**
+     * 同时统计总数所用的线程池
+     */
+    private static volatile ExecutorService countExecutor;
+
+    /**
+     * 获取同时统计总数所用的线程池。运行在 Java 21 以上的话使用虚拟线程，否则为有界的线程池，
+     * 队列满了的话在调用者的线程执行，即退化为依次执行
+     *
+     * @return 线程池
+     */
+    public static ExecutorService getCountExecutor() {
+        if (countExecutor == null) {
+            synchronized (PageEnhancer.class) {
+                if (countExecutor == null)
+                    countExecutor = createCountExecutor();
+            }
+        }
+
+        return countExecutor;
+    }
+
+    /**
+     * 设置同时统计总数所用的线程池，例如与应用的其他异步任务共用
+     *
+     * @param executor 线程池
+     */
+    public static void setCountExecutor(ExecutorService executor) {
+        countExecutor = executor;
+    }
+
+    private static ExecutorService createCountExecutor() {
+        return AsyncDataAccessObject.newExecutor("page-count");
+    }
+
+    /**
+     * 用执行计划估算总数，只支持 MySQL
+     *
+     * @param jdbcReader 执行估算的 JdbcReader
+     * @return 估算的总数，不支持的话返回 null
+     */
+    private Long estimate(JdbcReader jdbcReader) {
+        if (jdbcReader.getDatabaseVendor() != DatabaseVendor.MYSQL)
+            return null;
+
+        try {
+            Map<String, Object> plan = jdbcReader.queryAsMap("EXPLAIN " + countTotal, params);
+            Object rows = plan == null ? null : plan.get("rows");
+
+            return rows instanceof Number ? ((Number) rows).longValue() : null;
+        } catch (RuntimeException e) {
+            log.warn("估算总数失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 分页 SQL 的参数：SQL 原有的参数，加上 start 和 limit
+     *
+     * @return 分页 SQL 的参数
+     */
+    public Object[] getPageParams() {
+        return getPageParams(false);
+    }
+
+    private Object[] getPageParams(boolean fetchMore) {
+        Object[] pageParams = copyParams(2);
+        pageParams[pageParams.length - 2] = start;
+        pageParams[pageParams.length - 1] = fetchMore ? limit + 1 : limit;
+
+        return pageParams;
+    }
+
+    /**
+     * keyset 分页 SQL 的参数：SQL 原有的参数，加上排序字段条件的参数和读取数量（多读一条来判断是否还有下一页）
+     *
+     * @return keyset 分页 SQL 的参数
+     */
+    private Object[] getKeysetParams() {
+        int n = cursorValues == null ? 0 : cursorValues.length;
+        Object[] pageParams = copyParams(n * (n + 1) / 2 + 1);
+        int i = params == null ? 0 : params.length;
+
+        for (int k = 0; k < n; k++) // 与 keysetPredicate() 的顺序一致
+            for (int j = 0; j <= k; j++)
+                pageParams[i++] = cursorValues[j];
+
+        pageParams[i] = limit + 1;
+
+        return pageParams;
+    }
+
+    private Object[] copyParams(int extra) {
+        int length = params == null ? 0 : params.length;
+        Object[] copy = new Object[length + extra];
+
+        if (length > 0)
+            System.arraycopy(params, 0, copy, 0, length);
+
+        return copy;
+    }
+
+    /**
+     * 读取一条记录的排序字段的值
+     *
+     * @param row  记录，Map 或 Bean
+     * @param keys 排序字段
+     * @return 排序字段的值
+     */
+    static Object[] getKeyValues(Object row, String[] keys) {
+        Object[] values = new Object[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i].substring(keys[i].lastIndexOf('.') + 1).replace("\"", "").replace("`", ""); // 去掉引号
+
+            if (row instanceof Map)
+                values[i] = getMapValue((Map<?, ?>) row, key);
+            else {
+                EntityMetadata.Column column = EntityMetadata.of(row.getClass()).getColumn(key);
+
+                if (column == null)
+                    throw new DataAccessException("实体 " + row.getClass() + " 没有排序字段 " + key);
+
+                values[i] = column.get(row);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * 从 Map 的一行中获取排序字段的值。getResultMap() 的键是驼峰的，例如 create_date 为 createDate；
+     * 有的数据库返回大写的字段名，例如 Derby 的 CREATE_DATE 为 CREATEDATE，所以再忽略大小写匹配
+     */
+    private static Object getMapValue(Map<?, ?> map, String key) {
+        if (map.containsKey(key))
+            return map.get(key);
+
+        String field = DataUtils.changeColumnToFieldName(key);
+
+        if (map.containsKey(field))
+            return map.get(field);
+
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            String name = String.valueOf(e.getKey());
+
+            if (key.equalsIgnoreCase(name) || field.equalsIgnoreCase(name))
+                return e.getValue();
+        }
+
+        return null;
+    }
+
     /**
      * 将页码和每页数量转换为起始位置
      * pageSize 转换为 MySQL 的 start 分页
@@ -0,0 +1,179 @@
+package com.ajaxjs.data;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 分页的选项
+ * <p>
+ * 默认为普通的 start/limit 分页。设置了 keys 的话为 keyset 分页：按 keys 排序，
+ * 下一页的条件是 keys 大于（倒序的话小于）上一页最后一条记录的值，而不是跳过前面的 N 条，
+ * 所以翻到多深都只需要读取一页的数据。上一页最后一条记录的值编码为 cursor 返回给前端，翻页时再传回来。
+ * keys 的组合必须唯一（例如最后加上主键），并且最好有索引
+ */
+@Data
+@Accessors(chain = true)
+public class PageOptions {
+    /**
+     * 统计总数的方式
+     */
+    public enum CountMode {
+        /**
+         * 执行 COUNT(*)
+         */
+        EXACT,
+
+        /**
+         * 不统计总数，只返回是否还有下一页
+         */
+        SKIP,
+
+        /**
+         * 用数据库的执行计划估算，不支持的数据库执行 COUNT(*)
+         */
+        ESTIMATE,
+
+        /**
+         * 相同的 SQL 和参数，在一段时间内复用上次的总数，表有写入的话重新统计。参见 {@link CountCache}
+         */
+        CACHE
+    }
+
+    /**
+     * keyset 分页的排序字段，按顺序组合，例如 {"create_date", "id"}。为空的话为普通分页
+     */
+    private String[] keys;
+
+    /**
+     * 是否倒序
+     */
+    private boolean desc;
+
+    /**
+     * 上一页返回的 cursor，第一页为 null
+     */
+    private String cursor;
+
+    /**
+     * 每页数量，0 表示从请求参数中获取
+     */
+    private int limit;
+
+    /**
+     * 统计总数的方式
+     */
+    private CountMode countMode = CountMode.EXACT;
+
+    /**
+     * 是否在另外一个连接上与分页查询同时统计总数，需要 PageEnhancer 设置了数据源。
+     * 适合总数统计较慢的场景，两条 SQL 的耗时取最大值而不是相加
+     */
+    private boolean parallelCount;
+
+    /**
+     * 同时统计总数时，最多等待多少毫秒，0 表示一直等待。超时的话放弃总数，只返回是否还有下一页
+     */
+    private long countTimeout;
+
+    /**
+     * 是否 keyset 分页
+     *
+     * @return true 表示 keyset 分页
+     */
+    public boolean isKeyset() {
+        return keys != null && keys.length > 0;
+    }
+
+    /**
+     * 把一条记录的排序字段的值编码为 cursor
+     *
+     * @param values 排序字段的值
+     * @return cursor
+     */
+    public static String encodeCursor(Object[] values) {
+        StringBuilder sb = new StringBuilder();
+
+        for (Object value : values) {
+            if (sb.length() > 0)
+                sb.append(SEPARATOR);
+
+            if (value == null)
+                sb.append('N');
+            else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+                sb.append('L').append(value);
+            else if (value instanceof Number)
+                sb.append('D').append(new BigDecimal(value.toString()).toPlainString());
+            else if (value instanceof Date)
+                sb.append('T').append(((Date) value).getTime());
+            else
+                sb.append('S').append(value);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码 cursor
+     *
+     * @param cursor cursor
+     * @return 排序字段的值
+     * @throws IllegalArgumentException cursor 不合法
+     */
+    public static Object[] decodeCursor(String cursor) {
+        String str;
+
+        try {
+            str = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("非法的 cursor：" + cursor);
+        }
+
+        List<Object> values = new ArrayList<>();
+
+        for (String item : str.split(String.valueOf(SEPARATOR), -1)) {
+            if (item.isEmpty())
+                throw new IllegalArgumentException("非法的 cursor：" + cursor);
+
+            String value = item.substring(1);
+
+            try {
+                switch (item.charAt(0)) {
+                    case 'N':
+                        values.add(null);
+                        break;
+                    case 'L':
+                        values.add(Long.parseLong(value));
+                        break;
+                    case 'D':
+                        values.add(new BigDecimal(value));
+                        break;
+                    case 'T':
+                        values.add(new Timestamp(Long.parseLong(value)));
+                        break;
+                    case 'S':
+                        values.add(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("非法的 cursor：" + cursor);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("非法的 cursor：" + cursor);
+            }
+        }
+
+        return values.toArray();
+    }
+
+    /**
+     * cursor 中分隔各个值
+     */
+    private static final char SEPARATOR = '\u0001';
+}
@@ -21,7 +21,7 @@ public class PageResult<T> extends ArrayList<T> {
     private static final long serialVersionUID = 543109149479031294L;
 
     /**
-     * 总记录数
+     * 总记录数，-1 表示没有统计（PageOptions.CountMode.SKIP）
      */
     private int totalCount;
 
@@ -50,6 +50,16 @@ public class PageResult<T> extends ArrayList<T> {
      */
     private boolean isZero;
 
+    /**
+     * 是否还有下一页
+     */
+    private boolean hasMore;
+
+    /**
+     * keyset 分页时，下一页的 cursor，没有下一页的话为 null
+     */
+    private String nextCursor;
+
     /**
      * 分页的逻辑运算
      */
@@ -0,0 +1,170 @@
+package com.ajaxjs.data;
+
+import com.ajaxjs.data.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 查询结果的缓存，用于 DataService 的 list/page
+ * <p>
+ * 同一个 key 只有一个请求去查询（single-flight），其他的请求等它的结果；过期了的话，由一个请求重新查询，
+ * 其他的请求在这期间先返回旧的结果，不会同时涌向数据库。
+ * key 由调用者构造，一般包含命名空间、排序过的查询参数、租户和表的版本号（见 {@link CountCache#version(String)}），表有写入的话自然不再命中。
+ * 注意返回的结果是多个请求共用的，不要修改
+ */
+public class ResultCache {
+    /**
+     * 默认的过期时间（毫秒）
+     */
+    public static final long DEFAULT_TTL = 10 * 1000;
+
+    private static final Map<String, ResultCache> CACHES = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存项
+     */
+    private static class Entry {
+        final Object value;
+
+        final long expireAt;
+
+        Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private final long ttl;
+
+    private final LruCache<String, Entry> cache;
+
+    /**
+     * 正在查询的
+     */
+    private final Map<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    private ResultCache(int maxSize, long ttl) {
+        this.ttl = ttl;
+        cache = new LruCache<>(maxSize);
+    }
+
+    /**
+     * 获取缓存，没有的话创建。容量或者过期时间改了的话，重新创建
+     *
+     * @param name    缓存的名称，例如命名空间
+     * @param maxSize 最多缓存多少个结果
+     * @param ttl     过期时间（毫秒）
+     * @return 缓存
+     */
+    public static ResultCache of(String name, int maxSize, long ttl) {
+        ResultCache cache = CACHES.get(name);
+
+        if (cache != null && cache.ttl == ttl && cache.cache.getMaxSize() == maxSize)
+            return cache;
+
+        return CACHES.compute(name, (k, old) -> old != null && old.ttl == ttl && old.cache.getMaxSize() == maxSize ? old : new ResultCache(maxSize, ttl));
+    }
+
+    /**
+     * 清空所有的缓存，例如重新加载了配置
+     */
+    public static void clearAll() {
+        CACHES.clear();
+    }
+
+    /**
+     * 获取结果，没有或者过期了的话执行 loader。同一个 key 同时只有一个 loader 在执行
+     *
+     * @param key    key
+     * @param loader 查询
+     * @param <T>    结果的类型
+     * @return 结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> loader) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(key);
+
+        if (entry != null && now < entry.expireAt)
+            return (T) entry.value;
+
+        if (entry != null && now - entry.expireAt > ttl) // 过期太久的，不再返回
+            entry = null;
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loading.putIfAbsent(key, future);
+
+        if (existing != null) { // 已经有请求在查询
+            if (entry != null)
+                return (T) entry.value;
+
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new DataAccessException(cause.getMessage());
+            }
+        }
+
+        try {
+            Entry loaded = cache.get(key); // 可能刚刚有请求查询完毕
+
+            if (loaded != null && System.currentTimeMillis() < loaded.expireAt) {
+                future.complete(loaded.value);
+                return (T) loaded.value;
+            }
+
+            T value = loader.get();
+
+            if (value != null)
+                cache.put(key, new Entry(value, System.currentTimeMillis() + ttl));
+
+            future.complete(value);
+
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * 清空这个缓存
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * 获取缓存，可用于查看命中率
+     *
+     * @return 缓存
+     */
+    public LruCache<String, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * 构造 key，参数按名称排序，与参数的顺序无关
+     *
+     * @param prefix 前缀，例如命名空间、租户、表的版本号
+     * @param params 查询参数
+     * @return key
+     */
+    public static String key(String prefix, Map<String, String[]> params) {
+        StringBuilder sb = new StringBuilder(prefix);
+
+        if (params != null)
+            new TreeMap<>(params).forEach((name, values) -> sb.append('&').append(name).append('=').append(Arrays.toString(values)));
+
+        return sb.toString();
+    }
+}
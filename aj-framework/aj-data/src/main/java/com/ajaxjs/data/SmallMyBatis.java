@@ -1,6 +1,8 @@
 package com.ajaxjs.data;
 
 
+import com.ajaxjs.data.jdbc_helper.JdbcWriter;
+import com.ajaxjs.data.util.LruCache;
 import com.ajaxjs.data.util.XmlHelper;
 import com.ajaxjs.util.io.Resources;
 import lombok.extern.slf4j.Slf4j;
@@ -30,6 +32,16 @@ public class SmallMyBatis {
      */
     private final Map<String, String> sqls = new HashMap<>();
 
+    /**
+     * key=id/value=编译好的 SQL 模板
+     */
+    private final Map<String, SqlTemplate> templates = new HashMap<>();
+
+    /**
+     * 不是从 XML 加载的 SQL（例如配置在数据库里的），按 SQL 内容缓存编译好的模板
+     */
+    private static final LruCache<String, SqlTemplate> TEMPLATE_CACHE = new LruCache<>(512);
+
     /**
      * 加载 XML SQL
      *
@@ -52,6 +64,13 @@ public class SmallMyBatis {
 
                         String sql = XmlHelper.getNodeText(node);
                         sqls.put(id, sql);
+
+                        try {
+                            templates.put(id, SqlTemplate.compile(sql));
+                        } catch (RuntimeException e) {
+                            templates.remove(id); // 使用时再报错
+                            log.warn("编译 sqlId [" + id + "] 失败", e);
+                        }
                     }
                 });
             } else log.warn("找不到 {}-XML 资源", xmlFile);
@@ -95,7 +114,30 @@ public class SmallMyBatis {
     }
 
     /**
-     * 类似 Mybatis 替换动态 sql 的方法，要求支持 if 标签
+     * 根据 id 获取编译好的 SQL 模板
+     *
+     * @param id xml 里面的 id
+     * @return SQL 模板
+     */
+    public SqlTemplate getTemplateById(String id) {
+        SqlTemplate template = templates.get(id);
+
+        return template == null ? getTemplate(getSqlById(id)) : template;
+    }
+
+    /**
+     * 获取 SQL 的模板，编译过的从缓存中获取
+     *
+     * @param sql SQL 语句
+     * @return SQL 模板
+     */
+    public static SqlTemplate getTemplate(String sql) {
+        return TEMPLATE_CACHE.computeIfAbsent(sql, SqlTemplate::compile);
+    }
+
+    /**
+     * 类似 Mybatis 替换动态 sql 的方法，要求支持 if 标签。
+     * 每次调用都会重新扫描 SQL、解析表达式，频繁调用的请使用 {@link SqlTemplate}
      *
      * @param sqlTemplate SQL 语句
      * @param params      SQL 插值参数集合
@@ -157,44 +199,6 @@ public class SmallMyBatis {
         return BOL_EXP_PARSER.get(test, params);
     }
 
-    /**
-     * 解析 SQL 中的 forEach 语句
-     *
-     * @param sql    原始 SQL 语句
-     * @param params 参数集合
-     * @return 解析后的 SQL 语句
-     */
-    private static String parseForEach(String sql, Map<String, Object> params) {
-        StringBuilder result = new StringBuilder(sql.length());
-        int start = 0, end = sql.indexOf("<forEach>", start);
-
-        while (end != -1) {
-            result.append(sql, start, end);
-            int subStart = end + "<forEach>".length(), subEnd = sql.indexOf("</forEach>", subStart);
-            String subSql = sql.substring(subStart, subEnd), varName = sql.substring(end + "<forEach>".length(), subStart - "</forEach>".length() - 1).trim();
-            Object list = params.get(varName);
-
-            if (list instanceof List<?>) {
-                List<?> itemList = (List<?>) list;
-
-                for (int i = 0; i < itemList.size(); i++) {
-                    Map<String, Object> subParams = new HashMap<>(params);
-                    subParams.put("item", itemList.get(i));
-                    subParams.put("index", i);
-                    String subResult = parseForEach(subSql, subParams);
-                    result.append(subResult);
-                }
-            }
-
-            start = subEnd + "</forEach>".length();
-            end = sql.indexOf("<forEach>", start);
-        }
-
-        result.append(sql.substring(start));
-
-        return result.toString();
-    }
-
     /**
      * 匹配占位符的正则表达式
      */
@@ -253,7 +257,7 @@ public class SmallMyBatis {
      * @return 处理后的 SQL 语句
      */
     public String handleSql(Map<String, Object> paramsMap, String sqlId) {
-        return handleSql(getSqlById(sqlId), paramsMap);// 处理 SQL 语句
+        return getTemplateById(sqlId).render(paramsMap == null ? EMPTY_PARAMS_MAP : paramsMap);
     }
 
     /**
@@ -262,7 +266,7 @@ public class SmallMyBatis {
     private static final Map<String, Object> EMPTY_PARAMS_MAP = new HashMap<>();
 
     /**
-     * 处理 SQL 语句
+     * 处理 SQL 语句。SQL 编译为模板后缓存起来，不会每次都重新解析
      *
      * @param sql       SQL 语句
      * @param paramsMap 参数映射关系
@@ -272,11 +276,42 @@ public class SmallMyBatis {
         if (paramsMap == null)
             paramsMap = EMPTY_PARAMS_MAP;
 
-        sql = generateIfBlock(sql, paramsMap);
-        //        sql = parseForEach(sql, paramsMap);
-        sql = getValuedSQL(sql, paramsMap);
-        sql = sql.replaceAll("&lt;", "<").replaceAll("&gt;", ">");
+        return getTemplate(sql).render(paramsMap);
+    }
 
-        return sql;
+    /**
+     * 处理 SQL 语句，#{} 输出为 ? 占位符，值放到参数数组中
+     *
+     * @param paramsMap 参数映射关系
+     * @param sqlId     SQL ID
+     * @param params    SQL 里原有的 ? 对应的参数
+     * @return SQL 和参数数组
+     */
+    public JdbcWriter.SqlParams bindSql(Map<String, Object> paramsMap, String sqlId, Object... params) {
+        return getTemplateById(sqlId).bind(paramsMap == null ? EMPTY_PARAMS_MAP : paramsMap, params);
+    }
+
+    /**
+     * 处理 SQL 语句，#{} 输出为 ? 占位符，值放到参数数组中
+     *
+     * @param sql       SQL 语句
+     * @param paramsMap 参数映射关系
+     * @param params    SQL 里原有的 ? 对应的参数
+     * @return SQL 和参数数组
+     */
+    public static JdbcWriter.SqlParams bindSql(String sql, Map<String, Object> paramsMap, Object... params) {
+        return getTemplate(sql).bind(paramsMap == null ? EMPTY_PARAMS_MAP : paramsMap, params);
+    }
+
+    /**
+     * 处理 SQL 语句，#{} 输出为 ? 占位符。forEach 的集合太大的话分为多条 SQL，见 {@link SqlTemplate#bindChunks}
+     *
+     * @param paramsMap 参数映射关系
+     * @param sqlId     SQL ID
+     * @param params    SQL 里原有的 ? 对应的参数
+     * @return 一条或多条 SQL 和参数数组
+     */
+    public List<JdbcWriter.SqlParams> bindChunks(Map<String, Object> paramsMap, String sqlId, Object... params) {
+        return getTemplateById(sqlId).bindChunks(paramsMap == null ? EMPTY_PARAMS_MAP : paramsMap, params);
     }
 }
@@ -0,0 +1,696 @@
+package com.ajaxjs.data;
+
+import com.ajaxjs.data.jdbc_helper.JdbcWriter;
+import org.springframework.context.expression.MapAccessor;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.TypedValue;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelEvaluationException;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.ReflectivePropertyAccessor;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * 编译好的 SQL 模板
+ * <p>
+ * SQL 只解析一次，分解为静态文本、if 节点（test 表达式已预先解析）和 #{}/${} 占位符。
+ * 之后每次渲染只需顺序遍历一次节点，不再扫描 if 标签、解析表达式和执行正则替换。
+ * <p>
+ * 有两种渲染方式：
+ * <ul>
+ *     <li>{@link #render(Map)} 把值直接拼接到 SQL 中，结果与 {@link SmallMyBatis#generateIfBlock}、{@link SmallMyBatis#getValuedSQL} 的组合一致</li>
+ *     <li>{@link #bind(Map, Object...)} #{} 输出为 ? 占位符，值按顺序放到参数数组中。相同结构的查询得到相同的 SQL，可以复用数据库的执行计划和 PreparedStatement 缓存，也避免了 SQL 注入</li>
+ * </ul>
+ * ${} 在两种方式下都是原样输出，只应用于表名、排序字段等不能绑定的地方。
+ * 另外 if 标签可以嵌套，test 中没有传的参数视为 null（例如 {@code x == null} 为 true）。
+ * 还支持 forEach 标签，见 {@link ForEachNode}
+ */
+public class SqlTemplate {
+    /**
+     * 绑定模式下收集参数
+     */
+    static class Bindings {
+        /**
+         * 按 ? 的顺序排列的参数值
+         */
+        final List<Object> values = new ArrayList<>();
+
+        /**
+         * 调用者传入的参数，对应 SQL 里原有的 ?
+         */
+        final Object[] args;
+
+        int nextArg;
+
+        /**
+         * 是否对 forEach 分批
+         */
+        boolean chunking;
+
+        /**
+         * 分批的 forEach，一次渲染只对一个 forEach 分批
+         */
+        ForEachNode chunked;
+
+        /**
+         * 本批从集合的第几项开始
+         */
+        int chunkOffset;
+
+        /**
+         * 分批的集合的大小
+         */
+        int chunkTotal;
+
+        Bindings(Object[] args) {
+            this.args = args == null ? new Object[0] : args;
+        }
+
+        /**
+         * 消耗 n 个调用者传入的参数
+         */
+        void takeArgs(int n) {
+            for (int i = 0; i < n && nextArg < args.length; i++)
+                values.add(args[nextArg++]);
+        }
+    }
+
+    /**
+     * 模板的节点
+     */
+    interface Node {
+        /**
+         * 输出到 SQL
+         *
+         * @param params   参数
+         * @param sb       SQL
+         * @param bindings 绑定模式下收集参数，为 null 表示把值拼接到 SQL 中
+         */
+        void render(Map<String, Object> params, StringBuilder sb, Bindings bindings);
+    }
+
+    /**
+     * 静态文本，&amp;lt;/&amp;gt; 已还原
+     */
+    static class Text implements Node {
+        final String text;
+
+        /**
+         * 文本中原有的 ? 的个数，不算引号里面的
+         */
+        final int holes;
+
+        Text(String text) {
+            this.text = text;
+
+            int holes = 0;
+            boolean quoted = false;
+
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+
+                if (c == '\'')
+                    quoted = !quoted;
+                else if (c == '?' && !quoted)
+                    holes++;
+            }
+
+            this.holes = holes;
+        }
+
+        @Override
+        public void render(Map<String, Object> params, StringBuilder sb, Bindings bindings) {
+            sb.append(text);
+
+            if (bindings != null && holes > 0)
+                bindings.takeArgs(holes);
+        }
+    }
+
+    /**
+     * #{} 或 ${} 占位符
+     */
+    static class Placeholder implements Node {
+        /**
+         * 参数的 key
+         */
+        final String key;
+
+        /**
+         * true 表示 ${}，原样输出
+         */
+        final boolean raw;
+
+        /**
+         * T( 开头的，调用 Java 类的方法，预先解析
+         */
+        final Expression expression;
+
+        /**
+         * 带 . 的，例如 forEach 里的 item.id，读取属性，预先解析
+         */
+        final Expression property;
+
+        Placeholder(String key, boolean raw) {
+            this.key = key;
+            this.raw = raw;
+            expression = key.startsWith("T(") ? EXP_PARSER.parseExpression(key) : null;
+            property = expression == null && key.indexOf('.') > 0 ? EXP_PARSER.parseExpression(key) : null;
+        }
+
+        @Override
+        public void render(Map<String, Object> params, StringBuilder sb, Bindings bindings) {
+            Object value;
+
+            if (expression != null)
+                value = expression.getValue();
+            else if (property != null && !params.containsKey(key))
+                value = getProperty(params);
+            else
+                value = params.get(key);
+
+            if (bindings != null && !raw) {
+                sb.append('?');
+                bindings.values.add(value);
+
+                return;
+            }
+
+            if (value == null) // 如果值为空，替换为空字符串
+                return;
+
+            if (raw || expression != null)
+                sb.append(value);
+            else if (value instanceof Number)
+                sb.append(value);
+            else if (value.equals(true))
+                sb.append('1');
+            else if (value.equals(false))
+                sb.append('0');
+            else
+                sb.append('\'').append(value).append('\''); // 如果是非数字类型，加上单引号
+        }
+
+        private Object getProperty(Map<String, Object> params) {
+            try {
+                return property.getValue(CONTEXT, params);
+            } catch (SpelEvaluationException e) {// 中间有 null 值
+                return null;
+            }
+        }
+    }
+
+    /**
+     * if 标签
+     */
+    static class IfNode implements Node {
+        final Expression test;
+
+        final Node[] children;
+
+        IfNode(Expression test, Node[] children) {
+            this.test = test;
+            this.children = children;
+        }
+
+        @Override
+        public void render(Map<String, Object> params, StringBuilder sb, Bindings bindings) {
+            boolean result;
+
+            try {
+                result = Boolean.TRUE.equals(test.getValue(CONTEXT, params, Boolean.class));
+            } catch (SpelEvaluationException e) {// 为防止 null 值
+                result = false;
+            }
+
+            if (result)
+                for (Node child : children)
+                    child.render(params, sb, bindings);
+        }
+    }
+
+    /**
+     * forEach 标签，遍历集合，每一项输出一次标签的内容。属性与 MyBatis 的相同：
+     * <pre>
+     * &lt;forEach collection="ids" item="id" index="i" open="(" separator="," close=")"&gt;#{id}&lt;/forEach&gt;
+     * </pre>
+     * collection 可以是 Collection 或数组，item 默认为 item，index 默认为 index。
+     * 另外 chunkSize 为分批的大小，见 {@link #bindChunks(Map, Object...)}。不设置的话不分批：只有 id IN (...) 这样的条件分批查询再合并的结果才是对的，
+     * NOT IN、COUNT、DISTINCT、ORDER BY ... LIMIT 等的话结果不对，所以须自己确认可以分批才设置
+     */
+    static class ForEachNode implements Node {
+        final String collection, item, index, open, separator, close;
+
+        /**
+         * 分批的大小，0 表示不分批
+         */
+        final int chunkSize;
+
+        /**
+         * 是否可以分批。嵌套在 forEach 里面的不行
+         */
+        final boolean chunkable;
+
+        final Node[] children;
+
+        ForEachNode(String attributes, Node[] children, boolean chunkable) {
+            collection = SqlTemplate.getAttribute(attributes, "collection");
+
+            if (collection == null)
+                throw new IllegalArgumentException("forEach 标签缺少 collection 属性：" + attributes);
+
+            item = getAttribute(attributes, "item", "item");
+            index = getAttribute(attributes, "index", "index");
+            open = unescape(getAttribute(attributes, "open", ""));
+            separator = unescape(getAttribute(attributes, "separator", ""));
+            close = unescape(getAttribute(attributes, "close", ""));
+            chunkSize = Integer.parseInt(getAttribute(attributes, "chunkSize", "0"));
+            this.chunkable = chunkable;
+            this.children = children;
+        }
+
+        @Override
+        public void render(Map<String, Object> params, StringBuilder sb, Bindings bindings) {
+            List<?> list = toList(params.get(collection));
+
+            if (list.isEmpty())
+                return;
+
+            int from = 0, to = list.size();
+
+            if (bindings != null && bindings.chunking && chunkable && chunkSize > 0 && to > chunkSize && (bindings.chunked == null || bindings.chunked == this)) {
+                bindings.chunked = this;
+                bindings.chunkTotal = to;
+                from = bindings.chunkOffset;
+                to = Math.min(to, from + chunkSize);
+            }
+
+            ItemParams itemParams = new ItemParams(params, item, index);
+            sb.append(open);
+
+            for (int i = from; i < to; i++) {
+                if (i > from)
+                    sb.append(separator);
+
+                itemParams.item = list.get(i);
+                itemParams.index = i;
+
+                for (Node child : children)
+                    child.render(itemParams, sb, bindings);
+            }
+
+            sb.append(close);
+        }
+
+        private static String getAttribute(String attributes, String name, String defaultValue) {
+            String value = SqlTemplate.getAttribute(attributes, name);
+
+            return value == null ? defaultValue : value;
+        }
+
+        private static List<?> toList(Object value) {
+            if (value == null)
+                return Collections.emptyList();
+
+            if (value instanceof List)
+                return (List<?>) value;
+
+            if (value instanceof Collection)
+                return new ArrayList<>((Collection<?>) value);
+
+            if (value instanceof Object[])
+                return Arrays.asList((Object[]) value);
+
+            if (value.getClass().isArray()) { // 基本类型的数组
+                int length = Array.getLength(value);
+                List<Object> list = new ArrayList<>(length);
+
+                for (int i = 0; i < length; i++)
+                    list.add(Array.get(value, i));
+
+                return list;
+            }
+
+            return Collections.singletonList(value);
+        }
+    }
+
+    /**
+     * forEach 每一项的参数：item 和 index 是当前项的，其余的从原来的参数中读取。
+     * 不复制原来的参数，所以集合再大也不会有额外的开销
+     */
+    static class ItemParams extends AbstractMap<String, Object> {
+        private final Map<String, Object> parent;
+
+        private final String itemName, indexName;
+
+        Object item;
+
+        int index;
+
+        ItemParams(Map<String, Object> parent, String itemName, String indexName) {
+            this.parent = parent;
+            this.itemName = itemName;
+            this.indexName = indexName;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (itemName.equals(key))
+                return item;
+
+            if (indexName.equals(key))
+                return index;
+
+            return parent.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return itemName.equals(key) || indexName.equals(key) || parent.containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Map<String, Object> map = new HashMap<>(parent);
+            map.put(itemName, item);
+            map.put(indexName, index);
+
+            return map.entrySet();
+        }
+    }
+
+    /**
+     * MIXED 模式：表达式执行若干次后编译为字节码，编译失败的话仍然解释执行
+     */
+    private static final ExpressionParser EXP_PARSER = new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.MIXED, SqlTemplate.class.getClassLoader()));
+
+    /**
+     * 参数里没有的 key 读取为 null，而不是抛出异常。
+     * 大部分 if 都是判断参数有没有传，异常的开销比渲染 SQL 本身还大
+     */
+    static class NullableMapAccessor extends MapAccessor {
+        @Override
+        public boolean canRead(EvaluationContext context, Object target, String name) {
+            return target instanceof Map;
+        }
+
+        @Override
+        public TypedValue read(EvaluationContext context, Object target, String name) {
+            return new TypedValue(((Map<?, ?>) target).get(name));
+        }
+    }
+
+    /**
+     * if 表达式的上下文，通过 MapAccessor 直接读取参数
+     */
+    private static final StandardEvaluationContext CONTEXT = new StandardEvaluationContext();
+
+    static {
+        CONTEXT.setPropertyAccessors(Arrays.asList(new NullableMapAccessor(), new ReflectivePropertyAccessor()));
+    }
+
+    /**
+     * 每个线程复用的 StringBuilder
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    /**
+     * 超过这个容量的 StringBuilder 用完不再复用，免得一直占着内存
+     */
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    private static final String IF = "if";
+
+    /**
+     * 支持的标签，forEach 也可以写作 MyBatis 的 foreach
+     */
+    private static final String[] TAGS = {IF, "forEach", "foreach"};
+
+    /**
+     * 原始的 SQL
+     */
+    private final String source;
+
+    private final Node[] nodes;
+
+    private SqlTemplate(String source, Node[] nodes) {
+        this.source = source;
+        this.nodes = nodes;
+    }
+
+    /**
+     * 编译 SQL 模板
+     *
+     * @param sql SQL 语句，可以包含 if 标签和 #{}/${} 占位符
+     * @return 模板
+     * @throws IllegalArgumentException if 标签不完整
+     */
+    public static SqlTemplate compile(String sql) {
+        return new SqlTemplate(sql, parse(sql, 0, sql.length(), false));
+    }
+
+    /**
+     * 渲染出实际要执行的 SQL
+     *
+     * @param params SQL 插值参数集合
+     * @return 实际要执行的 SQL
+     */
+    public String render(Map<String, Object> params) {
+        return render(params, null);
+    }
+
+    /**
+     * 渲染出带 ? 占位符的 SQL 和对应的参数
+     *
+     * @param params SQL 插值参数集合
+     * @param args   SQL 里原有的 ? 对应的参数，按出现的顺序与 #{} 的值合并，多出来的放在最后
+     * @return SQL 和参数数组
+     */
+    public JdbcWriter.SqlParams bind(Map<String, Object> params, Object... args) {
+        return bind(params, new Bindings(args));
+    }
+
+    /**
+     * 渲染出带 ? 占位符的 SQL 和对应的参数。forEach 设置了 chunkSize 且集合超过的话，分为多条 SQL，每条只包含集合的一部分。
+     * 例如 5 万个 id 的 IN 查询，分为 50 条每条 1000 个 id 的查询，而不是一条很长的 SQL。
+     * 查询的话，调用者依次执行每条 SQL 并合并结果，注意 ORDER BY、LIMIT 只在每条 SQL 内生效。
+     * 只对第一个超出的 forEach 分批（嵌套的不算）
+     *
+     * @param params SQL 插值参数集合
+     * @param args   SQL 里原有的 ? 对应的参数
+     * @return 一条或多条 SQL 和参数数组
+     */
+    public List<JdbcWriter.SqlParams> bindChunks(Map<String, Object> params, Object... args) {
+        List<JdbcWriter.SqlParams> list = new ArrayList<>();
+        ForEachNode chunked = null;
+        int offset = 0;
+
+        while (true) {
+            Bindings bindings = new Bindings(args);
+            bindings.chunking = true;
+            bindings.chunked = chunked;
+            bindings.chunkOffset = offset;
+            list.add(bind(params, bindings));
+
+            chunked = bindings.chunked;
+
+            if (chunked == null) // 没有需要分批的
+                break;
+
+            offset += chunked.chunkSize;
+
+            if (offset >= bindings.chunkTotal)
+                break;
+        }
+
+        return list;
+    }
+
+    private JdbcWriter.SqlParams bind(Map<String, Object> params, Bindings bindings) {
+        JdbcWriter.SqlParams sp = new JdbcWriter.SqlParams();
+        sp.sql = render(params, bindings);
+        bindings.takeArgs(bindings.args.length - bindings.nextArg);
+        sp.values = bindings.values.toArray();
+
+        return sp;
+    }
+
+    private String render(Map<String, Object> params, Bindings bindings) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+
+        for (Node node : nodes)
+            node.render(params, sb, bindings);
+
+        String sql = sb.toString();
+
+        if (sb.capacity() > MAX_BUFFER_SIZE)
+            BUFFER.remove();
+
+        return sql;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * 解析 [from, to) 之间的 SQL
+     *
+     * @param inForEach 是否在 forEach 里面，里面的 forEach 不分批
+     */
+    private static Node[] parse(String sql, int from, int to, boolean inForEach) {
+        List<Node> nodes = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int i = from;
+
+        while (i < to) {
+            char c = sql.charAt(i);
+            String tag = c == '<' ? getTag(sql, i, to) : null;
+
+            if (tag != null) {
+                addText(nodes, text);
+
+                int tagEnd = sql.indexOf('>', i); // 属性里的 > 在 XML 中已转义为 &gt;
+
+                if (tagEnd == -1 || tagEnd >= to)
+                    throw new IllegalArgumentException(tag + " 标签没有闭合：" + sql.substring(i, to));
+
+                int close = findEnd(sql, tag, tagEnd + 1, to);
+                String attributes = sql.substring(i + 1 + tag.length(), tagEnd);
+
+                if (IF.equals(tag)) {
+                    String test = getAttribute(attributes, "test");
+
+                    if (test == null)
+                        throw new IllegalArgumentException("if 标签缺少 test 属性：" + attributes);
+
+                    nodes.add(new IfNode(EXP_PARSER.parseExpression(unescape(test)), parse(sql, tagEnd + 1, close, inForEach)));
+                } else
+                    nodes.add(new ForEachNode(attributes, parse(sql, tagEnd + 1, close, true), !inForEach));
+
+                i = close + tag.length() + 3; // </tag>
+            } else if ((c == '#' || c == '$') && i + 1 < to && sql.charAt(i + 1) == '{') {
+                int end = sql.indexOf('}', i + 2);
+
+                if (end == -1 || end >= to || hasLineBreak(sql, i + 2, end)) { // 不是占位符
+                    text.append(c);
+                    i++;
+                    continue;
+                }
+
+                addText(nodes, text);
+                nodes.add(new Placeholder(sql.substring(i + 2, end), c == '$'));
+                i = end + 1;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+
+        addText(nodes, text);
+
+        return nodes.toArray(new Node[0]);
+    }
+
+    /**
+     * 位置 i 是否为支持的标签的开始
+     *
+     * @return 标签名，不是的话返回 null
+     */
+    private static String getTag(String sql, int i, int to) {
+        for (String tag : TAGS)
+            if (isTagStart(sql, tag, i, to))
+                return tag;
+
+        return null;
+    }
+
+    private static boolean isTagStart(String sql, String tag, int i, int to) {
+        int next = i + 1 + tag.length();
+
+        if (next >= to || sql.charAt(i) != '<' || !sql.startsWith(tag, i + 1))
+            return false;
+
+        char c = sql.charAt(next);
+
+        return c == '>' || Character.isWhitespace(c);
+    }
+
+    /**
+     * 查找匹配的结束标签，跳过嵌套的同名标签
+     */
+    private static int findEnd(String sql, String tag, int from, int to) {
+        String end = "</" + tag + ">";
+        int depth = 1;
+
+        for (int i = from; i < to; i++) {
+            if (sql.charAt(i) != '<')
+                continue;
+
+            if (isTagStart(sql, tag, i, to))
+                depth++;
+            else if (sql.startsWith(end, i) && --depth == 0)
+                return i;
+        }
+
+        throw new IllegalArgumentException(tag + " 标签没有闭合：" + sql.substring(from, to));
+    }
+
+    /**
+     * 从标签的属性中取出某个属性的值
+     *
+     * @return 属性值，没有的话返回 null
+     */
+    static String getAttribute(String attributes, String name) {
+        String key = name + "=";
+        int start = attributes.indexOf(key);
+
+        while (start > 0 && !Character.isWhitespace(attributes.charAt(start - 1))) // 例如 item= 不能匹配 open_item=
+            start = attributes.indexOf(key, start + 1);
+
+        int valueStart = start + key.length();
+
+        if (start != -1 && valueStart < attributes.length()) {
+            char quote = attributes.charAt(valueStart);
+            int end = attributes.indexOf(quote, valueStart + 1);
+
+            if ((quote == '"' || quote == '\'') && end != -1)
+                return attributes.substring(valueStart + 1, end);
+        }
+
+        return null;
+    }
+
+    /**
+     * 与正则 .*? 一致，占位符不能跨行
+     */
+    private static boolean hasLineBreak(String sql, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = sql.charAt(i);
+
+            if (c == '\n' || c == '\r')
+                return true;
+        }
+
+        return false;
+    }
+
+    private static void addText(List<Node> nodes, StringBuilder text) {
+        if (text.length() > 0) {
+            nodes.add(new Text(unescape(text.toString())));
+            text.setLength(0);
+        }
+    }
+
+    private static String unescape(String str) {
+        return str.replace("&lt;", "<").replace("&gt;", ">");
+    }
+}
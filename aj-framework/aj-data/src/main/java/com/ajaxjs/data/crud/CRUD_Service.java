@@ -2,20 +2,26 @@ package com.ajaxjs.data.crud;
 
 import com.ajaxjs.data.*;
 import com.ajaxjs.data.data_service.DataServiceUtils;
+import com.ajaxjs.data.jdbc_helper.EntityMetadata;
 import com.ajaxjs.data.jdbc_helper.JdbcReader;
 import com.ajaxjs.data.jdbc_helper.JdbcWriter;
-import com.ajaxjs.data.jdbc_helper.common.IdField;
-import com.ajaxjs.data.jdbc_helper.common.TableName;
+import com.ajaxjs.data.jdbc_helper.ReadReplicas;
+import com.ajaxjs.data.jdbc_helper.UnitOfWork;
+import com.ajaxjs.data.jdbc_helper.common.ResultSetProcessor;
+import com.ajaxjs.data.jdbc_helper.common.RowHandler;
 import com.ajaxjs.util.ListUtils;
 import com.ajaxjs.util.reflect.Methods;
 import lombok.Data;
 import lombok.experimental.Accessors;
 import org.springframework.util.StringUtils;
 
+import javax.sql.DataSource;
 import java.io.Serializable;
 import java.sql.Connection;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Data
 @Accessors(chain = true)
@@ -24,70 +30,208 @@ public class CRUD_Service implements DataAccessObject {
 
     private JdbcWriter writer;
 
+    /**
+     * 数据源，可选。设置了的话，分页可以在另外一个连接上同时统计总数
+     */
+    private DataSource dataSource;
+
+    /**
+     * 读写分离，可选。设置了的话，读取分流到从库
+     */
+    private ReadReplicas replicas;
+
     /**
      *
      */
     private SmallMyBatis smallMyBatis;
 
+    /**
+     * 获取执行读取的 JdbcReader
+     *
+     * @return 设置了读写分离的话，按需返回从库的
+     */
+    private JdbcReader reader() {
+        return replicas == null ? reader : replicas.select();
+    }
+
     @Override
     public <T> T queryOne(Class<T> clz, String sql, Object... params) {
-        return reader.queryOne(sql, clz, params);
+        return reader().queryOne(sql, clz, params);
     }
 
     @Override
     public <T> T info(Class<T> beanClz, String sql, Object... params) {
-        return reader.queryAsBean(beanClz, sql, params);
+        return reader().queryAsBean(beanClz, sql, params);
     }
 
     @Override
     public <T> T infoBySqlId(Class<T> beanClz, String sqlId, Map<String, Object> mapParams, Object... params) {
-        String sql = smallMyBatis.handleSql(mapParams, sqlId);
+        JdbcWriter.SqlParams sp = smallMyBatis.bindSql(mapParams, sqlId, params);
 
-        return reader.queryAsBean(beanClz, sql, params);
+        return reader().queryAsBean(beanClz, sp.sql, sp.values);
     }
 
     @Override
     public Map<String, Object> infoMap(String sql, Object... params) {
-        return reader.queryAsMap(sql, params);
+        return reader().queryAsMap(sql, params);
     }
 
     @Override
     public Map<String, Object> infoMapBySqlId(String sqlId, Map<String, Object> mapParams, Object... params) {
-        String sql = smallMyBatis.handleSql(mapParams, sqlId);
+        JdbcWriter.SqlParams sp = smallMyBatis.bindSql(mapParams, sqlId, params);
 
-        return reader.queryAsMap(sql, params);
+        return reader().queryAsMap(sp.sql, sp.values);
     }
 
     @Override
     public <T> List<T> list(Class<T> beanClz, String sql, Object... params) {
-        return ListUtils.getList(reader.queryAsBeanList(beanClz, sql, params));
+        return ListUtils.getList(reader().queryAsBeanList(beanClz, sql, params));
+    }
+
+    /**
+     * 按 id 批量查询时，每批最多多少个 id
+     */
+    public static final int IDS_CHUNK_SIZE = 1000;
+
+    @Override
+    public <K, T> Map<K, T> findByIds(Class<T> beanClz, String tableName, String idField, Collection<K> ids) {
+        return findByIds(JdbcReader.getResultBean(beanClz), idField, ids, chunk -> inSql(tableName, idField, chunk));
+    }
+
+    @Override
+    public <K> Map<K, Map<String, Object>> findMapByIds(String tableName, String idField, Collection<K> ids) {
+        return findByIds(JdbcReader::getResultMap, idField, ids, chunk -> inSql(tableName, idField, chunk));
+    }
+
+    private static JdbcWriter.SqlParams inSql(String tableName, String idField, Object[] chunk) {
+        JdbcWriter.SqlParams sp = new JdbcWriter.SqlParams();
+        sp.sql = "SELECT * FROM " + tableName + " WHERE " + idField + " IN (" + inPlaceholders(chunk.length) + ")";
+        sp.values = chunk;
+
+        return sp;
+    }
+
+    /**
+     * 按 id 分批查询，每批一条 SQL。
+     * 每批 id 的个数向上补齐到 2 的幂（重复最后一个 id），这样不同个数的 id 只用到少数几条 SQL，可以被语句缓存重用
+     *
+     * @param processor  单行处理器
+     * @param idField    id 字段
+     * @param ids        id，可以有重复
+     * @param sqlOfChunk 根据这一批的 id 生成 SQL 和参数，IN 里 ? 的个数与 id 的个数相同，见 {@link #inPlaceholders(int)}
+     * @param <K>        id 类型
+     * @param <T>        每一行的类型
+     * @return id -> 结果，按 ids 的顺序，查不到的 id 不包含在内
+     */
+    public <K, T> Map<K, T> findByIds(ResultSetProcessor<T> processor, String idField, Collection<K> ids, Function<Object[], JdbcWriter.SqlParams> sqlOfChunk) {
+        Map<K, T> result = new LinkedHashMap<>();
+
+        if (ids == null || ids.isEmpty())
+            return result;
+
+        List<K> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<String, T> found = new HashMap<>();
+
+        for (int from = 0; from < distinct.size(); from += IDS_CHUNK_SIZE) {
+            List<K> chunk = distinct.subList(from, Math.min(from + IDS_CHUNK_SIZE, distinct.size()));
+            int size = chunk.size() == 1 ? 1 : Math.min(IDS_CHUNK_SIZE, Integer.highestOneBit(chunk.size() - 1) << 1);
+            Object[] values = chunk.toArray(new Object[size]);
+            Arrays.fill(values, chunk.size(), size, chunk.get(chunk.size() - 1));
+
+            JdbcWriter.SqlParams sp = sqlOfChunk.apply(values);
+            found.putAll(reader().queryAsKeyedMap(processor, idField, sp.sql, sp.values));
+        }
+
+        for (K id : distinct) {
+            T row = found.get(String.valueOf(id));
+
+            if (row != null)
+                result.put(id, row);
+        }
+
+        return result;
+    }
+
+    /**
+     * IN 里面的占位符
+     *
+     * @param size 个数
+     * @return 例如 ?, ?, ?
+     */
+    public static String inPlaceholders(int size) {
+        StringBuilder sb = new StringBuilder(size * 3);
+
+        for (int i = 0; i < size; i++)
+            sb.append(i == 0 ? "?" : ", ?");
+
+        return sb.toString();
     }
 
     @Override
     public <T> List<T> listById(Class<T> beanClz, String sqlId, Map<String, Object> mapParams, Object... params) {
-        String sql = smallMyBatis.handleSql(mapParams, sqlId);
+        List<T> list = null;
 
-        return ListUtils.getList(reader.queryAsBeanList(beanClz, sql, params));
+        for (JdbcWriter.SqlParams sp : smallMyBatis.bindChunks(mapParams, sqlId, params)) // forEach 设置了 chunkSize 分批的话，合并结果
+            list = merge(list, reader().queryAsBeanList(beanClz, sp.sql, sp.values));
+
+        return ListUtils.getList(list);
     }
 
     @Override
     public List<Map<String, Object>> listMap(String sql, Object... params) {
-        return ListUtils.getList(reader.queryAsMapList(sql, params));
+        return ListUtils.getList(reader().queryAsMapList(sql, params));
     }
 
     @Override
     public List<Map<String, Object>> listMapBySqlId(String sqlId, Map<String, Object> mapParams, Object... params) {
-        String sql = smallMyBatis.handleSql(mapParams, sqlId);
+        List<Map<String, Object>> list = null;
+
+        for (JdbcWriter.SqlParams sp : smallMyBatis.bindChunks(mapParams, sqlId, params))
+            list = merge(list, reader().queryAsMapList(sp.sql, sp.values));
+
+        return ListUtils.getList(list);
+    }
 
-        return ListUtils.getList(reader.queryAsMapList(sql, params));
+    @Override
+    public <T> int forEach(Class<T> beanClz, RowHandler<T> handler, String sql, Object... params) {
+        return reader().forEachBean(beanClz, handler, sql, params);
     }
 
     @Override
-    public <T> PageResult<T> page(Class<T> beanClz, String sql, Map<String, Object> paramsMap) {
-        sql = SmallMyBatis.handleSql(sql, paramsMap);
+    public int forEachMap(RowHandler<Map<String, Object>> handler, String sql, Object... params) {
+        return reader().forEachMap(handler, sql, params);
+    }
 
+    @Override
+    public <T> Stream<T> stream(Class<T> beanClz, String sql, Object... params) {
+        return reader().streamAsBean(beanClz, sql, params);
+    }
+
+    @Override
+    public Stream<Map<String, Object>> streamMap(String sql, Object... params) {
+        return reader().streamAsMap(sql, params);
+    }
+
+    @Override
+    public <T> PageResult<T> page(Class<T> beanClz, String sql, Map<String, Object> paramsMap, Object... params) {
+        return page(beanClz, sql, paramsMap, (PageOptions) null, params);
+    }
+
+    @Override
+    public <T> PageResult<T> page(Class<T> beanClz, String sql, Map<String, Object> paramsMap, PageOptions options, Object... params) {
+        JdbcWriter.SqlParams sp = SmallMyBatis.bindSql(sql, paramsMap, params);
+
+        return pageRaw(beanClz, sp.sql, options, sp.values);
+    }
+
+    @Override
+    public <T> PageResult<T> pageRaw(Class<T> beanClz, String sql, PageOptions options, Object... params) {
+        JdbcReader reader = reader();
         PageEnhancer p = new PageEnhancer();
         p.setJdbcReader(reader);
+        p.setDataSource(reader == this.reader ? dataSource : reader.getDataSource());
+        p.setParams(params);
+        p.setOptions(options);
         p.initSql(sql, DataServiceUtils.getRequest());
 
         return p.page(beanClz);
@@ -95,23 +239,22 @@ public class CRUD_Service implements DataAccessObject {
 
     @Override
     public <T> PageResult<T> pageBySqlId(Class<T> beanClz, String sqlId, Map<String, Object> mapParams) {
-        String sql = smallMyBatis.handleSql(mapParams, sqlId);
+        return pageBySqlId(beanClz, sqlId, mapParams, null);
+    }
 
-        PageEnhancer p = new PageEnhancer();
-        p.setJdbcReader(reader);
-        p.initSql(sql, DataServiceUtils.getRequest());
+    @Override
+    public <T> PageResult<T> pageBySqlId(Class<T> beanClz, String sqlId, Map<String, Object> mapParams, PageOptions options) {
+        JdbcWriter.SqlParams sp = smallMyBatis.bindSql(mapParams, sqlId);
 
-        return p.page(beanClz);
+        return pageRaw(beanClz, sp.sql, options, sp.values);
     }
 
     @Override
     public Long create(String talebName, Object entity, String idField) {
-        writer.setTableName(talebName);
-
-        if (StringUtils.hasText(idField))
-            writer.setIdField(idField); // 如果ID字段名不为空，则设置 ID 字段名
+        if (!StringUtils.hasText(idField))
+            idField = writer.getIdField(); // ID 字段名为空的话，使用 JdbcWriter 默认的
 
-        return (Long) writer.create(entity);
+        return (Long) writer.create(talebName, entity, idField); // 不修改 writer 的状态，多个线程可以共用
     }
 
     @Override
@@ -131,13 +274,10 @@ public class CRUD_Service implements DataAccessObject {
 
     @Override
     public boolean update(String talebName, Object entity, String idField) {
-        writer.setTableName(talebName);
-
-        if (StringUtils.hasText(idField))
-            writer.setIdField(idField);
-        else throw new DataAccessException("未指定 id，这将会是批量全体更新！");
+        if (!StringUtils.hasText(idField))
+            throw new DataAccessException("未指定 id，这将会是批量全体更新！");
 
-        return writer.update(entity) > 0;
+        return writer.update(talebName, entity, idField) > 0;
     }
 
     @Override
@@ -162,12 +302,7 @@ public class CRUD_Service implements DataAccessObject {
 
     @Override
     public boolean updateWithWhere(Object entity, String where) {
-        String talebName = getTableName(entity);
-
-        writer.setTableName(talebName);
-        writer.setWhere(where);
-
-        return writer.updateWhere(entity, where) > 0;
+        return writer.updateWhere(getTableName(entity), entity, where) > 0;
     }
 
     @Override
@@ -177,9 +312,7 @@ public class CRUD_Service implements DataAccessObject {
 
     @Override
     public boolean delete(String talebName, Serializable id) {
-        writer.setTableName(talebName);
-
-        return writer.delete(id);
+        return writer.delete(talebName, writer.getIdField(), id);
     }
 
     @Override
@@ -194,6 +327,16 @@ public class CRUD_Service implements DataAccessObject {
         }
     }
 
+    private static <T> List<T> merge(List<T> list, List<T> chunk) {
+        if (list == null)
+            return chunk;
+
+        if (chunk != null)
+            list.addAll(chunk);
+
+        return list;
+    }
+
     /**
      * 获取实体类上的表名（通过注解）
      *
@@ -201,11 +344,11 @@ public class CRUD_Service implements DataAccessObject {
      * @return 表名
      */
     public static String getTableName(Object entity) {
-        TableName tableNameA = entity.getClass().getAnnotation(TableName.class);
-        if (tableNameA == null)
+        String tableName = EntityMetadata.of(entity.getClass()).getTableName();
+        if (tableName == null)
             throw new RuntimeException("实体类未提供表名");
 
-        return tableNameA.value();
+        return tableName;
     }
 
     /**
@@ -215,12 +358,12 @@ public class CRUD_Service implements DataAccessObject {
      * @return 表名
      */
     public static String getIdField(Object entity) {
-        IdField annotation = entity.getClass().getAnnotation(IdField.class);
+        String idField = EntityMetadata.of(entity.getClass()).getIdField();
 
-        if (annotation == null)
+        if (idField == null)
             throw new DataAccessException("没设置 IdField 注解，不知哪个主键字段");
 
-        return annotation.value();
+        return idField;
     }
 
     public static CRUD_Service factory(Connection conn) {
@@ -236,4 +379,40 @@ public class CRUD_Service implements DataAccessObject {
 
         return crud;
     }
+
+    /**
+     * 创建使用数据源的 CRUD_Service。不绑定连接，执行 SQL 的时候使用当前线程的工作单元的连接，没有的话临时获取、用完归还，
+     * 所以可以作为单例被多个线程共用
+     *
+     * @param dataSource 数据源
+     * @return CRUD_Service
+     */
+    public static CRUD_Service factory(DataSource dataSource) {
+        JdbcWriter writer = new JdbcWriter();
+        writer.setDataSource(dataSource);
+
+        JdbcReader reader = new JdbcReader();
+        reader.setDataSource(dataSource);
+
+        CRUD_Service crud = new CRUD_Service();
+        crud.setReader(reader);
+        crud.setWriter(writer);
+        crud.setDataSource(dataSource);
+
+        return crud;
+    }
+
+    /**
+     * 在事务里执行，正常返回的话提交，抛出异常的话回滚。期间所有的操作共用一个连接
+     *
+     * @param action 执行的操作
+     * @param <T>    返回值的类型
+     * @return 操作的返回值
+     */
+    public <T> T transaction(Supplier<T> action) {
+        if (dataSource == null)
+            throw new IllegalStateException("没有设置数据源");
+
+        return UnitOfWork.inTransaction(dataSource, action);
+    }
 }
\ No newline at end of file
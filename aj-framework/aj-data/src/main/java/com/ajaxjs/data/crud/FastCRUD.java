@@ -1,25 +1,42 @@
 package com.ajaxjs.data.crud;
 
 import com.ajaxjs.data.DataAccessObject;
+import com.ajaxjs.data.EntityCache;
+import com.ajaxjs.data.PageEnhancer;
+import com.ajaxjs.data.PageOptions;
 import com.ajaxjs.data.PageResult;
 import com.ajaxjs.data.SmallMyBatis;
 import com.ajaxjs.data.data_service.BaseEntityConstants;
 import com.ajaxjs.data.data_service.DataServiceUtils;
 import com.ajaxjs.data.data_service.TenantService;
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcReader;
 import com.ajaxjs.data.jdbc_helper.JdbcWriter;
+import com.ajaxjs.data.jdbc_helper.UnitOfWork;
+import com.ajaxjs.data.jdbc_helper.common.ResultSetProcessor;
+import com.ajaxjs.data.util.BatchCoalescer;
+import com.ajaxjs.data.util.LruCache;
 import com.ajaxjs.data.util.SnowflakeId;
 import com.ajaxjs.util.JsonUtil;
 import com.ajaxjs.util.StrUtil;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.beans.BeanUtils;
 import org.springframework.util.StringUtils;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.sql.DataSource;
 import java.io.Serializable;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * 通用实体快速的 CRUD。这个服务无须 DataService
@@ -49,26 +66,251 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
 
     private final static String SELECT_SQL = "SELECT * FROM %s WHERE " + DUMMY_STR;
 
+    /**
+     * 请求里指定列表返回哪些字段的参数，多个用逗号隔开
+     */
+    public final static String FIELDS_PARAM = "fields";
+
+    /**
+     * 没有自定义 SQL 时默认的 info/list/delete SQL，已经加上了当前用户、租户的过滤条件，第一次使用的时候构造
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private volatile PreparedSql preparedSql;
+
+    /**
+     * 预先构造好的 SQL。过滤租户的与不过滤的（没有租户 id 的时候）各一句，都与具体的用户、租户无关
+     */
+    private static class PreparedSql {
+        final String tableName;
+
+        final TableModel tableModel;
+
+        final boolean listOrderByDate, currentUserOnly, tenantIsolation;
+
+        final String fields;
+
+        FilteredSql info, infoByTenant, delete, deleteByTenant;
+
+        /**
+         * 列表的 SQL，不过滤租户的、过滤租户的
+         */
+        FilteredSql[] list;
+
+        /**
+         * 列表可以返回的字段（小写）。配置了 fields 的话为这些字段，否则为表的所有字段，第一次用到的时候查询
+         */
+        volatile Set<String> allowedFields;
+
+        /**
+         * 请求指定了返回的字段 -> 列表的 SQL
+         */
+        final LruCache<String, FilteredSql[]> projections = new LruCache<>(64);
+
+        /**
+         * 批量查询的 id 个数 -> SQL。id 的个数补齐到 2 的幂，所以不多
+         */
+        final Map<Integer, FilteredSql[]> batchSql = new ConcurrentHashMap<>();
+
+        /**
+         * 合并同时发生的 info()
+         */
+        final BatchCoalescer<Object, Object> coalescer = new BatchCoalescer<>(CRUD_Service.IDS_CHUNK_SIZE);
+
+        PreparedSql(FastCRUD<?, ?> crud) {
+            tableName = crud.getTableName();
+            tableModel = crud.getTableModel();
+            listOrderByDate = crud.isListOrderByDate();
+            currentUserOnly = crud.isCurrentUserOnly();
+            tenantIsolation = crud.isTenantIsolation();
+            fields = crud.getFields();
+        }
+
+        /**
+         * 配置改了的话，须重新构造
+         */
+        boolean isFor(FastCRUD<?, ?> crud) {
+            return Objects.equals(tableName, crud.getTableName()) && tableModel == crud.getTableModel() && listOrderByDate == crud.isListOrderByDate()
+                    && currentUserOnly == crud.isCurrentUserOnly() && tenantIsolation == crud.isTenantIsolation() && Objects.equals(fields, crud.getFields());
+        }
+    }
+
+    private PreparedSql getPreparedSql() {
+        PreparedSql prepared = preparedSql;
+
+        if (prepared != null && prepared.isFor(this))
+            return prepared;
+
+        prepared = new PreparedSql(this);
+        TableModel tableModel = getTableModel();
+        String idCondition = DUMMY_STR + " AND " + tableModel.getIdField() + " = ?";
+
+        String info = String.format(SELECT_SQL, getTableName()).replace(DUMMY_STR, idCondition);
+        prepared.info = FilteredSql.of(info, isCurrentUserOnly(), false);
+        prepared.infoByTenant = FilteredSql.of(info, isCurrentUserOnly(), isTenantIsolation());
+
+        List<String> fields = splitFields(getFields());
+        prepared.list = buildListSql(fields.isEmpty() ? "*" : String.join(", ", fields));
+
+        // 根据是否有删除标记字段来构造不同的 SQL 语句
+        String delete = tableModel.isHasIsDeleted() ? "UPDATE " + getTableName() + " SET " + tableModel.getDelField() + " = 1" : "DELETE FROM " + getTableName();
+        delete += " WHERE " + idCondition;
+        prepared.delete = FilteredSql.of(delete, isCurrentUserOnly(), false);
+        prepared.deleteByTenant = FilteredSql.of(delete, isCurrentUserOnly(), isTenantIsolation());
+
+        preparedSql = prepared;
+
+        return prepared;
+    }
+
+    /**
+     * 构造列表的 SQL
+     *
+     * @param columns SELECT 的字段
+     * @return 不过滤租户的、过滤租户的 SQL
+     */
+    private FilteredSql[] buildListSql(String columns) {
+        TableModel tableModel = getTableModel();
+        String list = "SELECT " + columns + " FROM " + getTableName() + " WHERE " + DUMMY_STR;
+
+        if (tableModel.isHasIsDeleted())
+            list = list.replace(DUMMY_STR, DUMMY_STR + " AND " + tableModel.getDelField() + " != 1");
+
+        if (isListOrderByDate())
+            list += " ORDER BY " + tableModel.getCreateDateField() + " DESC";
+
+        return new FilteredSql[]{FilteredSql.of(list, isCurrentUserOnly(), false), FilteredSql.of(list, isCurrentUserOnly(), isTenantIsolation())};
+    }
+
+    private static List<String> splitFields(String fields) {
+        List<String> list = new ArrayList<>();
+
+        if (StringUtils.hasText(fields))
+            for (String field : fields.split(",")) {
+                field = field.trim();
+
+                if (!field.isEmpty())
+                    list.add(field);
+            }
+
+        return list;
+    }
+
+    /**
+     * 请求的 fields 参数指定的字段，只能是配置的 fields 或者表里有的字段
+     *
+     * @param prepared 预先构造好的 SQL
+     * @return SELECT 的字段，没有指定的话返回 null
+     * @throws IllegalArgumentException 指定了不能返回的字段
+     */
+    private String getRequestColumns(PreparedSql prepared) {
+        HttpServletRequest request = DataServiceUtils.getRequest();
+        List<String> fields = splitFields(request == null ? null : request.getParameter(FIELDS_PARAM));
+
+        if (fields.isEmpty())
+            return null;
+
+        Set<String> allowed = prepared.allowedFields;
+
+        if (allowed == null) {
+            List<String> names = splitFields(getFields());
+
+            if (names.isEmpty()) {
+                if (!(getDao() instanceof CRUD_Service))
+                    throw new IllegalArgumentException("无法获取表 " + getTableName() + " 的字段");
+
+                names = ((CRUD_Service) getDao()).getReader().getColumnNames(getTableName());
+            }
+
+            allowed = new HashSet<>();
+
+            for (String name : names)
+                allowed.add(name.toLowerCase());
+
+            prepared.allowedFields = allowed;
+        }
+
+        for (String field : fields)
+            if (!allowed.contains(field.toLowerCase())) // 只允许已知的字段，所以不会有 SQL 注入
+                throw new IllegalArgumentException("不能查询的字段：" + field);
+
+        return String.join(", ", fields);
+    }
+
+    /**
+     * 当前请求的租户 id，没有开启租户隔离或者没有租户 id 的话返回 null
+     */
+    private Integer getFilterTenantId() {
+        if (!isTenantIsolation())
+            return null;
+
+        Integer tenantId = TenantService.getTenantId();
+
+        return tenantId == null || tenantId == 0 ? null : tenantId;
+    }
+
+    /**
+     * 以 ? 占位加上当前用户、租户的过滤条件，并绑定它们的值
+     *
+     * @param filtered 过滤租户的 SQL
+     * @param plain    不过滤租户的 SQL
+     * @param values   原来的参数
+     * @return SQL 和参数
+     */
+    private JdbcWriter.SqlParams bindFilter(FilteredSql filtered, FilteredSql plain, Object[] values) {
+        Integer tenantId = getFilterTenantId();
+
+        return bindFilter(tenantId == null ? plain : filtered, tenantId, values);
+    }
+
+    /**
+     * 给自定义的 SQL 加上当前用户、租户的过滤条件
+     *
+     * @param sp 自定义的 SQL 和参数
+     * @return SQL 和参数
+     */
+    private JdbcWriter.SqlParams bindFilter(JdbcWriter.SqlParams sp) {
+        Integer tenantId = getFilterTenantId();
+
+        if (!isCurrentUserOnly() && tenantId == null)
+            return sp;
+
+        return bindFilter(FilteredSql.of(sp.sql, isCurrentUserOnly(), tenantId != null), tenantId, sp.values);
+    }
+
+    private JdbcWriter.SqlParams bindFilter(FilteredSql f, Integer tenantId, Object[] values) {
+        Object userId = isCurrentUserOnly() ? DataServiceUtils.getCurrentUserId() : null;
+
+        JdbcWriter.SqlParams sp = new JdbcWriter.SqlParams();
+        sp.sql = f.sql;
+        sp.values = f.bind(values, userId, tenantId);
+
+        return sp;
+    }
+
     /**
      * 根据当前的业务上下文，构造用于查询托管信息的 SQL 语句。
      * 此方法主要用于处理动态 SQL 的生成，根据不同的条件拼接适合当前业务场景的查询语句。
+     * 当前用户、租户的条件以 ? 占位，所以 SQL 与具体的用户、租户无关
      *
-     * @return 返回构造好的 SQL 查询语句
+     * @param id 主键值
+     * @return 返回构造好的 SQL 查询语句和参数
      */
-    private String getManagedInfoSql() {
+    private JdbcWriter.SqlParams getManagedInfoSql(K id) {
         String sql = getInfoSql();// 尝试获取已经定义好的 SQL 语句
 
         // 如果已经定义了 SQL 语句且不为空，则处理查询参数的动态替换
         if (StringUtils.hasText(sql)) {
             Map<String, Object> queryStringParams = DataServiceUtils.getQueryStringParams();// 获取查询字符串中的参数
-            sql = SmallMyBatis.handleSql(sql, queryStringParams);   // 使用 SmallMyBatis 框架处理 SQL中的参数替换
-        } else
-            // 如果没有预定义SQL，则根据表名和ID字段生成一个默认的查询 SQL
-            sql = String.format(SELECT_SQL, getTableName()).replace(DUMMY_STR, DUMMY_STR + " AND " + getTableModel().getIdField() + " = ?");
 
-        sql = limitToCurrentUser(sql);// 限制查询结果只包含当前用户的数据
+            return bindFilter(SmallMyBatis.bindSql(sql, queryStringParams, id));   // 使用 SmallMyBatis 框架处理 SQL中的参数，以 ? 绑定
+        }
+
+        PreparedSql prepared = getPreparedSql(); // 如果没有预定义SQL，则使用根据表名和ID字段生成的默认的查询 SQL
 
-        return isTenantIsolation() ? TenantService.addTenantIdQuery(sql) : sql;// 根据是否启用了租户隔离，动态添加租户ID查询条件
+        return bindFilter(prepared.infoByTenant, prepared.info, new Object[]{id});
     }
 
     /**
@@ -79,7 +321,28 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
      */
     public T info(K id) {
         Objects.requireNonNull(clz, "Please give Bean Class");
-        return dao.info(clz, getManagedInfoSql(), id);
+        JdbcWriter.SqlParams sp = getManagedInfoSql(id);
+        Supplier<T> loader = isCoalescing() ? () -> coalesce(id, "bean", JdbcReader.getResultBean(clz)) : () -> dao.info(clz, sp.sql, sp.values);
+
+        if (isEntityCache())
+            return copy(getEntityCacheInstance().get(id, cacheVariant("bean", sp), clz, loader)); // 缓存的是共用的，返回副本，免得被调用者修改
+
+        T bean = loader.get();
+
+        return isCoalescing() ? copy(bean) : bean; // 合并查询的话，同一个 id 的调用者拿到的是同一个实体
+    }
+
+    /**
+     * 复制实体（浅复制），与 infoMap() 的一样
+     */
+    private T copy(T bean) {
+        if (bean == null)
+            return null;
+
+        T copy = BeanUtils.instantiateClass(clz);
+        BeanUtils.copyProperties(bean, copy);
+
+        return copy;
     }
 
     /**
@@ -89,7 +352,136 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
      * @return 包含实体详细信息的 Map 对象，键为字段名，值为字段值
      */
     public Map<String, Object> infoMap(K id) {
-        return dao.infoMap(getManagedInfoSql(), id);
+        JdbcWriter.SqlParams sp = getManagedInfoSql(id);
+        Supplier<Map<String, Object>> loader = isCoalescing() ? () -> coalesce(id, "map", JdbcReader::getResultMap) : () -> dao.infoMap(sp.sql, sp.values);
+
+        if (isEntityCache()) {
+            Map<String, Object> map = getEntityCacheInstance().get(id, cacheVariant("map", sp), Map.class, loader);
+
+            return map == null ? null : new LinkedHashMap<>(map); // 缓存的是共用的，返回副本，免得被调用者修改
+        }
+
+        Map<String, Object> map = loader.get();
+
+        return map == null || !isCoalescing() ? map : new LinkedHashMap<>(map); // 合并查询的话，同一个 id 的调用者拿到的是同一个 Map
+    }
+
+    /**
+     * 批量获取记录，用于代替在循环里逐个调用 info()。id 分批以 IN (?, ?, ...) 查询，开启了实体缓存的话，只查询没有缓存的
+     *
+     * @param ids 主键值，可以有重复
+     * @return id -> 实体，按 ids 的顺序，查不到的 id 不包含在内
+     */
+    public Map<K, T> infoBatch(Collection<K> ids) {
+        Objects.requireNonNull(clz, "Please give Bean Class");
+
+        Map<K, T> result = batch(ids, "bean", clz, JdbcReader.getResultBean(clz), this::info);
+
+        if (isEntityCache())
+            result.replaceAll((id, bean) -> copy(bean)); // 缓存的是共用的，返回副本
+
+        return result;
+    }
+
+    /**
+     * 批量获取记录，用于代替在循环里逐个调用 infoMap()
+     *
+     * @param ids 主键值，可以有重复
+     * @return id -> 实体，按 ids 的顺序，查不到的 id 不包含在内
+     */
+    public Map<K, Map<String, Object>> infoMapBatch(Collection<K> ids) {
+        Map<K, Map<String, Object>> result = batch(ids, "map", Map.class, JdbcReader::getResultMap, this::infoMap);
+
+        if (isEntityCache())
+            result.replaceAll((id, map) -> new LinkedHashMap<>(map)); // 缓存的是共用的，返回副本
+
+        return result;
+    }
+
+    private <V> Map<K, V> batch(Collection<K> ids, String type, Class<?> valueType, ResultSetProcessor<V> processor, Function<K, V> single) {
+        if (ids == null || ids.isEmpty())
+            return new LinkedHashMap<>();
+
+        if (StringUtils.hasText(getInfoSql()) || !(dao instanceof CRUD_Service)) { // 自定义的 SQL 无从批量查询，逐个查询
+            Map<K, V> result = new LinkedHashMap<>();
+
+            for (K id : new LinkedHashSet<>(ids)) {
+                V value = single.apply(id);
+
+                if (value != null)
+                    result.put(id, value);
+            }
+
+            return result;
+        }
+
+        Function<List<K>, Map<K, V>> loader = list -> findByIds(list, processor);
+
+        if (isEntityCache())
+            return getEntityCacheInstance().getAll(ids, id -> cacheVariant(type, getManagedInfoSql(id)), valueType, loader);
+
+        return loader.apply(new ArrayList<>(ids));
+    }
+
+    /**
+     * 按 id 批量查询，加上当前用户、租户的过滤条件
+     */
+    private <I, V> Map<I, V> findByIds(List<I> ids, ResultSetProcessor<V> processor) {
+        PreparedSql prepared = getPreparedSql();
+        String idField = getTableModel().getIdField();
+
+        return ((CRUD_Service) dao).findByIds(processor, idField, ids, chunk -> {
+            FilteredSql[] sql = prepared.batchSql.computeIfAbsent(chunk.length, size -> {
+                String batch = String.format(SELECT_SQL, getTableName()) + " AND " + idField + " IN (" + CRUD_Service.inPlaceholders(size) + ")";
+
+                return new FilteredSql[]{FilteredSql.of(batch, isCurrentUserOnly(), false), FilteredSql.of(batch, isCurrentUserOnly(), isTenantIsolation())};
+            });
+
+            return bindFilter(sql[1], sql[0], chunk);
+        });
+    }
+
+    /**
+     * 能否合并同时发生的 info()。在事务里或者已经写入过的话不合并，免得用了别的请求的连接，读不到自己写入的数据
+     */
+    private boolean isCoalescing() {
+        if (!isInfoCoalesce() || StringUtils.hasText(getInfoSql()) || !(dao instanceof CRUD_Service))
+            return false;
+
+        DataSource dataSource = ((CRUD_Service) dao).getDataSource();
+        UnitOfWork unit = dataSource == null ? null : UnitOfWork.current(dataSource);
+
+        return unit == null || !unit.isTransactional() && !unit.isWritten();
+    }
+
+    /**
+     * 与其他线程同时发生的 info() 合并为一次批量查询。只有租户、用户相同的才合并
+     */
+    @SuppressWarnings("unchecked")
+    private <V> V coalesce(K id, String type, ResultSetProcessor<V> processor) {
+        String group = type + ";" + getFilterTenantId() + ";" + (isCurrentUserOnly() ? DataServiceUtils.getCurrentUserId() : "");
+
+        return (V) getPreparedSql().coalescer.load(group, id, list -> findByIds(list, (ResultSetProcessor<Object>) processor));
+    }
+
+    /**
+     * 获取实体缓存
+     *
+     * @return 这个命名空间的实体缓存
+     */
+    public EntityCache getEntityCacheInstance() {
+        String namespace = StringUtils.hasText(getNamespace()) ? getNamespace() : getTableName();
+
+        return EntityCache.of(namespace, getTableName(), getEntityCacheSize(), getEntityCacheTtl(), isEntityCacheRedis());
+    }
+
+    /**
+     * 缓存的变体。SQL 里面已经有租户、当前用户的条件，这里再显式加上租户 id
+     */
+    private String cacheVariant(String type, JdbcWriter.SqlParams sp) {
+        String tenant = isTenantIsolation() ? "tenant=" + TenantService.getTenantId() + ";" : "";
+
+        return tenant + type + ";" + sp.sql + ";" + Arrays.toString(sp.values);
     }
 
     /**
@@ -108,38 +500,54 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
      * @return 列表（Map 格式）
      */
     public List<Map<String, Object>> listMap(String where) {
-        String sql = getListSql(where);
+        JdbcWriter.SqlParams sp = limit(getListSql(where));
 
-        return dao.listMap(sql);
+        return dao.listMap(sp.sql, sp.values);
     }
 
-    private String getListSql(String where) {
-        String sql = getListSql();
+    /**
+     * 加上列表最多返回多少条记录的限制，见 {@link #getListLimit()}
+     *
+     * @param sp 列表的 SQL 和参数
+     * @return SQL 和参数
+     */
+    private JdbcWriter.SqlParams limit(JdbcWriter.SqlParams sp) {
+        if (getListLimit() <= 0)
+            return sp;
 
-        if (StringUtils.hasText(sql))
-            sql = SmallMyBatis.handleSql(sql, DataServiceUtils.getQueryStringParams());
-        else {
-            if (isListOrderByDate()) {
-                String createDateField = getTableModel().getCreateDateField();
-                String tableName = getTableName();
+        DatabaseVendor vendor = dao instanceof CRUD_Service ? ((CRUD_Service) dao).getReader().getDatabaseVendor() : DatabaseVendor.MYSQL;
 
-                sql = String.format(SELECT_SQL + " ORDER BY " + createDateField + " DESC", tableName);
-            } else
-                sql = String.format(SELECT_SQL, getTableName());
-        }
+        Object[] values = sp.values == null ? new Object[1] : Arrays.copyOf(sp.values, sp.values.length + 1);
+        values[values.length - 1] = getListLimit();
+        // 自定义的 SQL 可能已经有 LIMIT 了
+        sp.sql = StringUtils.hasText(getListSql()) ? PageEnhancer.capSql(sp.sql, vendor) : PageEnhancer.limitSql(sp.sql, vendor);
+        sp.values = values;
+
+        return sp;
+    }
+
+    private JdbcWriter.SqlParams getListSql(String where) {
+        String sql = getListSql();
+        JdbcWriter.SqlParams sp;
 
-        if (getTableModel().isHasIsDeleted())
-            sql = sql.replace(DUMMY_STR, DUMMY_STR + " AND " + getTableModel().getDelField() + " != 1");
+        if (StringUtils.hasText(sql)) {
+            sp = SmallMyBatis.bindSql(sql, DataServiceUtils.getQueryStringParams());
 
-        sql = limitToCurrentUser(sql);
+            if (getTableModel().isHasIsDeleted())
+                sp.sql = sp.sql.replace(DUMMY_STR, DUMMY_STR + " AND " + getTableModel().getDelField() + " != 1");
 
-        if (isTenantIsolation())
-            sql = TenantService.addTenantIdQuery(sql);
+            sp = bindFilter(sp);
+        } else {
+            PreparedSql prepared = getPreparedSql();
+            String columns = getRequestColumns(prepared);
+            FilteredSql[] list = columns == null ? prepared.list : prepared.projections.computeIfAbsent(columns, this::buildListSql);
+            sp = bindFilter(list[1], list[0], null);
+        }
 
-        if (where != null)
-            sql = sql.replace(DUMMY_STR, DUMMY_STR + where);
+        if (where != null) // where 里面的是字面量，没有 ?，不影响参数的顺序
+            sp.sql = sp.sql.replace(DUMMY_STR, DUMMY_STR + where);
 
-        return sql;
+        return sp;
     }
 
     /**
@@ -149,10 +557,10 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
      * @return 返回查询结果列表，列表元素类型为泛型 T
      */
     public List<T> list(String where) {
-        String sql = getListSql(where);  // 构造查询SQL语句
+        JdbcWriter.SqlParams sp = limit(getListSql(where));  // 构造查询SQL语句
         Objects.requireNonNull(clz, "Please give Bean Class");
 
-        return dao.list(clz, sql); // 执行查询操作，并返回结果列表
+        return dao.list(clz, sp.sql, sp.values); // 执行查询操作，并返回结果列表
     }
 
     /**
@@ -162,9 +570,29 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
      * @return PageResult 分页查询结果，包含查询到的数据及分页信息
      */
     public PageResult<T> page(String where) {
-        String sql = getListSql(where); // 构造查询 SQL 语句
+        return page(where, getDefaultPageOptions()); // 执行分页查询，并返回结果
+    }
 
-        return dao.page(clz, sql, null); // 执行分页查询，并返回结果
+    /**
+     * 没有指定分页选项时，按配置决定是否缓存总数
+     *
+     * @return 分页的选项，为 null 表示默认
+     */
+    private PageOptions getDefaultPageOptions() {
+        return isCountCache() ? new PageOptions().setCountMode(PageOptions.CountMode.CACHE) : null;
+    }
+
+    /**
+     * 根据指定的查询条件进行分页查询，可以指定 keyset 分页和统计总数的方式
+     *
+     * @param where   查询条件，用于筛选数据
+     * @param options 分页的选项。keyset 分页时按 keys 排序，列表原有的排序不再生效
+     * @return PageResult 分页查询结果，keyset 分页的话包含下一页的 cursor
+     */
+    public PageResult<T> page(String where, PageOptions options) {
+        JdbcWriter.SqlParams sp = getListSql(where);
+
+        return dao.pageRaw(clz, sp.sql, options, sp.values);
     }
 
     /**
@@ -174,9 +602,20 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
      * @return Map 分页查询结果，包含查询到的数据及分页信息
      */
     public PageResult<Map<String, Object>> pageMap(String where) {
-        String sql = getListSql(where); // 构造查询 SQL 语句
+        return pageMap(where, getDefaultPageOptions()); // 执行分页查询，并返回结果
+    }
+
+    /**
+     * 根据指定的查询条件进行分页查询，可以指定 keyset 分页和统计总数的方式
+     *
+     * @param where   查询条件，用于筛选数据
+     * @param options 分页的选项。keyset 分页时按 keys 排序，列表原有的排序不再生效
+     * @return Map 分页查询结果，keyset 分页的话包含下一页的 cursor
+     */
+    public PageResult<Map<String, Object>> pageMap(String where, PageOptions options) {
+        JdbcWriter.SqlParams sp = getListSql(where);
 
-        return dao.page(null, sql, null); // 执行分页查询，并返回结果
+        return dao.pageRaw(null, sp.sql, options, sp.values);
     }
 
     /**
@@ -193,15 +632,9 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
      * @return 总是返回 true，表示删除操作已执行。
      */
     public boolean delete(K id) {
-        String sql;
-
-        // 根据是否有删除标记字段来构造不同的 SQL 语句
-        if (getTableModel().isHasIsDeleted())
-            sql = "UPDATE " + getTableName() + " SET " + getTableModel().getDelField() + " = 1";
-        else sql = "DELETE FROM " + getTableName();
-
-        sql += " WHERE " + DUMMY_STR + " AND " + getTableModel().getIdField() + " = ?";
-        sql = limitToCurrentUser(sql); // 对 SQL 语句添加当前用户限制，确保操作的安全性
+        PreparedSql prepared = getPreparedSql();
+        JdbcWriter.SqlParams sp = bindFilter(prepared.deleteByTenant, prepared.delete, new Object[]{id}); // 添加当前用户、租户的限制，确保操作的安全性
+        String sql = sp.sql;
 
         if (beforeDelete != null)
             sql = beforeDelete.apply(getTableModel().isHasIsDeleted(), sql);
@@ -209,32 +642,12 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
         if (jdbcWriter == null && getDao() != null)
             jdbcWriter = ((CRUD_Service) getDao()).getWriter();
 
-        jdbcWriter.write(sql, id);// 执行 SQL 语句
+        jdbcWriter.write(sql, sp.values);// 执行 SQL 语句
+        EntityCache.invalidate(getTableName(), id);
 
         return true;
     }
 
-    /**
-     * 对给定的 SQL 查询语句进行限制，确保只查询当前用户的数据。
-     * 如果当前配置为只查询当前用户的数据，将在 SQL 语句中添加条件“user_id = 当前用户 ID”。
-     * 如果提供的 SQL 语句中已包含特定的占位符（DUMMY_STR），则会将条件追加到该占位符之后，否则，将条件直接追加到 SQL 语句末尾。
-     *
-     * @param sql 初始的 SQL 查询语句
-     * @return 经过限制条件添加后的 SQL 查询语句
-     */
-    private String limitToCurrentUser(String sql) {
-        if (isCurrentUserOnly()) { // 检查是否配置为只查询当前用户的数据
-            String add = " AND user_id = " + DataServiceUtils.getCurrentUserId(); // 构造添加的查询条件
-
-            if (sql.contains(DUMMY_STR)) // 检查SQL语句中是否已包含占位符
-                sql = sql.replace(DUMMY_STR, DUMMY_STR + add); // 将条件插入到占位符之后
-            else
-                sql += add; // 直接将条件追加到SQL语句末尾
-        }
-
-        return sql; // 返回修改后的SQL语句
-    }
-
     /**
      * 创建之前的执行的回调函数，可以设置 createDate, createBy 等字段
      */
@@ -311,7 +724,10 @@ public class FastCRUD<T, K extends Serializable> extends FastCRUD_Config {
         if (beforeUpdate != null)
             beforeUpdate.accept(params);
 
-        return dao.update(tableName, params, idField);// 执行更新操作
+        Boolean result = dao.update(tableName, params, idField);// 执行更新操作
+        EntityCache.invalidate(tableName, params.get(idField));
+
+        return result;
     }
 
     /**
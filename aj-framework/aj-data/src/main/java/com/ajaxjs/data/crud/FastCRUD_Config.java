@@ -1,5 +1,6 @@
 package com.ajaxjs.data.crud;
 
+import com.ajaxjs.data.EntityCache;
 import lombok.Data;
 
 /**
@@ -27,6 +28,17 @@ public abstract class FastCRUD_Config {
      */
     private boolean listOrderByDate = true;
 
+    /**
+     * 查询列表的时候返回哪些字段，多个用逗号隔开，为空表示所有字段。
+     * 请求的 fields 参数只能在这些字段中选择；这里为空的话，只能选择表里有的字段。自定义了列表 SQL 的话不生效
+     */
+    private String fields;
+
+    /**
+     * 查询列表最多返回多少条记录，0 表示不限制。不影响分页
+     */
+    private int listLimit;
+
     /**
      * 实体类引用名称
      */
@@ -76,4 +88,34 @@ public abstract class FastCRUD_Config {
      * 1=自增；2=雪花；3=UUID
      */
     private Integer idType;
+
+    /**
+     * 分页时是否缓存总数。翻页时过滤条件不变的话，不用每页都执行一次 COUNT(*)，表有写入的话重新统计
+     */
+    private boolean countCache;
+
+    /**
+     * 是否缓存 info()/infoMap() 查询的实体，适合很少修改的热点数据，例如配置、字典、文章详情
+     */
+    private boolean entityCache;
+
+    /**
+     * 本地最多缓存多少个实体
+     */
+    private int entityCacheSize = 1000;
+
+    /**
+     * 实体缓存的过期时间（毫秒）
+     */
+    private long entityCacheTtl = EntityCache.DEFAULT_TTL;
+
+    /**
+     * 实体缓存是否再加一级 Redis，多个节点共享
+     */
+    private boolean entityCacheRedis;
+
+    /**
+     * 是否把同时发生的 info() 合并为批量查询，见 {@link com.ajaxjs.data.util.BatchCoalescer}。自定义了 infoSql 的话不生效
+     */
+    private boolean infoCoalesce;
 }
\ No newline at end of file
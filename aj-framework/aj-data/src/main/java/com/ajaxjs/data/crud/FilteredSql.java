@@ -0,0 +1,117 @@
+package com.ajaxjs.data.crud;
+
+import java.util.Arrays;
+
+/**
+ * 加上了当前用户、租户过滤条件的 SQL
+ * <p>
+ * 条件以 ? 占位（user_id = ?、tenant_id = ?），值在执行的时候才绑定，所以不同的用户、租户执行的是同一句 SQL，
+ * 可以被语句缓存、数据库的执行计划缓存重用。条件插入在每个 1=1 之后，没有 1=1 的话加在最后
+ */
+final class FilteredSql {
+    private static final String DUMMY_STR = FastCRUD.DUMMY_STR;
+
+    /**
+     * 带过滤条件的 SQL
+     */
+    final String sql;
+
+    private final boolean byUser;
+
+    private final boolean byTenant;
+
+    /**
+     * 每个插入的位置之前有多少个 ?，即原来的参数从哪里开始插入过滤条件的值
+     */
+    private final int[] slots;
+
+    private FilteredSql(String sql, boolean byUser, boolean byTenant, int[] slots) {
+        this.sql = sql;
+        this.byUser = byUser;
+        this.byTenant = byTenant;
+        this.slots = slots;
+    }
+
+    /**
+     * 加上过滤条件
+     *
+     * @param sql      SQL
+     * @param byUser   是否只查询当前用户的数据
+     * @param byTenant 是否过滤租户
+     * @return 加上了过滤条件的 SQL
+     */
+    static FilteredSql of(String sql, boolean byUser, boolean byTenant) {
+        if (!byUser && !byTenant)
+            return new FilteredSql(sql, false, false, new int[0]);
+
+        String add = (byUser ? " AND user_id = ?" : "") + (byTenant ? " AND tenant_id = ?" : "");
+        StringBuilder sb = new StringBuilder(sql.length() + add.length());
+        int[] slots = new int[0];
+        int params = 0, from = 0;
+        boolean quoted = false;
+
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+
+            if (c == '\'')
+                quoted = !quoted;
+            else if (!quoted && c == '?')
+                params++;
+            else if (!quoted && sql.startsWith(DUMMY_STR, i)) {
+                i += DUMMY_STR.length();
+                sb.append(sql, from, i).append(add);
+                from = i;
+                slots = Arrays.copyOf(slots, slots.length + 1);
+                slots[slots.length - 1] = params;
+                i--;
+            }
+        }
+
+        sb.append(sql, from, sql.length());
+
+        if (slots.length == 0) { // 没有 1=1
+            sb.append(add);
+            slots = new int[]{params};
+        }
+
+        return new FilteredSql(sb.toString(), byUser, byTenant, slots);
+    }
+
+    /**
+     * 在原来的参数中插入过滤条件的值
+     *
+     * @param values   原来的参数，可以为 null
+     * @param userId   当前用户 id
+     * @param tenantId 租户 id
+     * @return 执行 SQL 用的参数
+     */
+    Object[] bind(Object[] values, Object userId, Object tenantId) {
+        if (slots.length == 0)
+            return values;
+
+        if (values == null)
+            values = new Object[0];
+
+        int each = (byUser ? 1 : 0) + (byTenant ? 1 : 0);
+        Object[] result = new Object[values.length + each * slots.length];
+        int from = 0, j = 0;
+
+        for (int slot : slots) {
+            int to = Math.min(slot, values.length);
+
+            for (; from < to; from++)
+                result[j++] = values[from];
+
+            if (byUser)
+                result[j++] = userId;
+
+            if (byTenant)
+                result[j++] = tenantId;
+        }
+
+        while (from < values.length)
+            result[j++] = values[from++];
+
+        return result;
+    }
+}
@@ -1,14 +1,19 @@
 package com.ajaxjs.data.data_service;
 
+import com.ajaxjs.data.CountCache;
 import com.ajaxjs.data.DataAccessObject;
 import com.ajaxjs.data.PageResult;
+import com.ajaxjs.data.ResultCache;
 import com.ajaxjs.data.SmallMyBatis;
 import com.ajaxjs.data.crud.CRUD_Service;
 import com.ajaxjs.data.crud.FastCRUD;
 import com.ajaxjs.data.crud.FastCRUD_Service;
 import com.ajaxjs.data.crud.TableModel;
 import com.ajaxjs.data.jdbc_helper.JdbcWriter;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,6 +25,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * 数据服务
@@ -29,7 +35,35 @@ import java.util.function.Consumer;
 public abstract class DataService implements DataServiceController {
     private DataAccessObject dao;
 
-    public final Map<String, DataServiceConfig> namespaces = new HashMap<>();
+    /**
+     * 加载好的配置及其 FastCRUD，加载之后不再修改，重新加载的时候整个替换
+     */
+    private static class Snapshot {
+        final Map<String, DataServiceConfig> namespaces;
+
+        /**
+         * 每个配置（包括子配置）预先创建好的 FastCRUD，key 按对象判断
+         */
+        final Map<DataServiceConfig, FastCRUD<Map<String, Object>, Long>> cruds;
+
+        Snapshot(Map<String, DataServiceConfig> namespaces, Map<DataServiceConfig, FastCRUD<Map<String, Object>, Long>> cruds) {
+            this.namespaces = Collections.unmodifiableMap(namespaces);
+            this.cruds = cruds;
+        }
+    }
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile Snapshot snapshot = new Snapshot(new HashMap<>(), new IdentityHashMap<>());
+
+    /**
+     * 获取所有的命名空间，只读
+     *
+     * @return 命名空间及其配置
+     */
+    public Map<String, DataServiceConfig> getNamespaces() {
+        return snapshot.namespaces;
+    }
 
     /**
      * 根据命名空间获取特定的 DataServiceConfig
@@ -38,10 +72,12 @@ public abstract class DataService implements DataServiceController {
      * @return 返回根据两个命名空间标识找到的 DataServiceConfig
      */
     private DataServiceConfig getConfig(String namespace) {
-        if (!namespaces.containsKey(namespace))
+        DataServiceConfig config = snapshot.namespaces.get(namespace);
+
+        if (config == null)
             throw new IllegalStateException("命名空间 " + namespace + " 没有配置 DataServiceConfig");
 
-        return namespaces.get(namespace);
+        return config;
     }
 
     /**
@@ -52,10 +88,11 @@ public abstract class DataService implements DataServiceController {
      * @return 返回根据两个命名空间标识找到的 DataServiceConfig
      */
     private DataServiceConfig getConfig(String namespace, String namespace2) {
-        if (!namespaces.containsKey(namespace)) // 检查第一个命名空间是否配置了 BaseCRUD，如果没有配置则抛出异常
+        DataServiceConfig parent = snapshot.namespaces.get(namespace); // 通过第一个命名空间获取 BaseCRUD 实例
+
+        if (parent == null) // 检查第一个命名空间是否配置了 BaseCRUD，如果没有配置则抛出异常
             throw new IllegalStateException("命名空间 " + namespace + " 没有配置 BaseCRUD");
 
-        DataServiceConfig parent = namespaces.get(namespace); // 通过第一个命名空间获取 BaseCRUD 实例
         DataServiceConfig cfg = parent.getChildren().get(namespace2);     // 通过第二个命名空间从父实例的子实例映射中获取特定的 BaseCRUD 实例
 
         if (cfg == null) // 检查第二个命名空间是否配置了 BaseCRUD，如果没有配置则抛出异常
@@ -74,6 +111,12 @@ public abstract class DataService implements DataServiceController {
         return CMD_TYPE.SINGLE.equals(cfg.getType());
     }
 
+    /**
+     * 根据配置创建 FastCRUD。创建之后不再修改，可以被多个请求同时使用
+     *
+     * @param config 配置
+     * @return FastCRUD
+     */
     private FastCRUD<Map<String, Object>, Long> initFastCRUD(DataServiceConfig config) {
         FastCRUD<Map<String, Object>, Long> crud = new FastCRUD<>();
         BeanUtils.copyProperties(config, crud);
@@ -82,16 +125,31 @@ public abstract class DataService implements DataServiceController {
         crud.setBeforeUpdate(beforeUpdate);
         crud.setBeforeDelete(beforeDelete);
 
+        if (getDao() instanceof CRUD_Service) // 免得 delete() 的时候再去设置
+            crud.setJdbcWriter(((CRUD_Service) getDao()).getWriter());
+
+        if (isSingle(config)) {
+            crud.setInfoSql(config.getSql());
+            crud.setListSql(config.getSql());
+        }
+
         return crud;
     }
 
-    private Map<String, Object> info(DataServiceConfig config, Long id) {
-        FastCRUD<Map<String, Object>, Long> crud = initFastCRUD(config);
+    /**
+     * 获取配置预先创建好的 FastCRUD
+     *
+     * @param config 配置
+     * @return FastCRUD
+     */
+    private FastCRUD<Map<String, Object>, Long> getCRUD(DataServiceConfig config) {
+        FastCRUD<Map<String, Object>, Long> crud = snapshot.cruds.get(config);
 
-        if (isSingle(config))
-            crud.setInfoSql(config.getSql());
+        return crud == null ? initFastCRUD(config) : crud; // 期间刚好重新加载了配置的话，临时创建一个
+    }
 
-        return crud.infoMap(id);
+    private Map<String, Object> info(DataServiceConfig config, Long id) {
+        return getCRUD(config).infoMap(id);
     }
 
     @Override
@@ -109,15 +167,42 @@ public abstract class DataService implements DataServiceController {
     }
 
     private List<Map<String, Object>> list(DataServiceConfig config) {
-        FastCRUD<Map<String, Object>, Long> crud = initFastCRUD(config);
+        return cached(config, "list", () -> {
+            String where = FastCRUD_Service.getWhereClause(Objects.requireNonNull(DataServiceUtils.getRequest()));
 
-        if (isSingle(config))
-            crud.setListSql(config.getSql());
+            return getCRUD(config).listMap(where);
+        });
+    }
+
+    /**
+     * 配置了结果缓存的话，从缓存获取。
+     * key 包含命名空间、查询参数、租户、当前用户（如果只查当前用户的）和表的版本号，表有写入的话不再命中
+     *
+     * @param config 配置
+     * @param type   list 或 page
+     * @param loader 查询
+     * @param <T>    结果的类型
+     * @return 结果
+     */
+    private static <T> T cached(DataServiceConfig config, String type, Supplier<T> loader) {
+        if (!config.isResultCache())
+            return loader.get();
 
-        String where = FastCRUD_Service.getWhereClause(Objects.requireNonNull(DataServiceUtils.getRequest()));
-        System.out.println("ds:" + getDao().hashCode());
+        String name = config.getId() == null ? config.getNamespace() : String.valueOf(config.getId()); // 子命名空间可能重名，优先用 id
+        StringBuilder prefix = new StringBuilder(type);
 
-        return crud.listMap(where);
+        if (config.isTenantIsolation())
+            prefix.append(";tenant=").append(TenantService.getTenantId());
+
+        if (config.isCurrentUserOnly())
+            prefix.append(";user=").append(DataServiceUtils.getCurrentUserId());
+
+        if (StringUtils.hasText(config.getTableName()))
+            prefix.append(";v=").append(CountCache.version(config.getTableName()));
+
+        String key = ResultCache.key(prefix.toString(), Objects.requireNonNull(DataServiceUtils.getRequest()).getParameterMap());
+
+        return ResultCache.of(name, config.getResultCacheSize(), config.getResultCacheTtl()).get(key, loader);
     }
 
     @Override
@@ -135,14 +220,11 @@ public abstract class DataService implements DataServiceController {
     }
 
     private PageResult<Map<String, Object>> page(DataServiceConfig config) {
-        FastCRUD<Map<String, Object>, Long> crud = initFastCRUD(config);
-
-        if (isSingle(config))
-            crud.setListSql(config.getSql());
-
-        String where = FastCRUD_Service.getWhereClause(Objects.requireNonNull(DataServiceUtils.getRequest()));
+        return cached(config, "page", () -> {
+            String where = FastCRUD_Service.getWhereClause(Objects.requireNonNull(DataServiceUtils.getRequest()));
 
-        return crud.pageMap(where);
+            return getCRUD(config).pageMap(where);
+        });
     }
 
     @Override
@@ -160,22 +242,16 @@ public abstract class DataService implements DataServiceController {
     }
 
     private Long create(DataServiceConfig config, Map<String, Object> params) {
-        if (isSingle(config))
-            config.setCreateSql(config.getSql());
-
         if (beforeCreate != null)
             beforeCreate.accept(params);
 
         if (StringUtils.hasText(config.getCreateSql())) {
-            String sql = SmallMyBatis.handleSql(config.getCreateSql(), params);
+            JdbcWriter.SqlParams sp = SmallMyBatis.bindSql(config.getCreateSql(), params);
             JdbcWriter jdbcWriter = ((CRUD_Service) dao).getWriter();
 
-            return (Long) jdbcWriter.insert(sql);
-        } else {// 无 SQL
-            FastCRUD<Map<String, Object>, Long> crud = initFastCRUD(config);
-
-            return crud.create(params);
-        }
+            return (Long) jdbcWriter.insert(sp.sql, sp.values);
+        } else // 无 SQL
+            return getCRUD(config).create(params);
     }
 
     @Override
@@ -195,22 +271,16 @@ public abstract class DataService implements DataServiceController {
     }
 
     private Boolean update(DataServiceConfig config, Map<String, Object> params) {
-        if (isSingle(config))
-            config.setUpdateSql(config.getSql());
-
         if (beforeUpdate != null)
             beforeUpdate.accept(params);
 
         if (StringUtils.hasText(config.getUpdateSql())) {
-            String sql = SmallMyBatis.handleSql(config.getUpdateSql(), params);
+            JdbcWriter.SqlParams sp = SmallMyBatis.bindSql(config.getUpdateSql(), params);
             JdbcWriter jdbcWriter = ((CRUD_Service) dao).getWriter();
 
-            return jdbcWriter.write(sql) > 0;
-        } else {// 无 SQL
-            FastCRUD<Map<String, Object>, Long> crud = initFastCRUD(config);
-
-            return crud.update(params);
-        }
+            return jdbcWriter.write(sp.sql, sp.values) > 0;
+        } else // 无 SQL
+            return getCRUD(config).update(params);
     }
 
     @Override
@@ -230,24 +300,18 @@ public abstract class DataService implements DataServiceController {
     }
 
     private Boolean delete(DataServiceConfig config, Long id) {
-        if (isSingle(config))
-            config.setDeleteSql(config.getSql());
-
         String sql = config.getUpdateSql();
 
         if (StringUtils.hasText(sql)) {
             if (beforeDelete != null)
                 sql = beforeDelete.apply(config.getTableModel().isHasIsDeleted(), sql);
 
-            sql = SmallMyBatis.handleSql(sql, null);
+            JdbcWriter.SqlParams sp = SmallMyBatis.bindSql(sql, null, id);
             JdbcWriter jdbcWriter = ((CRUD_Service) dao).getWriter();
 
-            return jdbcWriter.write(sql, id) > 0;
-        } else {// 无 SQL
-            FastCRUD<Map<String, Object>, Long> crud = initFastCRUD(config);
-
-            return crud.delete(id);
-        }
+            return jdbcWriter.write(sp.sql, sp.values) > 0;
+        } else // 无 SQL
+            return getCRUD(config).delete(id);
     }
 
     @Override
@@ -266,14 +330,16 @@ public abstract class DataService implements DataServiceController {
 
     /**
      * 从数据库中加载配置。
-     * 此方法首先清除现有的配置命名空间。接着，它从数据库中查询所有状态不为1的配置项，并进行处理：
+     * 此方法从数据库中查询所有状态不为1的配置项，并进行处理：
      * - 对查询结果进行排序（按照 pid，以 pid 为-1的项首先排列）；
      * - 遍历排序后的结果，为每个配置项创建一个 CRUD 对象，并根据配置项的 pid 来建立父子关系；
      * - 最后，将所有的配置项按照其所属的命名空间保存到 namespaces 中。
+     * 新的配置全部准备好之后才一次性替换旧的，加载期间的请求仍然使用旧的配置
      */
     @Override
     public boolean reloadConfig() {
-        namespaces.clear();
+        Map<String, DataServiceConfig> namespaces = new HashMap<>();
+        Map<DataServiceConfig, FastCRUD<Map<String, Object>, Long>> cruds = new IdentityHashMap<>();
 
         List<DataServiceConfig> list = dao.list(DataServiceConfig.class, "SELECT * FROM ds_common_api WHERE stat != 1");// 从数据库中查询所有状态不为1的配置项
         list.sort(Comparator.comparingInt(DataServiceConfig::getPid)); // 根据pid对配置项进行排序
@@ -281,21 +347,18 @@ public abstract class DataService implements DataServiceController {
 
         if (!CollectionUtils.isEmpty(list)) {
             for (DataServiceConfig config : list) {
-
-//                if (beforeCreate != null)
-//                    crud.setBeforeCreate(beforeCreate);
-//
-//                if (beforeUpdate != null)
-//                    crud.setBeforeCreate(beforeUpdate);
-//
-//                if (beforeDelete != null)
-//                    crud.setBeforeDelete(beforeDelete);
                 if (config.getTableModel() == null) {
                     TableModel t = new TableModel();
                     t.setHasIsDeleted(false);
                     config.setTableModel(t);
                 }
 
+                if (isSingle(config)) { // 只有一句 SQL 的，增删改查都用它
+                    config.setCreateSql(config.getSql());
+                    config.setUpdateSql(config.getSql());
+                    config.setDeleteSql(config.getSql());
+                }
+
                 // 如果 pid 为 -1，表示为顶级配置，将其添加到 namespaces 中，并初始化其 children 属性
                 if (config.getPid() == -1) {
                     namespaces.put(config.getNamespace(), config);
@@ -310,9 +373,14 @@ public abstract class DataService implements DataServiceController {
 
                     _crud.getChildren().put(config.getNamespace(), config);
                 }
+
+                cruds.put(config, initFastCRUD(config));
             }
         } else log.warn("没有 DataService 的配置");
 
+        snapshot = new Snapshot(namespaces, cruds);
+        ResultCache.clearAll(); // 替换之后再清空，免得加载期间的请求又把旧的结果放进去
+
         log.info("加载 DataService 配置成功！");
 
         return true;
@@ -1,5 +1,6 @@
 package com.ajaxjs.data.data_service;
 
+import com.ajaxjs.data.ResultCache;
 import com.ajaxjs.data.crud.FastCRUD_Config;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -33,4 +34,19 @@ public class DataServiceConfig extends FastCRUD_Config {
     private Map<String, DataServiceConfig> children;
 
     private Date createDate;
+
+    /**
+     * 是否缓存 list/page 的结果，适合公开的、同样的查询大量重复的，例如 CMS 的栏目列表
+     */
+    private boolean resultCache;
+
+    /**
+     * 结果缓存的过期时间（毫秒）
+     */
+    private long resultCacheTtl = ResultCache.DEFAULT_TTL;
+
+    /**
+     * 最多缓存多少个结果
+     */
+    private int resultCacheSize = 1000;
 }
\ No newline at end of file
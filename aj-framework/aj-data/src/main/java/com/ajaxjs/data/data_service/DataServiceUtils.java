@@ -111,19 +111,16 @@ public class DataServiceUtils {
      * @throws NullPointerException 如果请求中不存在名为"USER_KEY_IN_REQUEST"的属性，表示用户不存在。
      */
     public static Object getCurrentUser() {
-        // 从请求中获取名为"USER_KEY_IN_REQUEST"的属性，确保该属性不为空
-//        if (simpleUser == null)
-//            throw new NullPointerException("上下文的用户不存在"); // 如果用户对象为空，则抛出异常
-        return Objects.requireNonNull(DataServiceUtils.getRequest()).getAttribute("USER_KEY_IN_REQUEST");
+        return currentContext().getUser();
     }
 
     /**
-     * 获取当前用户的 ID。
+     * 获取当前用户的 ID。每个请求只用反射读取一次，见 {@link SecurityContext}
      *
      * @return 当前用户的 ID，类型为 long。
      */
     public static long getCurrentUserId() {
-        return executeMethod(getCurrentUser(), "getId", long.class);// 调用用户对象的 getId 方法，返回用户的 ID
+        return currentContext().getUserId();
     }
 
     /**
@@ -132,7 +129,14 @@ public class DataServiceUtils {
      * @return 当前用户的租户 ID，类型为 long。
      */
     public static Integer getCurrentUserTenantId() {
-        return executeMethod(getCurrentUser(), "getTenantId", Integer.class);// 调用用户对象的 getId 方法，返回用户的 ID
+        return currentContext().getUserTenantId();
+    }
+
+    /**
+     * 当前请求的安全上下文，不在请求中（也没有绑定）的话抛出 NullPointerException
+     */
+    private static SecurityContext currentContext() {
+        return Objects.requireNonNull(SecurityContext.current(), "当前不在请求中");
     }
 
     /**
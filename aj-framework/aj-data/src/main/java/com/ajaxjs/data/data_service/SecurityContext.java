@@ -0,0 +1,234 @@
+package com.ajaxjs.data.data_service;
+
+import org.springframework.util.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * 请求的安全上下文：当前用户、用户 id、租户 id
+ * <p>
+ * 每个请求只解析一次（租户 id 的请求头、越权检查、读取用户对象的字段），之后保存在请求的属性里，
+ * 请求期间多次获取用户 id、租户 id 不再重复解析。创建之后不再修改，可以在多个线程中使用。
+ * 请求的线程之外（例如异步执行的任务）没有请求，须用 {@link #wrap(Runnable)}、{@link #wrap(Supplier)} 把上下文带过去：
+ * <pre>
+ * executor.submit(SecurityContext.wrap(() -&gt; crud.list()));
+ * </pre>
+ */
+public class SecurityContext {
+    /**
+     * 保存在请求的属性的名称
+     */
+    private static final String ATTRIBUTE = SecurityContext.class.getName();
+
+    /**
+     * 当前线程绑定的上下文，用于请求的线程之外
+     */
+    private static final ThreadLocal<SecurityContext> BOUND = new ThreadLocal<>();
+
+    /**
+     * 用户对象的类 -> 读取 id、租户 id 的方法。IAM 的 SimpleUser 这里不通用，所以按类查找一次之后缓存起来
+     */
+    private static final ClassValue<MethodHandle[]> ACCESSORS = new ClassValue<MethodHandle[]>() {
+        @Override
+        protected MethodHandle[] computeValue(Class<?> type) {
+            return new MethodHandle[]{accessor(type, "getId"), accessor(type, "getTenantId")};
+        }
+    };
+
+    private final Object user;
+
+    private final Long userId;
+
+    private final Integer userTenantId;
+
+    private final Integer tenantId;
+
+    /**
+     * 越权访问租户的话，获取租户 id 时抛出
+     */
+    private final SecurityException denied;
+
+    SecurityContext(HttpServletRequest request) {
+        user = request.getAttribute("USER_KEY_IN_REQUEST");
+
+        if (user == null) {
+            userId = null;
+            userTenantId = null;
+        } else {
+            MethodHandle[] accessors = ACCESSORS.get(user.getClass());
+            Number id = invoke(accessors[0], user), tenant = invoke(accessors[1], user);
+            userId = id == null ? null : id.longValue();
+            userTenantId = tenant == null ? null : tenant.intValue();
+        }
+
+        String tenantIdStr = request.getHeader(TenantService.AUTH_TENANT_ID);
+
+        if (!StringUtils.hasText(tenantIdStr))
+            tenantIdStr = request.getParameter(TenantService.AUTH_TENANT_ID);
+
+        SecurityException denied = null;
+
+        if (StringUtils.hasText(tenantIdStr)) {
+            tenantId = Integer.parseInt(tenantIdStr);
+            request.setAttribute(TenantService.AUTH_TENANT_ID, tenantId);
+
+            // 没设租户 id，则是管理员，可访问所有租户
+            if (userTenantId != null && userTenantId != 0 && !Objects.equals(tenantId, userTenantId))
+                denied = new SecurityException("当前用户租户 id 为 " + userTenantId + ", 不能越权访问");
+        } else
+            tenantId = userTenantId; // 从用户获取，一般在后台操作时候会这样。也有可能最终找不到，为 null
+
+        this.denied = denied;
+    }
+
+    /**
+     * 获取当前的上下文。当前线程绑定了上下文的话返回它，否则从当前请求获取，第一次获取的时候创建
+     *
+     * @return 当前的上下文，不在请求中的话返回 null
+     */
+    public static SecurityContext current() {
+        SecurityContext context = BOUND.get();
+
+        if (context != null)
+            return context;
+
+        HttpServletRequest request = DataServiceUtils.getRequest();
+
+        if (request == null)
+            return null;
+
+        context = (SecurityContext) request.getAttribute(ATTRIBUTE);
+
+        if (context == null) {
+            context = new SecurityContext(request);
+            request.setAttribute(ATTRIBUTE, context);
+        }
+
+        return context;
+    }
+
+    /**
+     * 包装任务，执行的时候绑定当前的上下文。在请求的线程中调用，任务可以在别的线程执行
+     *
+     * @param task 任务
+     * @return 包装后的任务
+     */
+    public static Runnable wrap(Runnable task) {
+        SecurityContext context = current();
+
+        return () -> run(context, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 包装任务，执行的时候绑定当前的上下文。在请求的线程中调用，任务可以在别的线程执行
+     *
+     * @param task 任务
+     * @param <T>  返回值的类型
+     * @return 包装后的任务
+     */
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        SecurityContext context = current();
+
+        return () -> run(context, task);
+    }
+
+    /**
+     * 绑定上下文执行任务
+     *
+     * @param context 上下文，可以为 null
+     * @param task    任务
+     * @param <T>     返回值的类型
+     * @return 任务的返回值
+     */
+    public static <T> T run(SecurityContext context, Supplier<T> task) {
+        SecurityContext old = BOUND.get();
+
+        if (context == null)
+            BOUND.remove();
+        else
+            BOUND.set(context);
+
+        try {
+            return task.get();
+        } finally {
+            if (old == null)
+                BOUND.remove();
+            else
+                BOUND.set(old);
+        }
+    }
+
+    /**
+     * 获取当前用户
+     *
+     * @return 当前用户，没有登录的话返回 null
+     */
+    public Object getUser() {
+        return user;
+    }
+
+    /**
+     * 获取当前用户的 id
+     *
+     * @return 当前用户的 id
+     * @throws NullPointerException 没有当前用户
+     */
+    public long getUserId() {
+        return Objects.requireNonNull(userId, "上下文的用户不存在");
+    }
+
+    /**
+     * 获取当前用户的租户 id
+     *
+     * @return 当前用户的租户 id，可能为 null
+     */
+    public Integer getUserTenantId() {
+        return userTenantId;
+    }
+
+    /**
+     * 获取租户 id，优先使用请求头、请求参数里的，否则使用当前用户的
+     *
+     * @return 租户 id，可能为 null
+     * @throws SecurityException 当前用户不能访问请求的租户
+     */
+    public Integer getTenantId() {
+        if (denied != null)
+            throw denied;
+
+        return tenantId;
+    }
+
+    private static MethodHandle accessor(Class<?> type, String name) {
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().unreflect(type.getMethod(name));
+
+            return handle.asType(MethodType.methodType(Object.class, Object.class));
+        } catch (NoSuchMethodException e) {
+            return null; // 用户对象没有这个方法，当作 null
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Number invoke(MethodHandle handle, Object user) {
+        if (handle == null)
+            return null;
+
+        try {
+            return (Number) (Object) handle.invokeExact(user);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
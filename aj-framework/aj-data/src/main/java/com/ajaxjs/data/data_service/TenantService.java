@@ -1,9 +1,7 @@
 package com.ajaxjs.data.data_service;
 
 import com.ajaxjs.Version;
-import org.springframework.util.StringUtils;
 
-import javax.servlet.http.HttpServletRequest;
 import java.util.Objects;
 
 /**
@@ -26,48 +24,27 @@ public class TenantService {
     public static final String AUTH_TENANT_ID = "auth_tenant_id";
 
     /**
-     * 从 HTTP 头中获取租户 id
+     * 从 HTTP 头中获取租户 id。每个请求只解析、检查一次，见 {@link SecurityContext}
      *
      * @return 租户 id
      */
     public static Integer getTenantId() {
-        HttpServletRequest request = DataServiceUtils.getRequest();
+        SecurityContext context = SecurityContext.current();
 
-        if (request == null)
+        if (context == null)
             return Version.isRunningTest() ? 1 : 0; // 单测模式下，给个测试值
 
-        String tenantIdStr = request.getHeader(AUTH_TENANT_ID);
-
-        if (!StringUtils.hasText(tenantIdStr))
-            tenantIdStr = request.getParameter(AUTH_TENANT_ID);
-
-        if (StringUtils.hasText(tenantIdStr)) {
-            Integer tenantId = Integer.parseInt(tenantIdStr);
-            request.setAttribute(AUTH_TENANT_ID, tenantId);
-
-            checkUserPrivilegeOfTenant(request, tenantId);
-
-            return tenantId;
-        } else
-            return DataServiceUtils.getCurrentUserTenantId();// 从用户获取，一般在后台操作时候会这样。也有可能最终找不到，为 null
-    }
-
-    private static void checkUserPrivilegeOfTenant(HttpServletRequest request, Integer tenantId) {
-        Integer userTenantId = DataServiceUtils.getCurrentUserTenantId();
-
-        if (userTenantId == null || userTenantId == 0) // 没设租户 id，则是管理员，可访问所有租户
-            return;
-
-        if (!Objects.equals(tenantId, userTenantId))
-            throw new SecurityException("当前用户租户 id 为 " + userTenantId + ", 不能越权访问");
+        return context.getTenantId();
     }
 
     /**
      * 添加租户 id 的过滤
+     * 租户 id 以字面量拼接，每个租户的 SQL 都不一样，无法重用语句缓存。FastCRUD 已改为以 ? 占位
      *
      * @param sql SQL
      * @return SQL
      */
+    @Deprecated
     public static String addTenantIdQuery(String sql) {
         Integer tenantId = getTenantId();
 
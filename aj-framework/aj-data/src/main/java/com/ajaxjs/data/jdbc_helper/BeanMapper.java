@@ -0,0 +1,283 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.DataUtils;
+import com.ajaxjs.data.util.ConvertBasicValue;
+import com.ajaxjs.util.JsonUtil;
+import com.ajaxjs.util.convert.EntityConvert;
+import com.ajaxjs.util.reflect.Methods;
+import com.ajaxjs.util.reflect.NewInstance;
+import com.ajaxjs.util.reflect.Types;
+import lombok.extern.slf4j.Slf4j;
+
+import java.beans.IntrospectionException;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 记录集合转换为 Bean 的映射器
+ * <p>
+ * 按（Bean 类型，ResultSetMetaData 的结构）预先解析好：第几列对应哪个 setter、用哪个转换函数，然后缓存起来。
+ * 这样每一行只需按列序号取值、转换、调用 setter，不再每行每列地做 PropertyDescriptor 内省和反射调用。
+ *
+ * @param <T> Bean 的类型
+ */
+@Slf4j
+public class BeanMapper<T> {
+    /**
+     * 缓存。key=Bean 类型，value=该类型下各种结构的映射器（key 为结构的签名）
+     */
+    private static final Map<Class<?>, Map<String, BeanMapper<?>>> CACHE = new ConcurrentHashMap<>();
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final String JSON_TYPE_MYSQL8 = "JSON";
+
+    private final Class<T> beanClz;
+
+    /**
+     * 无参构造器，为 null 的话退回到 NewInstance
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * 各列的处理，与 ResultSet 的列一一对应
+     */
+    private final Column[] columns;
+
+    /**
+     * Bean 是否有 extractData 字段，用于存放数据库返回了但 Bean 没有对应属性的列
+     */
+    private final boolean hasExtractData;
+
+    /**
+     * 一列的处理方式
+     */
+    private static class Column {
+        /**
+         * 列序号，从 1 开始
+         */
+        int index;
+
+        /**
+         * 字段名称（驼峰风格）
+         */
+        String key;
+
+        /**
+         * setter 句柄，签名已统一为 (Object, Object)void。为 null 表示 Bean 没有这个属性
+         */
+        MethodHandle setter;
+
+        /**
+         * 把数据库的值转换为属性类型的函数
+         */
+        Function<Object, Object> converter;
+    }
+
+    private BeanMapper(Class<T> beanClz, ResultSetMetaData metaData) throws SQLException {
+        this.beanClz = beanClz;
+        constructor = findConstructor(beanClz);
+        hasExtractData = hasExtractData(beanClz);
+
+        int count = metaData.getColumnCount();
+        columns = new Column[count];
+
+        for (int i = 1; i <= count; i++) {
+            Column column = new Column();
+            column.index = i;
+            String key = metaData.getColumnLabel(i);
+
+            if (key.contains("_")) // 将以下划线分隔的数据库字段转换为驼峰风格的字符串
+                key = DataUtils.changeColumnToFieldName(key);
+
+            column.key = key;
+
+            try {
+                PropertyDescriptor property = new PropertyDescriptor(key, beanClz);
+                column.setter = toHandle(property.getWriteMethod());
+                column.converter = JSON_TYPE_MYSQL8.equals(metaData.getColumnTypeName(i)) ? jsonConverter(property) : ConvertBasicValue.getConverter(property.getPropertyType());
+            } catch (IntrospectionException e) {
+                // 数据库返回这个字段，但是 bean 没有对应的方法
+            }
+
+            columns[i - 1] = column;
+        }
+    }
+
+    /**
+     * 获取映射器，没有的话就创建并缓存
+     *
+     * @param beanClz  实体类
+     * @param metaData 记录集合的元数据
+     * @param <T>      bean 的类型
+     * @return 映射器
+     * @throws SQLException 读取元数据时的异常
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BeanMapper<T> of(Class<T> beanClz, ResultSetMetaData metaData) throws SQLException {
+        Map<String, BeanMapper<?>> mappers = CACHE.computeIfAbsent(beanClz, k -> new ConcurrentHashMap<>());
+        String signature = signature(metaData);
+        BeanMapper<?> mapper = mappers.get(signature);
+
+        if (mapper == null) {
+            mapper = new BeanMapper<>(beanClz, metaData);
+            BeanMapper<?> old = mappers.putIfAbsent(signature, mapper);
+
+            if (old != null)
+                mapper = old;
+        }
+
+        return (BeanMapper<T>) mapper;
+    }
+
+    /**
+     * 结构的签名，由各列的名称和类型组成
+     */
+    private static String signature(ResultSetMetaData metaData) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 1; i <= metaData.getColumnCount(); i++)
+            sb.append(metaData.getColumnLabel(i)).append(':').append(metaData.getColumnTypeName(i)).append(',');
+
+        return sb.toString();
+    }
+
+    /**
+     * 转换当前行为 Bean
+     *
+     * @param rs 记录集合，游标已指向当前行
+     * @return Bean
+     * @throws SQLException 读取数据时的异常
+     */
+    @SuppressWarnings("unchecked")
+    public T map(ResultSet rs) throws SQLException {
+        T bean = newInstance();
+
+        for (Column column : columns) {
+            Object _value = rs.getObject(column.index); // Real value in DB
+
+            if (column.setter == null) {
+                if (_value != null && hasExtractData)
+                    putExtractData(bean, column.key, _value);
+
+                continue;
+            }
+
+            Object value;
+
+            try {
+                value = column.converter.apply(_value);
+            } catch (IllegalArgumentException e) {
+                continue; // 转换失败，继续下一个字段
+            }
+
+            try {
+                column.setter.invokeExact((Object) bean, value);
+            } catch (Throwable e) {
+                // 与 Methods.executeMethod() 一致，忽略调用失败的字段
+            }
+        }
+
+        return bean;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T newInstance() {
+        if (constructor == null)
+            return NewInstance.newInstance(beanClz);
+
+        try {
+            return (T) constructor.invokeExact();
+        } catch (Throwable e) {
+            log.warn("ERROR>>", e);
+            return null;
+        }
+    }
+
+    /**
+     * 保存 Bean 没有对应属性的列
+     */
+    @SuppressWarnings("unchecked")
+    private static void putExtractData(Object bean, String key, Object value) {
+        Object obj = Methods.executeMethod(bean, "getExtractData");
+
+        if (obj == null) {
+            Methods.executeMethod(bean, "setExtractData", new HashMap<String, Object>());
+            obj = Methods.executeMethod(bean, "getExtractData");
+        }
+
+        if (obj != null)
+            ((Map<String, Object>) obj).put(key, value);
+    }
+
+    private static boolean hasExtractData(Class<?> beanClz) {
+        try {
+            return beanClz.getField("extractData") != null;
+        } catch (NoSuchFieldException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> beanClz) {
+        try {
+            return LOOKUP.findConstructor(beanClz, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle toHandle(Method method) throws IntrospectionException {
+        try {
+            MethodHandle handle;
+
+            try {
+                handle = LOOKUP.unreflect(method);
+            } catch (IllegalAccessException e) {
+                method.setAccessible(true); // 例如非 public 的内部类
+                handle = LOOKUP.unreflect(method);
+            }
+
+            return handle.asType(SETTER_TYPE);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IntrospectionException("不能访问 setter：" + method);
+        }
+    }
+
+    /**
+     * MySQL 8 JSON 字段的转换
+     */
+    private static Function<Object, Object> jsonConverter(PropertyDescriptor property) {
+        Class<?> propertyType = property.getPropertyType();
+        Method readMethod = property.getReadMethod();
+
+        return _value -> {
+            /* JSON 类型会返回字符串 null 而不是 null */
+            if (_value == null || "null".equals(_value))
+                return null;
+
+            String jsonStr = _value.toString();
+
+            if (jsonStr.startsWith("{"))
+                return JsonUtil.json2bean(jsonStr, propertyType);
+            else if (jsonStr.startsWith("[")) {
+                Class<?> _beanClz = Types.getGenericFirstReturnType(readMethod);
+                return EntityConvert.json2BeanList(jsonStr, _beanClz);
+            } else {
+                log.warn("非法 JSON 字符串： {}", jsonStr);
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,265 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接池的注册表，按数据源 id 管理多个连接池
+ * <p>
+ * 第一次使用某个数据源的时候才创建连接池，之后复用。数据源的连接地址、账号或密码变了的话，关闭旧的连接池重新创建。
+ * 另外统计了每个连接池获取连接的等待时间，与连接池本身的活动、空闲连接数一起，可以通过 {@link #getStats(Object)} 查看
+ */
+@Slf4j
+public class DataSourceRegistry {
+    /**
+     * 连接池的规格
+     */
+    public enum PoolPreset {
+        /**
+         * 偶尔使用的，例如浏览外部数据源的表结构
+         */
+        SMALL(10, 0, 2, 0),
+
+        /**
+         * 一般的业务，与原来 JdbcConn.setupJdbcPool() 的一致
+         */
+        DEFAULT(100, 10, 30, 5),
+
+        /**
+         * 并发量大的业务
+         */
+        LARGE(200, 20, 50, 10);
+
+        final int maxActive;
+
+        final int initialSize;
+
+        final int maxIdle;
+
+        final int minIdle;
+
+        PoolPreset(int maxActive, int initialSize, int maxIdle, int minIdle) {
+            this.maxActive = maxActive;
+            this.initialSize = initialSize;
+            this.maxIdle = maxIdle;
+            this.minIdle = minIdle;
+        }
+    }
+
+    /**
+     * 连接池的统计
+     */
+    @Data
+    public static class PoolStats {
+        /**
+         * 连接池的规格
+         */
+        private PoolPreset preset;
+
+        /**
+         * 正在使用的连接数
+         */
+        private int active;
+
+        /**
+         * 空闲的连接数
+         */
+        private int idle;
+
+        /**
+         * 正在等待连接的线程数
+         */
+        private int waiting;
+
+        /**
+         * 一共获取了多少次连接
+         */
+        private long borrowed;
+
+        /**
+         * 获取连接的平均等待时间（毫秒）
+         */
+        private double avgWaitMillis;
+
+        /**
+         * 获取连接的最长等待时间（毫秒）
+         */
+        private double maxWaitMillis;
+    }
+
+    /**
+     * 一个连接池
+     */
+    private static class Pool {
+        final String url;
+
+        final String userName;
+
+        final String password;
+
+        final PoolPreset preset;
+
+        final org.apache.tomcat.jdbc.pool.DataSource dataSource;
+
+        final AtomicLong borrowed = new AtomicLong();
+
+        final AtomicLong totalWaitNanos = new AtomicLong();
+
+        final AtomicLong maxWaitNanos = new AtomicLong();
+
+        Pool(String driver, String url, String userName, String password, PoolPreset preset) {
+            this.url = url;
+            this.userName = userName;
+            this.password = password;
+            this.preset = preset;
+            this.dataSource = JdbcConn.setupJdbcPool(driver, url, userName, password, preset);
+
+            try {
+                dataSource.createPool(); // 先创建好，免得第一次获取连接的等待时间把初始化的时间也算上
+            } catch (SQLException e) {
+                log.warn("ERR:", e);
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+
+        boolean sameAs(String url, String userName, String password) {
+            return Objects.equals(this.url, url) && Objects.equals(this.userName, userName) && Objects.equals(this.password, password);
+        }
+
+        Connection borrow() throws SQLException {
+            long start = System.nanoTime();
+            Connection conn = dataSource.getConnection();
+            long wait = System.nanoTime() - start;
+
+            borrowed.incrementAndGet();
+            totalWaitNanos.addAndGet(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+
+            return conn;
+        }
+
+        PoolStats stats() {
+            PoolStats stats = new PoolStats();
+            stats.setPreset(preset);
+            stats.setActive(dataSource.getActive());
+            stats.setIdle(dataSource.getIdle());
+            stats.setWaiting(dataSource.getWaitCount());
+
+            long n = borrowed.get();
+            stats.setBorrowed(n);
+            stats.setAvgWaitMillis(n == 0 ? 0 : totalWaitNanos.get() / 1e6 / n);
+            stats.setMaxWaitMillis(maxWaitNanos.get() / 1e6);
+
+            return stats;
+        }
+    }
+
+    private static final Map<Object, Pool> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * 获取数据源的连接池，没有的话创建
+     *
+     * @param id       数据源 id
+     * @param driver   驱动程序，为 null 的话由 DriverManager 根据连接地址查找
+     * @param url      数据库连接字符串
+     * @param userName 用户
+     * @param password 密码
+     * @param preset   连接池的规格，只在创建的时候生效
+     * @return 连接池
+     */
+    public static DataSource getDataSource(Object id, String driver, String url, String userName, String password, PoolPreset preset) {
+        return getPool(id, driver, url, userName, password, preset).dataSource;
+    }
+
+    /**
+     * 从数据源的连接池获取一个连接，用完须关闭（归还到连接池）
+     *
+     * @param id       数据源 id
+     * @param driver   驱动程序，为 null 的话由 DriverManager 根据连接地址查找
+     * @param url      数据库连接字符串
+     * @param userName 用户
+     * @param password 密码
+     * @param preset   连接池的规格，只在创建的时候生效
+     * @return 数据库连接对象
+     */
+    public static Connection getConnection(Object id, String driver, String url, String userName, String password, PoolPreset preset) {
+        try {
+            return getPool(id, driver, url, userName, password, preset).borrow();
+        } catch (SQLException e) {
+            log.warn("ERR:", e);
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    private static Pool getPool(Object id, String driver, String url, String userName, String password, PoolPreset preset) {
+        Pool pool = POOLS.get(id);
+
+        if (pool != null && pool.sameAs(url, userName, password))
+            return pool;
+
+        return POOLS.compute(id, (k, old) -> {
+            if (old != null) {
+                if (old.sameAs(url, userName, password))
+                    return old;
+
+                log.info("数据源 {} 的配置已修改，重新创建连接池", id);
+                old.dataSource.close();
+            }
+
+            return new Pool(driver, url, userName, password, preset == null ? PoolPreset.DEFAULT : preset);
+        });
+    }
+
+    /**
+     * 关闭并移除数据源的连接池，例如数据源被删除了
+     *
+     * @param id 数据源 id
+     */
+    public static void remove(Object id) {
+        Pool pool = POOLS.remove(id);
+
+        if (pool != null)
+            pool.dataSource.close();
+    }
+
+    /**
+     * 关闭所有的连接池
+     */
+    public static void closeAll() {
+        for (Object id : POOLS.keySet())
+            remove(id);
+    }
+
+    /**
+     * 获取连接池的统计
+     *
+     * @param id 数据源 id
+     * @return 统计，没有这个连接池的话返回 null
+     */
+    public static PoolStats getStats(Object id) {
+        Pool pool = POOLS.get(id);
+
+        return pool == null ? null : pool.stats();
+    }
+
+    /**
+     * 获取所有连接池的统计
+     *
+     * @return key 为数据源 id
+     */
+    public static Map<Object, PoolStats> getAllStats() {
+        Map<Object, PoolStats> map = new LinkedHashMap<>();
+        POOLS.forEach((id, pool) -> map.put(id, pool.stats()));
+
+        return map;
+    }
+}
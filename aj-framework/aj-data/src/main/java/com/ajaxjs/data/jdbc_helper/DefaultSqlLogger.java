@@ -0,0 +1,86 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.DataUtils;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 默认的 SQL 日志，输出到 slf4j
+ * <p>
+ * 普通语句按 level 输出，可以抽样；超过 slowThreshold 的慢查询总是以 WARN 输出。
+ * 只有确定要输出时才会调用 {@link DataUtils#printRealSql(String, Object[])} 格式化 SQL，不输出的语句没有额外的开销
+ */
+@Data
+@Slf4j
+@Accessors(chain = true)
+public class DefaultSqlLogger implements SqlLogger {
+    /**
+     * 普通语句的日志级别，默认 DEBUG
+     */
+    private Level level = Level.DEBUG;
+
+    /**
+     * 普通语句的抽样比例，0~1，默认 1 即全部记录
+     */
+    private double sampleRate = 1;
+
+    /**
+     * 慢查询的阈值（毫秒），默认 1000。小于等于 0 表示不区分慢查询
+     */
+    private long slowThreshold = 1000;
+
+    @Override
+    public void log(String type, String sql, Object[] params, long cost) {
+        if (slowThreshold > 0 && cost >= slowThreshold) {
+            if (log.isWarnEnabled())
+                log.warn("慢 SQL（{}ms） {}-->[{}]", cost, type, DataUtils.printRealSql(sql, params));
+
+            return;
+        }
+
+        if (!isEnabled(level))
+            return;
+
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)
+            return;
+
+        String msg = "执行 " + type + " SQL（{}ms）-->[{}]";
+        String realSql = DataUtils.printRealSql(sql, params);
+
+        switch (level) {
+            case ERROR:
+                log.error(msg, cost, realSql);
+                break;
+            case WARN:
+                log.warn(msg, cost, realSql);
+                break;
+            case INFO:
+                log.info(msg, cost, realSql);
+                break;
+            case DEBUG:
+                log.debug(msg, cost, realSql);
+                break;
+            default:
+                log.trace(msg, cost, realSql);
+        }
+    }
+
+    private static boolean isEnabled(Level level) {
+        switch (level) {
+            case ERROR:
+                return log.isErrorEnabled();
+            case WARN:
+                return log.isWarnEnabled();
+            case INFO:
+                return log.isInfoEnabled();
+            case DEBUG:
+                return log.isDebugEnabled();
+            default:
+                return log.isTraceEnabled();
+        }
+    }
+}
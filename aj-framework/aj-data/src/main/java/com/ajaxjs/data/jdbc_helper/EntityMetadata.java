@@ -0,0 +1,257 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.DataAccessException;
+import com.ajaxjs.data.DataUtils;
+import com.ajaxjs.data.jdbc_helper.common.IdField;
+import com.ajaxjs.data.jdbc_helper.common.TableName;
+import com.ajaxjs.data.util.LruCache;
+import com.ajaxjs.framework.IgnoreDB;
+import lombok.extern.slf4j.Slf4j;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实体的元数据：表名、id 字段、各个字段对应的数据库列名和 getter
+ * <p>
+ * 每个类只内省一次，之后从缓存中获取。另外还缓存了按“有值字段的组合”生成的 INSERT/UPDATE 语句
+ */
+@Slf4j
+public class EntityMetadata {
+    private static final Map<Class<?>, EntityMetadata> CACHE = new ConcurrentHashMap<>();
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * 每个实体最多缓存多少种 SQL
+     */
+    private static final int MAX_SQL_SHAPES = 128;
+
+    /**
+     * 一个字段
+     */
+    public static class Column {
+        private final String fieldName;
+
+        private final String columnName;
+
+        private final MethodHandle getter;
+
+        private final boolean ignored;
+
+        Column(String fieldName, String columnName, MethodHandle getter, boolean ignored) {
+            this.fieldName = fieldName;
+            this.columnName = columnName;
+            this.getter = getter;
+            this.ignored = ignored;
+        }
+
+        /**
+         * 读取实体中这个字段的值
+         *
+         * @param entity 实体
+         * @return 字段的值
+         */
+        public Object get(Object entity) {
+            try {
+                return getter.invokeExact(entity);
+            } catch (Throwable e) {
+                throw new DataAccessException("读取实体的字段 " + fieldName + " 失败：" + e.getMessage());
+            }
+        }
+
+        /**
+         * @return Bean 的字段名
+         */
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        /**
+         * @return 数据库的列名
+         */
+        public String getColumnName() {
+            return columnName;
+        }
+
+        /**
+         * @return 是否有 IgnoreDB 注解，不参与数据库操作
+         */
+        public boolean isIgnored() {
+            return ignored;
+        }
+    }
+
+    private final Class<?> entityClass;
+
+    /**
+     * TableName 注解的表名，没有的话为 null
+     */
+    private final String tableName;
+
+    /**
+     * TableName 注解的 isReturnNewlyId
+     */
+    private final boolean returnNewlyId;
+
+    /**
+     * IdField 注解的 id 字段，没有的话为 null
+     */
+    private final String idField;
+
+    /**
+     * 所有可读的字段（不含 getClass()），顺序与 Introspector 返回的一致
+     */
+    private final Column[] columns;
+
+    private final Map<String, Column> columnMap = new HashMap<>();
+
+    /**
+     * 生成过的 SQL。key 为 表名、类型、id 字段和有值字段的组合
+     */
+    private final LruCache<List<Object>, String> sqlCache = new LruCache<>(MAX_SQL_SHAPES);
+
+    private EntityMetadata(Class<?> entityClass) {
+        this.entityClass = entityClass;
+
+        TableName tableNameA = entityClass.getAnnotation(TableName.class);
+        tableName = tableNameA == null ? null : tableNameA.value();
+        returnNewlyId = tableNameA != null && tableNameA.isReturnNewlyId();
+
+        IdField idFieldA = entityClass.getAnnotation(IdField.class);
+        idField = idFieldA == null ? null : idFieldA.value();
+
+        List<Column> list = new ArrayList<>();
+
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(entityClass);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            for (PropertyDescriptor property : beanInfo.getPropertyDescriptors()) {
+                String filedName = property.getName(); // 获取字段的名称
+                Method method = property.getReadMethod(); // 获取字段对应的读取方法
+
+                if ("class".equals(filedName) || method == null)
+                    continue;
+
+                MethodHandle getter;
+
+                try {
+                    getter = lookup.unreflect(method);
+                } catch (IllegalAccessException e) {
+                    method.setAccessible(true); // 例如非 public 的内部类
+                    getter = lookup.unreflect(method);
+                }
+
+                Column column = new Column(filedName, DataUtils.changeFieldToColumnName(filedName), getter.asType(GETTER_TYPE), method.getAnnotation(IgnoreDB.class) != null);
+                list.add(column);
+                columnMap.put(column.columnName, column);
+            }
+        } catch (IntrospectionException | IllegalAccessException e) {
+            log.warn("WARN>>", e);
+        }
+
+        columns = list.toArray(new Column[0]);
+    }
+
+    /**
+     * 获取实体类的元数据
+     *
+     * @param entityClass 实体类
+     * @return 元数据
+     */
+    public static EntityMetadata of(Class<?> entityClass) {
+        return CACHE.computeIfAbsent(entityClass, EntityMetadata::new);
+    }
+
+    /**
+     * 获取 INSERT 语句，按有值字段的组合缓存
+     *
+     * @param tableName 表名
+     * @param present   哪些字段（columns 的下标）有值
+     * @return INSERT 语句，带有 ? 的占位符
+     */
+    String getInsertSql(String tableName, BitSet present) {
+        return sqlCache.computeIfAbsent(Arrays.asList("INSERT", tableName, present), k -> {
+            StringBuilder sb = new StringBuilder();
+            List<String> valuesHolder = new ArrayList<>();
+            sb.append("INSERT INTO ").append(tableName).append(" (");
+
+            for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+                sb.append(" `").append(columns[i].columnName).append("`,");
+                valuesHolder.add(" ?");
+            }
+
+            sb.deleteCharAt(sb.length() - 1);// 删除最后一个 ,
+            sb.append(") VALUES (").append(String.join(",", valuesHolder)).append(")");
+
+            return sb.toString();
+        });
+    }
+
+    /**
+     * 获取 UPDATE 语句，按有值字段的组合缓存
+     *
+     * @param tableName 表名
+     * @param present   哪些字段（columns 的下标）有值，已排除 id 字段
+     * @param idField   id 字段，为 null 的话没有 WHERE 部分
+     * @return UPDATE 语句，带有 ? 的占位符
+     */
+    String getUpdateSql(String tableName, BitSet present, String idField) {
+        return sqlCache.computeIfAbsent(Arrays.asList("UPDATE", tableName, present, String.valueOf(idField)), k -> {
+            StringBuilder sb = new StringBuilder();
+            sb.append("UPDATE ").append(tableName).append(" SET");
+
+            for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1))
+                sb.append(" `").append(columns[i].columnName).append("` = ?,");
+
+            sb.deleteCharAt(sb.length() - 1);// 删除最后一个 ,
+
+            if (idField != null)
+                sb.append(" WHERE ").append(idField).append(" = ?");
+
+            return sb.toString();
+        });
+    }
+
+    /**
+     * 按数据库列名获取字段
+     *
+     * @param columnName 数据库列名
+     * @return 字段，没有的话返回 null
+     */
+    public Column getColumn(String columnName) {
+        return columnMap.get(columnName);
+    }
+
+    /**
+     * @return 所有可读的字段，包括 IgnoreDB 的
+     */
+    public Column[] getColumns() {
+        return columns;
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public boolean isReturnNewlyId() {
+        return returnNewlyId;
+    }
+
+    public String getIdField() {
+        return idField;
+    }
+}
@@ -14,6 +14,7 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 /**
  * 数据库连接
@@ -21,7 +22,7 @@ import java.sql.SQLException;
 @Slf4j
 public class JdbcConn {
     /**
-     * 数据库连接对象
+     * 数据库连接对象。指定了的话固定使用这个连接，这时实例不能在多个线程之间共用
      */
     Connection conn;
 
@@ -29,15 +30,237 @@ public class JdbcConn {
         this.conn = conn;
     }
 
+    /**
+     * 数据源。没有指定连接的话，使用当前线程这个数据源的工作单元（{@link UnitOfWork}）的连接，
+     * 没有工作单元的话每次执行 SQL 都临时获取、归还连接。这样实例没有状态，可以在多个线程之间共用
+     */
+    private DataSource dataSource;
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * PreparedStatement 缓存的容量，0 表示不缓存（默认）
+     */
+    private int statementCacheSize;
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * 开启 PreparedStatement 缓存。同一个连接上重复执行相同的 SQL 时，不再重复 prepare。
+     * 缓存跟随物理连接（见 {@link StatementCache#of(Connection, int)}），连接池借出同一个物理连接的话可以复用，
+     * 容量以第一次创建这个连接的缓存时的为准
+     *
+     * @param statementCacheSize 缓存的容量，0 表示不缓存
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * 获取当前连接的 PreparedStatement 缓存，可用于查看命中率。
+     * 没有指定连接的话，为当前工作单元的连接的；查看所有连接的，使用 {@link StatementCache#getAll()}
+     *
+     * @return 缓存，没有开启或者当前没有连接的话返回 null
+     */
+    public StatementCache getStatementCache() {
+        if (statementCacheSize <= 0)
+            return null;
+
+        if (conn != null)
+            return StatementCache.get(conn);
+
+        UnitOfWork unit = UnitOfWork.current(dataSource);
+
+        return unit == null ? null : StatementCache.get(unit.getOpenedConnection());
+    }
+
+    /**
+     * 创建 PreparedStatement，开启缓存的话优先从缓存中取出。用完须调用 {@link #releaseStatement}
+     *
+     * @param sql               SQL 语句
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS 或 Statement.NO_GENERATED_KEYS
+     * @return PreparedStatement
+     * @throws SQLException 异常
+     */
+    PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        Connection conn = getConn();
+        PreparedStatement ps;
+
+        if (statementCacheSize <= 0)
+            ps = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(sql);
+        else
+            ps = StatementCache.of(conn, statementCacheSize).borrow(sql, autoGeneratedKeys);
+
+        watch(ps);
+
+        return ps;
+    }
+
+    /**
+     * 当前的工作单元记录下将要执行的语句，以便超时、取消
+     *
+     * @param ps 将要执行的语句
+     * @throws SQLException 设置超时失败
+     */
+    void watch(PreparedStatement ps) throws SQLException {
+        UnitOfWork unit = currentUnit();
+
+        if (unit != null) {
+            try {
+                unit.watch(ps);
+            } catch (SQLException | RuntimeException e) {
+                StatementCache.close(ps); // 不会再执行了，调用者拿不到它，在这里关闭
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 语句执行完毕，当前的工作单元不再记录它。须在关闭语句之前调用
+     *
+     * @param ps 执行完毕的语句，可以为 null
+     */
+    void unwatch(PreparedStatement ps) {
+        UnitOfWork unit = currentUnit();
+
+        if (unit != null && ps != null)
+            unit.unwatch(ps);
+    }
+
+    /**
+     * 获取执行 SQL 所用的工作单元
+     *
+     * @return 当前线程这个数据源的工作单元，指定了连接或者没有的话返回 null
+     */
+    UnitOfWork currentUnit() {
+        return conn == null ? UnitOfWork.current(dataSource) : null;
+    }
+
+    /**
+     * 归还 PreparedStatement，没有开启缓存的话直接关闭
+     *
+     * @param sql               SQL 语句
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS 或 Statement.NO_GENERATED_KEYS
+     * @param ps                PreparedStatement，可以为 null
+     */
+    void releaseStatement(String sql, int autoGeneratedKeys, PreparedStatement ps) {
+        if (ps == null)
+            return;
+
+        unwatch(ps);
+
+        if (statementCacheSize <= 0) {
+            StatementCache.close(ps);
+            return;
+        }
+
+        StatementCache cache;
+
+        try {
+            cache = StatementCache.get(ps.getConnection()); // 语句在物理连接上 prepare
+        } catch (SQLException e) {
+            cache = null;
+        }
+
+        if (cache != null)
+            cache.release(sql, autoGeneratedKeys, ps);
+        else
+            StatementCache.close(ps);
+    }
+
+    /**
+     * SQL 日志，全局共用
+     */
+    private static SqlLogger sqlLogger = new DefaultSqlLogger();
+
+    public static SqlLogger getSqlLogger() {
+        return sqlLogger;
+    }
+
+    /**
+     * 设置 SQL 日志
+     *
+     * @param sqlLogger SQL 日志，为 null 的话不记录
+     */
+    public static void setSqlLogger(SqlLogger sqlLogger) {
+        JdbcConn.sqlLogger = sqlLogger;
+    }
+
+    /**
+     * 记录执行过的 SQL
+     *
+     * @param type   语句的类型
+     * @param sql    SQL 语句
+     * @param params 插入到 SQL 中的参数
+     * @param start  开始执行的时间（毫秒）
+     */
+    static void logSql(String type, String sql, Object[] params, long start) {
+        SqlLogger logger = sqlLogger;
+
+        if (logger != null)
+            logger.log(type, sql, params, System.currentTimeMillis() - start);
+    }
+
     /**
      * 获取数据库连接
      *
      * @return 数据库连接
      */
     public Connection getConn() {
-        if (conn == null) log.warn("未准备好数据库连接");
+        if (conn != null)
+            return conn;
 
-        return conn;
+        UnitOfWork unit = UnitOfWork.current(dataSource);
+
+        if (unit != null)
+            return unit.getConnection();
+
+        Connection threadConn = getConnection(); // 手动绑定到当前线程的连接
+
+        if (threadConn == null) log.warn("未准备好数据库连接");
+
+        return threadConn;
+    }
+
+    /**
+     * 执行 SQL 之前调用。没有指定连接、当前线程也没有这个数据源的工作单元的话，临时打开一个，执行完毕归还连接
+     *
+     * @return 临时的工作单元，不需要的话返回 null。须传给 {@link #end(UnitOfWork)}
+     */
+    UnitOfWork begin() {
+        if (conn != null || dataSource == null || UnitOfWork.current(dataSource) != null)
+            return null;
+
+        return UnitOfWork.open(dataSource);
+    }
+
+    /**
+     * 执行 SQL 之后调用，关闭临时的工作单元
+     *
+     * @param unit {@link #begin()} 的返回值
+     */
+    static void end(UnitOfWork unit) {
+        if (unit != null)
+            unit.close();
+    }
+
+    /**
+     * 记录当前的工作单元执行过写入
+     */
+    void markWritten() {
+        UnitOfWork unit = conn == null ? UnitOfWork.current(dataSource) : null;
+
+        if (unit != null)
+            unit.markWritten();
     }
 
     /**
@@ -51,8 +274,9 @@ public class JdbcConn {
      * @return 数据库连接对象
      */
     public Connection getConnection(String jdbcUrl, String userName, String password) {
-        try {
+        Connection conn = null; // 只是返回，不绑定到这个实例，须要的话再调用 setConn()
 
+        try {
             if (StringUtils.hasText(userName) && StringUtils.hasText(password))
                 conn = DriverManager.getConnection(jdbcUrl, userName, password);
             else
@@ -101,6 +325,8 @@ public class JdbcConn {
      * @return 数据库连接对象
      */
     public Connection getConnection(DataSource source) {
+        Connection conn = null; // 只是返回，不绑定到这个实例，须要的话再调用 setConn()
+
         try {
             conn = source.getConnection();
             if (conn == null) log.warn("DataSource 不能建立数据库连接");
@@ -178,17 +404,31 @@ public class JdbcConn {
      * @return 数据源
      */
     public static DataSource setupJdbcPool(String driver, String url, String userName, String password) {
+        return setupJdbcPool(driver, url, userName, password, DataSourceRegistry.PoolPreset.DEFAULT);
+    }
+
+    /**
+     * 按指定的规格创建连接池。需要复用连接池的话，使用 {@link DataSourceRegistry}
+     *
+     * @param driver   驱动程序，如 com.mysql.cj.jdbc.Driver
+     * @param url      数据库连接字符串
+     * @param userName 用户
+     * @param password 密码
+     * @param preset   连接池的规格
+     * @return 数据源
+     */
+    public static org.apache.tomcat.jdbc.pool.DataSource setupJdbcPool(String driver, String url, String userName, String password, DataSourceRegistry.PoolPreset preset) {
         PoolProperties p = new PoolProperties();
         p.setDriverClassName(driver);
         p.setUrl(url);
         p.setUsername(userName);
         p.setPassword(password);
-        p.setMaxActive(100);
-        p.setInitialSize(10);
+        p.setMaxActive(preset.maxActive);
+        p.setInitialSize(preset.initialSize);
         p.setMaxWait(10000);
-        p.setMaxIdle(30);
+        p.setMaxIdle(preset.maxIdle);
         p.setJmxEnabled(false);
-        p.setMinIdle(5);
+        p.setMinIdle(preset.minIdle);
         p.setTestOnBorrow(true);
         p.setTestWhileIdle(true);
         p.setTestOnReturn(true);
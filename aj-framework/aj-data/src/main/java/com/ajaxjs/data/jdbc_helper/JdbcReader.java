@@ -2,24 +2,24 @@ package com.ajaxjs.data.jdbc_helper;
 
 import com.ajaxjs.data.DataUtils;
 import com.ajaxjs.data.jdbc_helper.common.ResultSetProcessor;
+import com.ajaxjs.data.jdbc_helper.common.RowHandler;
 import com.ajaxjs.data.util.ConvertBasicValue;
 import com.ajaxjs.util.JsonUtil;
 import com.ajaxjs.util.convert.EntityConvert;
-import com.ajaxjs.util.reflect.Methods;
-import com.ajaxjs.util.reflect.NewInstance;
-import com.ajaxjs.util.reflect.Types;
 import lombok.extern.slf4j.Slf4j;
 
-import java.beans.IntrospectionException;
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.Array;
-import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 基本 JDBC 查询操作的封装
@@ -31,6 +31,17 @@ public class JdbcReader extends JdbcConn {
      */
     private DatabaseVendor databaseVendor = DatabaseVendor.MYSQL;
 
+    /**
+     * 流式查询时每次从数据库取回的行数。
+     * MySQL 下如果连接字符串没有 useCursorFetch=true，则使用驱动的逐行流式模式（fetch size 为 Integer.MIN_VALUE），此值不生效
+     */
+    private int fetchSize = 1000;
+
+    /**
+     * 查询的超时时间（秒），0 表示不限制。超时后由驱动取消语句并抛出异常
+     */
+    private int queryTimeout;
+
     /**
      * 执行查询
      *
@@ -41,21 +52,32 @@ public class JdbcReader extends JdbcConn {
      * @return 查询结果，如果为 null 表示没有数据
      */
     public <T> T executeQuery(ResultSetProcessor<T> processor, String sql, Object... params) {
-        try (PreparedStatement ps = getConn().prepareStatement(sql)) {
-            log.info("执行 SQL-->[{}]", DataUtils.printRealSql(sql, params));
+        UnitOfWork unit = begin();
+        PreparedStatement ps = null;
+        long start = System.currentTimeMillis();
+
+        try {
+            ps = prepareStatement(sql, Statement.NO_GENERATED_KEYS);
             setParam2Ps(ps, params);
 
+            if (queryTimeout > 0 && (ps.getQueryTimeout() == 0 || ps.getQueryTimeout() > queryTimeout)) // 工作单元设置了更短的，不覆盖
+                ps.setQueryTimeout(queryTimeout);
+
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     return processor.process(rs);
                 } else {
-                    log.info("查询 SQL：{} 没有符合的记录！", sql);
+                    log.debug("查询 SQL：{} 没有符合的记录！", sql);
                     return null;
                 }
             }
         } catch (SQLException e) {
             log.warn("ERR:", e);
             throw new RuntimeException(e.getMessage());
+        } finally {
+            releaseStatement(sql, Statement.NO_GENERATED_KEYS, ps);
+            end(unit);
+            logSql("查询", sql, params, start);
         }
     }
 
@@ -107,6 +129,40 @@ public class JdbcReader extends JdbcConn {
         return executeQuery(JdbcReader::getResultMap, sql, params);
     }
 
+    /**
+     * 获取表的所有字段的名称，不读取任何记录
+     *
+     * @param tableName 表名
+     * @return 字段的名称，大小写与数据库返回的一致
+     */
+    public List<String> getColumnNames(String tableName) {
+        String sql = "SELECT * FROM " + tableName + " WHERE 1=0";
+        UnitOfWork unit = begin();
+        PreparedStatement ps = null;
+        long start = System.currentTimeMillis();
+
+        try {
+            ps = prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                List<String> names = new ArrayList<>(metaData.getColumnCount());
+
+                for (int i = 1; i <= metaData.getColumnCount(); i++)
+                    names.add(metaData.getColumnLabel(i));
+
+                return names;
+            }
+        } catch (SQLException e) {
+            log.warn("ERR:", e);
+            throw new RuntimeException(e.getMessage());
+        } finally {
+            releaseStatement(sql, Statement.NO_GENERATED_KEYS, ps);
+            end(unit);
+            logSql("查询字段", sql, new Object[0], start);
+        }
+    }
+
     /**
      * ResultSet 迭代器
      *
@@ -208,115 +264,26 @@ public class JdbcReader extends JdbcConn {
      */
     @SuppressWarnings({"unchecked"})
     public static <T> ResultSetProcessor<T> getResultBean(Class<T> beanClz) {
-        return rs -> {
-            ResultSetMetaData metaData = rs.getMetaData();
-
-            if (beanClz == Integer.class || beanClz == Long.class || beanClz == String.class || beanClz == Double.class || beanClz == Float.class || beanClz == BigDecimal.class) {
-                Object v = rs.getObject(1);
-
-                return (T) v;
-//                for (int i = 1; i <= columnLength; i++) {// 遍历结果集
-//                    Object v = rs.getObject(i);
-//
-//                    return (T) v;
-//                }
-            }
-
-            T bean = NewInstance.newInstance(beanClz);
-
-//            if (beanClz.toString().contains("xxx")) {
-//                System.out.println();
-//            }
-
-            for (int i = 1; i <= metaData.getColumnCount(); i++) {// 遍历结果集
-                String key = metaData.getColumnLabel(i);
-                Object _value = rs.getObject(i); // Real value in DB
-
-//                if (key.startsWith("table_model") && _value != null) {
-//                    log.debug(key + ":v:" + _value);
-//                    log.debug(key + "::" + metaData.getColumnTypeName(i));
-//                }
-                if (key.contains("_")) // 将以下划线分隔的数据库字段转换为驼峰风格的字符串
-                    key = DataUtils.changeColumnToFieldName(key);
-
-                try {
-                    PropertyDescriptor property = new PropertyDescriptor(key, beanClz);
-                    Method method = property.getWriteMethod();
-                    Object value;
-                    Class<?> propertyType = property.getPropertyType();
-
-//                    if (key.startsWith("table_model"))
-//                        log.debug(key + "::" + metaData.getColumnTypeName(i));
-
-                    // 枚举类型的支持
-//					if (propertyType.isEnum()) // Enum.class.isAssignableFrom(propertyType) 这个方法也可以
-//						value = dbValue2Enum(propertyType, _value);
-//					else {
-
-                    if (_value != null && JSON_TYPE_MYSQL8.equals(metaData.getColumnTypeName(i))) {
-                        /* JSON 类型会返回字符串 null 而不是 null */
-                        if ("null".equals(_value))
-                            value = null;
-                        else {
-                            String jsonStr = _value.toString();
-
-                            if (jsonStr.startsWith("{"))
-//                        value = ConvertComplexValue.getConvertValue().convert(jsonStr, propertyType);
-
-                                value = JsonUtil.json2bean(jsonStr, propertyType);
-                            else if (jsonStr.startsWith("[")) {
-//                            Class<?> listType =  propertyType; // it might be a List
-                                Class<?> _beanClz = Types.getGenericFirstReturnType(property.getReadMethod());
-                                value = EntityConvert.json2BeanList(jsonStr, _beanClz);
-                            } else {
-                                value = null;
-                                log.warn("非法 JSON 字符串： {}", jsonStr);
-                            }
-                        }
-                    } else
-                        try {
-                            value = ConvertBasicValue.basicConvert(_value, propertyType);
-                        } catch (NumberFormatException e) {
-//                        String input = value.getClass().toString();
-//                        String expect = property.getPropertyType().toString();
-//                        LOGGER.warning(e, "保存数据到 bean 的 {0} 字段时，转换失败，输入值：{1}，输入类型 ：{2}， 期待类型：{3}", key, "", "", expect);
-                            continue; // 转换失败，继续下一个字段
-                        }
-//					}
-
-                    Methods.executeMethod(bean, method, value);
-                } catch (IntrospectionException | IllegalArgumentException e) {
-//                    LOGGER.warning(e);
-
-                    if (e instanceof IntrospectionException) {
-                        // 数据库返回这个字段，但是 bean 没有对应的方法
-//						LOGGER.info("数据库返回这个字段 {0}，但是 bean {1} 没有对应的方法", key, beanClz);
-//						e.printStackTrace();
-
-                        try {
-                            if ((_value != null) && beanClz.getField("extractData") != null) {
-                                assert bean != null;
-                                Object obj = Methods.executeMethod(bean, "getExtractData");
-
-//								LOGGER.info(":::::::::key::"+ key +":::v:::" + _value);
-                                if (obj == null) {
-                                    Map<String, Object> extractData = new HashMap<>();
-                                    Methods.executeMethod(bean, "setExtractData", extractData);
-                                    obj = Methods.executeMethod(bean, "getExtractData");
-                                }
-
-                                Map<String, Object> map = (Map<String, Object>) obj;
-                                assert map != null;
-                                map.put(key, _value);
-                            }
-                        } catch (NoSuchFieldException | SecurityException e1) {
-//							 LOGGER.warning(e);
-                        }
-                    }
+        if (beanClz == Integer.class || beanClz == Long.class || beanClz == String.class || beanClz == Double.class || beanClz == Float.class || beanClz == BigDecimal.class)
+            return rs -> (T) rs.getObject(1);
+
+        return new ResultSetProcessor<T>() {
+            /**
+             * 同一个 ResultSet 的每一行结构都一样，记住上次的映射器，不用每行都查缓存
+             */
+            private ResultSet lastRs;
+
+            private BeanMapper<T> mapper;
+
+            @Override
+            public T process(ResultSet rs) throws SQLException {
+                if (rs != lastRs) {
+                    mapper = BeanMapper.of(beanClz, rs.getMetaData());
+                    lastRs = rs;
                 }
-            }
 
-            return bean;
+                return mapper.map(rs);
+            }
         };
     }
 
@@ -346,6 +313,226 @@ public class JdbcReader extends JdbcConn {
         return executeQuery(rs -> forEachRs(rs, getResultBean(beanClz)), sql, params);
     }
 
+    /**
+     * 查询一组结果，以某个字段（例如 id）的值为 key 保存。key 统一转为字符串，免得 Integer 与 Long 对不上
+     *
+     * @param processor 单行处理器
+     * @param keyColumn 作为 key 的字段
+     * @param sql       SQL 语句，可以带有 ? 的占位符
+     * @param params    插入到 SQL 中的参数，可单个可多个可不填
+     * @param <T>       每一行的类型
+     * @return key -> 结果，查询不到任何数据返回空的 Map
+     */
+    public <T> Map<String, T> queryAsKeyedMap(ResultSetProcessor<T> processor, String keyColumn, String sql, Object... params) {
+        Map<String, T> map = executeQuery(rs -> {
+            Map<String, T> result = new HashMap<>();
+
+            do {
+                result.put(String.valueOf(rs.getObject(keyColumn)), processor.process(rs));
+            } while (rs.next());
+
+            return result;
+        }, sql, params);
+
+        return map == null ? new HashMap<>() : map;
+    }
+
+    /**
+     * 创建流式查询用的 PreparedStatement，只进只读，并设置好 fetch size
+     *
+     * @param sql SQL 语句
+     * @return PreparedStatement
+     * @throws SQLException 异常
+     */
+    PreparedStatement prepareStreaming(String sql) throws SQLException {
+        Connection conn = getConn();
+        PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+        if (databaseVendor == DatabaseVendor.MYSQL || databaseVendor == DatabaseVendor.MARIADB) {
+            String url = conn.getMetaData().getURL();
+            // 没有开启服务端游标的话，只有 Integer.MIN_VALUE 才能让驱动逐行读取，否则会把整个结果集读入内存
+            ps.setFetchSize(url != null && url.contains("useCursorFetch=true") ? fetchSize : Integer.MIN_VALUE);
+        } else
+            ps.setFetchSize(fetchSize); // PostgreSQL 还须关闭自动提交，才会使用游标
+
+        watch(ps);
+
+        return ps;
+    }
+
+    /**
+     * 流式查询，逐行回调，不会把整个结果集放进内存。
+     * 注意回调期间连接被占用，MySQL 的流式模式下同一个连接不能执行其他语句
+     *
+     * @param processor 单行处理器
+     * @param handler   逐行处理的回调
+     * @param sql       SQL 语句，可以带有 ? 的占位符
+     * @param params    插入到 SQL 中的参数，可单个可多个可不填
+     * @param <T>       每一行的类型
+     * @return 处理的行数
+     */
+    public <T> int forEach(ResultSetProcessor<T> processor, RowHandler<T> handler, String sql, Object... params) {
+        UnitOfWork unit = begin();
+        PreparedStatement ps = null;
+        long start = System.currentTimeMillis();
+
+        try {
+            ps = prepareStreaming(sql);
+            setParam2Ps(ps, params);
+            int count = 0;
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(processor.process(rs));
+                    count++;
+                }
+            }
+
+            return count;
+        } catch (SQLException e) {
+            log.warn("ERR:", e);
+            throw new RuntimeException(e.getMessage());
+        } finally {
+            unwatch(ps);
+            close(null, ps);
+            end(unit);
+            logSql("流式查询", sql, params, start);
+        }
+    }
+
+    /**
+     * 流式查询，逐行回调，每行为 Map&lt;String, Object&gt; 结构
+     *
+     * @param handler 逐行处理的回调
+     * @param sql     SQL 语句，可以带有 ? 的占位符
+     * @param params  插入到 SQL 中的参数，可单个可多个可不填
+     * @return 处理的行数
+     */
+    public int forEachMap(RowHandler<Map<String, Object>> handler, String sql, Object... params) {
+        return forEach(JdbcReader::getResultMap, handler, sql, params);
+    }
+
+    /**
+     * 流式查询，逐行回调，每行为 Bean
+     *
+     * @param beanClz Bean 实体的类
+     * @param handler 逐行处理的回调
+     * @param sql     SQL 语句，可以带有 ? 的占位符
+     * @param params  插入到 SQL 中的参数，可单个可多个可不填
+     * @param <T>     bean 的类型
+     * @return 处理的行数
+     */
+    public <T> int forEachBean(Class<T> beanClz, RowHandler<T> handler, String sql, Object... params) {
+        return forEach(getResultBean(beanClz), handler, sql, params);
+    }
+
+    /**
+     * 流式查询，返回惰性的 Stream，读取一行转换一行。
+     * 用完必须关闭 Stream 以释放 ResultSet 和 PreparedStatement，建议：
+     * <pre>
+     * try (Stream&lt;Foo&gt; stream = reader.stream(...)) {
+     *      ....
+     * }
+     * </pre>
+     *
+     * @param processor 单行处理器
+     * @param sql       SQL 语句，可以带有 ? 的占位符
+     * @param params    插入到 SQL 中的参数，可单个可多个可不填
+     * @param <T>       每一行的类型
+     * @return Stream
+     */
+    public <T> Stream<T> stream(ResultSetProcessor<T> processor, String sql, Object... params) {
+        UnitOfWork unit = begin(); // 临时的工作单元在 Stream 关闭的时候才归还连接
+        UnitOfWork watcher = currentUnit(); // Stream 可能在别的线程关闭，先记下来
+        PreparedStatement ps = null;
+        ResultSet rs;
+        long start = System.currentTimeMillis();
+
+        try {
+            ps = prepareStreaming(sql);
+            setParam2Ps(ps, params);
+            rs = ps.executeQuery();
+        } catch (SQLException e) {
+            if (watcher != null && ps != null)
+                watcher.unwatch(ps);
+
+            close(null, ps);
+            end(unit);
+            log.warn("ERR:", e);
+            throw new RuntimeException(e.getMessage());
+        } finally {
+            logSql("流式查询", sql, params, start);
+        }
+
+        ResultSet _rs = rs;
+        PreparedStatement _ps = ps;
+
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!_rs.next())
+                        return false;
+
+                    action.accept(processor.process(_rs));
+
+                    return true;
+                } catch (SQLException e) {
+                    log.warn("ERR:", e);
+                    throw new RuntimeException(e.getMessage());
+                }
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            if (watcher != null)
+                watcher.unwatch(_ps);
+
+            close(_rs, _ps);
+            end(unit);
+        });
+    }
+
+    /**
+     * 流式查询，返回惰性的 Stream，每行为 Map&lt;String, Object&gt; 结构。用完必须关闭
+     *
+     * @param sql    SQL 语句，可以带有 ? 的占位符
+     * @param params 插入到 SQL 中的参数，可单个可多个可不填
+     * @return Stream
+     */
+    public Stream<Map<String, Object>> streamAsMap(String sql, Object... params) {
+        return stream(JdbcReader::getResultMap, sql, params);
+    }
+
+    /**
+     * 流式查询，返回惰性的 Stream，每行为 Bean。用完必须关闭
+     *
+     * @param beanClz Bean 实体的类
+     * @param sql     SQL 语句，可以带有 ? 的占位符
+     * @param params  插入到 SQL 中的参数，可单个可多个可不填
+     * @param <T>     bean 的类型
+     * @return Stream
+     */
+    public <T> Stream<T> streamAsBean(Class<T> beanClz, String sql, Object... params) {
+        return stream(getResultBean(beanClz), sql, params);
+    }
+
+    private static void close(ResultSet rs, PreparedStatement ps) {
+        try {
+            if (rs != null)
+                rs.close();
+        } catch (SQLException e) {
+            log.warn("ERROR>>", e);
+        }
+
+        try {
+            if (ps != null)
+                ps.close();
+        } catch (SQLException e) {
+            log.warn("ERROR>>", e);
+        }
+    }
+
     public DatabaseVendor getDatabaseVendor() {
         return databaseVendor;
     }
@@ -353,4 +540,20 @@ public class JdbcReader extends JdbcConn {
     public void setDatabaseVendor(DatabaseVendor databaseVendor) {
         this.databaseVendor = databaseVendor;
     }
-}
\ No newline at end of file
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public void setQueryTimeout(int queryTimeout) {
+        this.queryTimeout = queryTimeout;
+    }
+}
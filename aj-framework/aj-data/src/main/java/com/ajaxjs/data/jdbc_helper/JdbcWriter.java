@@ -1,25 +1,21 @@
 package com.ajaxjs.data.jdbc_helper;
 
+import com.ajaxjs.data.CountCache;
 import com.ajaxjs.data.DataAccessException;
 import com.ajaxjs.data.DataUtils;
-import com.ajaxjs.data.crud.CRUD_Service;
-import com.ajaxjs.data.jdbc_helper.common.TableName;
-import com.ajaxjs.framework.IgnoreDB;
+import com.ajaxjs.data.EntityCache;
 import com.ajaxjs.util.DateHelper;
 import com.ajaxjs.util.reflect.Methods;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.StringUtils;
 
-import java.beans.BeanInfo;
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -27,6 +23,8 @@ import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * 基本 JDBC 写入数据操作的封装
@@ -80,10 +78,16 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
      * @return 新增主键，为兼顾主键类型，返回的类型设为同时兼容 int/long/string 的 Serializable
      */
     public Serializable insert(String sql, Object... params) {
-        try (PreparedStatement ps = isAutoIns ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(sql)) {
+        int autoGeneratedKeys = isAutoIns ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS;
+        UnitOfWork unit = begin();
+        PreparedStatement ps = null;
+        long start = System.currentTimeMillis();
+
+        try {
+            ps = prepareStatement(sql, autoGeneratedKeys);
             setParam2Ps(ps, params);
-            log.info("执行 Insert SQL-->[{}]", DataUtils.printRealSql(sql, params));
             int effectRows = ps.executeUpdate();
+            markWritten();
 
             if (effectRows > 0) {// 插入成功
                 if (isAutoIns) {
@@ -114,6 +118,11 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
         } catch (SQLException e) {
             log.warn("WARN>>", e);
             throw new RuntimeException(e.getMessage());
+        } finally {
+            releaseStatement(sql, autoGeneratedKeys, ps);
+            end(unit);
+            logSql("Insert", sql, params, start);
+            invalidate(() -> CountCache.invalidateBySql(sql));
         }
 
         return null;
@@ -127,17 +136,41 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
      * @return 成功修改的行数
      */
     public int write(String sql, Object... params) {
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        UnitOfWork unit = begin();
+        PreparedStatement ps = null;
+        long start = System.currentTimeMillis();
+
+        try {
+            ps = prepareStatement(sql, Statement.NO_GENERATED_KEYS);
             setParam2Ps(ps, params);
-            log.info("执行 Write SQL-->[{}]", DataUtils.printRealSql(sql, params));
+            int effectRows = ps.executeUpdate();
+            markWritten();
 
-            return ps.executeUpdate();
+            return effectRows;
         } catch (SQLException e) {
             log.warn("WARN>>", e);
             throw new RuntimeException(e.getMessage());
+        } finally {
+            releaseStatement(sql, Statement.NO_GENERATED_KEYS, ps);
+            end(unit);
+            logSql("Write", sql, params, start);
+            invalidate(() -> CountCache.invalidateBySql(sql));
         }
     }
 
+    /**
+     * 写入之后使缓存失效。在事务里的话，提交之后再执行一次：提交之前别的线程读到的仍是旧的数据，可能又放进缓存里
+     *
+     * @param action 使缓存失效的操作
+     */
+    void invalidate(Runnable action) {
+        action.run();
+        UnitOfWork unit = currentUnit();
+
+        if (unit != null && unit.isTransactional())
+            unit.afterCommit(action);
+    }
+
     /**
      * 给 PrepareStatement 用的 SQL 语句和参数值列表
      */
@@ -169,33 +202,33 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
     }
 
     /**
-     * 对一个对象的每个字段进行操作
+     * 读取 Bean 有值的字段（忽略 IgnoreDB 的字段）
      *
-     * @param entity         Java Bean 实体
-     * @param everyBeanField 传入一个回调函数，将数据库列名和字段值作为参数进行操作
+     * @param meta      实体的元数据
+     * @param entity    Java Bean 实体
+     * @param excludeId 排除的 id 字段，可为 null
+     * @param values    保存字段值
+     * @return 哪些字段有值
      */
-    private static void everyBeanField(Object entity, BiConsumer<String, Object> everyBeanField) {
-        try {
-            BeanInfo beanInfo = Introspector.getBeanInfo(entity.getClass());
+    private static BitSet presentFields(EntityMetadata meta, Object entity, String excludeId, List<Object> values) {
+        EntityMetadata.Column[] columns = meta.getColumns();
+        BitSet present = new BitSet(columns.length);
 
-            for (PropertyDescriptor property : beanInfo.getPropertyDescriptors()) {
-                String filedName = property.getName(); // 获取字段的名称
-                if ("class".equals(filedName)) continue;
+        for (int i = 0; i < columns.length; i++) {
+            EntityMetadata.Column column = columns[i];
 
-                Method method = property.getReadMethod(); // 获取字段对应的读取方法
-                if (method.getAnnotation(IgnoreDB.class) != null) // 忽略的字段，不参与
-                    continue;
+            if (column.isIgnored() || column.getColumnName().equals(excludeId))
+                continue;
 
-                Object value = method.invoke(entity);
+            Object value = column.get(entity);
 
-                if (value != null) {// 有值的才进行操作
-                    String field = DataUtils.changeFieldToColumnName(filedName); // 将字段名转换为数据库列名
-                    everyBeanField.accept(field, value);
-                }
+            if (value != null) {// 有值的才进行操作
+                present.set(i);
+                values.add(beanValue2SqlValue(value));
             }
-        } catch (IntrospectionException | InvocationTargetException | IllegalAccessException e) {
-            log.warn("WARN>>", e);
         }
+
+        return present;
     }
 
     /**
@@ -206,24 +239,28 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
      * @return 插入语句的 SqlParams 对象
      */
     public static SqlParams entity2InsertSql(String tableName, Object entity) {
+        if (!(entity instanceof Map)) { // Java Bean，SQL 按有值字段的组合缓存
+            EntityMetadata meta = EntityMetadata.of(entity.getClass());
+            List<Object> values = new ArrayList<>();
+            BitSet present = presentFields(meta, entity, null, values);
+
+            SqlParams sp = new SqlParams();
+            sp.sql = meta.getInsertSql(tableName, present);
+            sp.values = values.toArray();
+
+            return sp;
+        }
+
         StringBuilder sb = new StringBuilder();
         List<Object> values = new ArrayList<>();
         List<String> valuesHolder = new ArrayList<>();
         sb.append("INSERT INTO ").append(tableName).append(" (");
 
-        if (entity instanceof Map) {
-            everyMapField(entity, (field, value) -> {
-                sb.append(" `").append(field).append("`,");
-                valuesHolder.add(" ?");
-                values.add(value);
-            });
-        } else { // Java Bean
-            everyBeanField(entity, (field, value) -> {
-                sb.append(" `").append(field).append("`,");
-                valuesHolder.add(" ?");
-                values.add(beanValue2SqlValue(value));
-            });
-        }
+        everyMapField(entity, (field, value) -> {
+            sb.append(" `").append(field).append("`,");
+            valuesHolder.add(" ?");
+            values.add(value);
+        });
 
         sb.deleteCharAt(sb.length() - 1);// 删除最后一个 ,
         sb.append(") VALUES (").append(String.join(",", valuesHolder)).append(")");
@@ -275,27 +312,33 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
      * @return 更新语句的 SqlParams 对象
      */
     public static SqlParams entity2UpdateSql(String tableName, Object entity, String idField, Object where) {
+        if (!(entity instanceof Map)) { // Java Bean，SQL 按有值字段的组合缓存
+            EntityMetadata meta = EntityMetadata.of(entity.getClass());
+            List<Object> values = new ArrayList<>();
+            BitSet present = presentFields(meta, entity, idField, values);
+            boolean hasWhere = StringUtils.hasText(idField) && where != null;
+
+            if (hasWhere)
+                values.add(where);
+
+            SqlParams sp = new SqlParams();
+            sp.sql = meta.getUpdateSql(tableName, present, hasWhere ? idField : null);
+            sp.values = values.toArray();
+
+            return sp;
+        }
+
         StringBuilder sb = new StringBuilder();
         List<Object> values = new ArrayList<>();
         sb.append("UPDATE ").append(tableName).append(" SET");
 
-        if (entity instanceof Map) {
-            everyMapField(entity, (field, value) -> {
-                if (field.equals(idField)) // 忽略 id
-                    return;
-
-                sb.append(" `").append(field).append("` = ?,");
-                values.add(beanValue2SqlValue(value));
-            });
-        } else { // Java Bean
-            everyBeanField(entity, (field, value) -> {
-                if (field.equals(idField)) // 忽略 id
-                    return;
+        everyMapField(entity, (field, value) -> {
+            if (field.equals(idField)) // 忽略 id
+                return;
 
-                sb.append(" `").append(field).append("` = ?,");
-                values.add(beanValue2SqlValue(value));
-            });
-        }
+            sb.append(" `").append(field).append("` = ?,");
+            values.add(beanValue2SqlValue(value));
+        });
 
         sb.deleteCharAt(sb.length() - 1);// 删除最后一个 ,
         Object[] arr = values.toArray();  // 将 List 转为数组
@@ -321,6 +364,18 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
      * @return 新增主键，为兼顾主键类型，返回的类型设为同时兼容 int/long/string 的 Serializable
      */
     public Serializable create(Object entity) {
+        return create(tableName, entity, idField);
+    }
+
+    /**
+     * 新建记录。表名、id 字段作为参数传入，不修改 JdbcWriter 的状态，多个线程可以共用一个 JdbcWriter
+     *
+     * @param tableName 表名
+     * @param entity    实体，可以是 Map or Java Bean
+     * @param idField   id 字段名
+     * @return 新增主键，为兼顾主键类型，返回的类型设为同时兼容 int/long/string 的 Serializable
+     */
+    public Serializable create(String tableName, Object entity, String idField) {
         SqlParams sp = entity2InsertSql(tableName, entity);
         Serializable newlyId = insert(sp.sql, sp.values);
 
@@ -329,9 +384,7 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
             Map<String, Object> map = (Map<String, Object>) entity;
             map.put(idField, newlyId); // id 一开始是没有的，保存之后才有，现在增加到实体
         } else { // bean
-            TableName a = entity.getClass().getAnnotation(TableName.class);
-
-            if (a != null && a.isReturnNewlyId()) {
+            if (EntityMetadata.of(entity.getClass()).isReturnNewlyId()) {
                 try {
                     Method getId = entity.getClass().getMethod(DataUtils.changeColumnToFieldName("get_" + idField));
 
@@ -368,20 +421,33 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
      * @return 成功修改的行数，一般为 1
      */
     public int update(Object entity) {
+        return update(tableName, entity, idField);
+    }
+
+    /**
+     * 修改实体。表名、id 字段作为参数传入，不修改 JdbcWriter 的状态
+     *
+     * @param tableName 表名
+     * @param entity    实体，可以是 Map or Java Bean
+     * @param idField   id 字段名
+     * @return 成功修改的行数，一般为 1
+     */
+    public int update(String tableName, Object entity, String idField) {
         SqlParams sp;
+        Object id;
 
         if (entity instanceof Map) {
             @SuppressWarnings("unchecked")
             Map<String, Object> map = (Map<String, Object>) entity;
-            Object id = map.get(idField);
+            id = map.get(idField);
 
             if (id == null)
                 throw new DataAccessException("未指定 id，这将会是批量全体更新！");
 
             sp = entity2UpdateSql(tableName, map, idField, id);
         } else {
-            String getId = DataUtils.changeColumnToFieldName("get_" + idField);
-            Object id = Methods.executeMethod(entity, getId);
+            EntityMetadata.Column idColumn = EntityMetadata.of(entity.getClass()).getColumn(idField);
+            id = idColumn == null ? null : idColumn.get(entity);
 
             if (id == null)
                 throw new DataAccessException("未指定 id，这将会是批量全体更新！");
@@ -389,7 +455,11 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
             sp = entity2UpdateSql(tableName, entity, idField, id);
         }
 
-        return write(sp.sql, sp.values);
+        try {
+            return write(sp.sql, sp.values);
+        } finally {
+            invalidate(() -> EntityCache.invalidate(tableName, id));
+        }
     }
 
     /**
@@ -401,10 +471,26 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
      * @return 成功修改的行数，一般为 1
      */
     public int updateWhere(Object entity, String where) {
+        return updateWhere(tableName, entity, where);
+    }
+
+    /**
+     * 按任意的过滤条件修改实体。表名作为参数传入，不修改 JdbcWriter 的状态
+     *
+     * @param tableName 表名
+     * @param entity    实体，可以是 Map or Java Bean
+     * @param where     查询
+     * @return 成功修改的行数
+     */
+    public int updateWhere(String tableName, Object entity, String where) {
         SqlParams sp = entity2UpdateSql(tableName, entity, null, null);
         sp.sql += " WHERE " + where;
 
-        return write(sp.sql, sp.values);
+        try {
+            return write(sp.sql, sp.values);
+        } finally {
+            invalidate(() -> EntityCache.invalidateTable(tableName)); // 不知道是哪些记录
+        }
     }
 
     /**
@@ -431,119 +517,359 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
         log.info(sql);
 
         int[] result = null;
+        UnitOfWork unit = begin(), current = currentUnit();
+        boolean inTransaction = current != null && current.isTransactional(); // 由外层的事务提交、回滚
+        Connection conn = getConn();
+        boolean autoCommit = false;
 
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            conn.setAutoCommit(false);// 取消自动提交
+            autoCommit = conn.getAutoCommit();
+
+            if (!inTransaction && autoCommit)
+                conn.setAutoCommit(false);// 取消自动提交
 
             ps.addBatch();
             result = ps.executeBatch();
             ps.clearBatch();
+            markWritten();
 
-            conn.commit();// 所有语句都执行完毕后才手动提交sql语句
+            if (!inTransaction)
+                conn.commit();// 所有语句都执行完毕后才手动提交sql语句
         } catch (Throwable e) {
-            try {
-                conn.rollback();// 回滚事务
-            } catch (SQLException ex) {
-                log.warn("WARN>>>", ex);
+            if (!inTransaction) {
+                try {
+                    conn.rollback();// 回滚事务
+                } catch (SQLException ex) {
+                    log.warn("WARN>>>", ex);
+                }
             }
 
             log.warn("WARN>>>", e);
+        } finally {
+            if (!inTransaction && autoCommit) { // 恢复原来的自动提交，请求的工作单元之后的写入、归还到连接池的连接都不受影响
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException e) {
+                    log.warn("WARN>>>", e);
+                }
+            }
+
+            end(unit);
         }
 
+        invalidate(() -> CountCache.invalidate(tableName));
         log.info("result>>{}", Arrays.toString(result));
         log.info("批量插入完毕 {}ms", System.currentTimeMillis() - start);
     }
 
     /**
-     * 批量插入
+     * 批量操作的选项
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class BatchOptions {
+        /**
+         * 每批的行数，攒够就执行一次 executeBatch()，默认 1000
+         */
+        private int chunkSize = 1000;
+
+        /**
+         * 每批执行完就提交事务，默认 false，即由调用者控制事务。不能在 {@link UnitOfWork} 的事务里使用，否则抛出 IllegalStateException
+         */
+        private boolean commitPerChunk;
+
+        /**
+         * 是否返回自动生成的主键
+         */
+        private boolean returnGeneratedKeys;
+    }
+
+    /**
+     * 批量操作的结果
+     */
+    @Data
+    public static class BatchResult {
+        /**
+         * 影响的行数。驱动返回 SUCCESS_NO_INFO 的，算作 1 行
+         */
+        private int rows;
+
+        /**
+         * 执行了多少批
+         */
+        private int chunks;
+
+        /**
+         * 自动生成的主键，须开启 {@link BatchOptions#returnGeneratedKeys}
+         */
+        private List<Object> generatedKeys = new ArrayList<>();
+    }
+
+    /**
+     * 批量执行同一条带 ? 占位符的 SQL。参数逐行读取，按 chunkSize 分批 addBatch()/executeBatch()，内存占用只与 chunkSize 有关。
+     * MySQL 的连接字符串加上 rewriteBatchedStatements=true，驱动会把一批合并为一条多值的 INSERT
      *
-     * @param entities  Map 列表或 Map 数组
-     * @param tableName 表名
+     * @param sql     SQL 语句，带有 ? 的占位符
+     * @param rows    每行的参数
+     * @param options 选项，可为 null 表示使用默认值
+     * @return 批量操作的结果
      */
-    @SuppressWarnings("unchecked")
-    public void createBatchMap(Object entities, String tableName) {
-        StringBuilder sb = new StringBuilder();
-        Map<String, Object>[] arr;
+    public BatchResult batch(String sql, Iterator<Object[]> rows, BatchOptions options) {
+        BatchOptions opt = options == null ? new BatchOptions() : options;
 
-        if (entities instanceof List) {
-            List<Map<String, Object>> list = (List<Map<String, Object>>) entities;
-            arr = new Map[list.size()];
+        if (opt.commitPerChunk) {
+            UnitOfWork current = conn == null && getDataSource() != null ? UnitOfWork.current(getDataSource()) : null;
 
-            for (int i = 0; i < list.size(); i++)
-                arr[i] = list.get(i);
+            if (current != null && current.isTransactional()) // 每批提交的话会把外层的事务提交一部分，回滚的话也回滚外层已执行的
+                throw new IllegalStateException("在事务里不能每批提交（commitPerChunk），请由外层的事务控制提交");
+        }
 
-        } else if (entities instanceof Map[])  // Arrays
-            arr = (Map<String, Object>[]) entities;
-        else
-            throw new IllegalArgumentException("不支持参数");
+        BatchResult result = new BatchResult();
+        UnitOfWork unit = begin();
+        Connection conn = getConn();
+        PreparedStatement ps = null;
+        boolean autoCommit = false;
 
-        Map<String, Object> firstEntity = arr[0];
-        sb.append("INSERT INTO ").append(tableName).append(" (");
-        everyMapField(firstEntity, (field, value) -> sb.append(" `").append(field).append("`,"));
-        sb.deleteCharAt(sb.length() - 1);// 删除最后一个
-        sb.append(") VALUES");
-
-        for (Map<String, Object> entity : arr) {
-            sb.append(" (");
-            everyMapField(entity, (field, value) -> sb.append(toSqlValue(value)).append(", "));
-            sb.deleteCharAt(sb.length() - 1);// 删除最后一个
-            sb.deleteCharAt(sb.length() - 1);// 删除最后一个
-            sb.append("),");
+        try {
+            autoCommit = conn.getAutoCommit();
+
+            if (opt.commitPerChunk && autoCommit)
+                conn.setAutoCommit(false);
+
+            ps = opt.returnGeneratedKeys ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(sql);
+            watch(ps); // 工作单元的超时、取消同样作用于批量操作
+            int count = 0;
+
+            while (rows.hasNext()) {
+                setParam2Ps(ps, rows.next());
+                ps.addBatch();
+
+                if (++count >= opt.chunkSize) {
+                    executeChunk(conn, ps, sql, count, opt, result);
+                    count = 0;
+                }
+            }
+
+            if (count > 0)
+                executeChunk(conn, ps, sql, count, opt, result);
+        } catch (SQLException e) {
+            rollbackChunk(conn, opt);
+            log.warn("WARN>>", e);
+            throw new RuntimeException(e.getMessage());
+        } catch (RuntimeException e) { // 读取参数的时候出错（例如实体的字段不一致）或者已经取消、超时
+            rollbackChunk(conn, opt);
+            throw e;
+        } finally {
+            if (ps != null) {
+                unwatch(ps);
+                StatementCache.close(ps);
+            }
+
+            invalidate(() -> CountCache.invalidateBySql(sql));
+
+            if (opt.commitPerChunk && autoCommit) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException e) {
+                    log.warn("WARN>>>", e);
+                }
+            }
+
+            end(unit);
         }
 
-        insertBatch(sb);
+        log.debug("批量执行完毕，共 {} 批，影响 {} 行", result.chunks, result.rows);
+
+        return result;
     }
 
     /**
-     * 批量插入
+     * 回滚未提交的这一批，否则恢复自动提交的时候会被提交
+     */
+    private static void rollbackChunk(Connection conn, BatchOptions opt) {
+        if (opt.commitPerChunk) {
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                log.warn("WARN>>>", ex);
+            }
+        }
+    }
+
+    /**
+     * 执行一批
      *
-     * @param entities Bean 列表或 Bean 数组
+     * @param conn 语句所在的连接，每批提交的话在这个连接上提交
      */
-    public void createBatch(Object entities) {
-        StringBuilder sb = new StringBuilder();
-        Object[] arr;
+    private void executeChunk(Connection conn, PreparedStatement ps, String sql, int count, BatchOptions opt, BatchResult result) throws SQLException {
+        long start = System.currentTimeMillis();
 
-        if (entities instanceof List) {
-            List<?> list = (List<?>) entities;
-            arr = list.toArray();
-        } else if (entities instanceof Object[])  // Arrays
-            arr = (Object[]) entities;
-        else
-            throw new IllegalArgumentException("不支持参数");
+        for (int r : ps.executeBatch())
+            result.rows += r == Statement.SUCCESS_NO_INFO ? 1 : Math.max(r, 0);
+
+        markWritten();
 
-        Object firstEntity = arr[0];
-        sb.append("INSERT INTO ").append(CRUD_Service.getTableName(firstEntity)).append(" (");
-        everyBeanField(firstEntity, (field, value) -> sb.append(" `").append(field).append("`,"));
-        sb.deleteCharAt(sb.length() - 1);// 删除最后一个
-        sb.append(") VALUES");
-
-        for (Object entity : arr) {
-            sb.append(" (");
-            everyBeanField(entity, (field, value) -> sb.append(toSqlValue(value)).append(", "));
-            sb.deleteCharAt(sb.length() - 1);// 删除最后一个
-            sb.deleteCharAt(sb.length() - 1);// 删除最后一个
-            sb.append("),");
+        if (opt.returnGeneratedKeys) {
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                while (rs.next()) {
+                    Object newlyId = rs.getObject(1);
+                    result.generatedKeys.add(newlyId instanceof BigInteger ? ((BigInteger) newlyId).longValue() : newlyId);
+                }
+            }
         }
 
-        insertBatch(sb);
+        ps.clearBatch();
+
+        if (opt.commitPerChunk)
+            conn.commit();
+
+        result.chunks++;
+        logSql("Batch(" + count + ")", sql, null, start);
     }
 
-    private void insertBatch(StringBuilder sb) {
-        sb.deleteCharAt(sb.length() - 1);// 删除最后一个
+    /**
+     * 批量插入实体，实体可以是 Map 或者 Java Bean。
+     * 插入的字段以第一个实体为准：Map 取其所有的 key，Bean 取其有值的字段；之后的实体按这些字段取值，没有值的插入 null。
+     * 之后的实体有第一个实体没有的 key 或者有值的字段的话，抛出 IllegalArgumentException，免得这些值被丢掉
+     *
+     * @param tableName 表名，为 null 的话，通过第一个实体的 TableName 注解获取
+     * @param entities  实体，可以是 Stream，这样就是读一个插一个，内存占用只与 chunkSize 有关
+     * @param options   选项，可为 null 表示使用默认值
+     * @return 批量操作的结果
+     */
+    public BatchResult createBatch(String tableName, Stream<?> entities, BatchOptions options) {
+        Iterator<?> it = entities.iterator();
 
-        String sql = sb.toString();
-        log.info("批量插入：：{}", sql);
-        int[] result;
+        if (!it.hasNext())
+            return new BatchResult();
 
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.addBatch();
-            result = ps.executeBatch();
-            ps.clearBatch();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        Object first = it.next();
+        List<String> columns = new ArrayList<>();
+        Function<Object, Object[]> toRow;
+
+        if (first instanceof Map) {
+            everyMapField(first, (field, value) -> columns.add(field));
+            Set<String> keys = new HashSet<>(columns);
+
+            toRow = entity -> {
+                Map<?, ?> map = (Map<?, ?>) entity;
+
+                if (map.size() > keys.size() || !keys.containsAll(map.keySet()))
+                    throw new IllegalArgumentException("批量插入的实体的字段须与第一个实体的一致，多出的字段：" + diff(map.keySet(), keys));
+
+                Object[] row = new Object[columns.size()];
+
+                for (int i = 0; i < row.length; i++)
+                    row[i] = beanValue2SqlValue(map.get(columns.get(i)));
+
+                return row;
+            };
+        } else {
+            EntityMetadata meta = EntityMetadata.of(first.getClass());
+            List<EntityMetadata.Column> fields = new ArrayList<>(), others = new ArrayList<>();
+
+            for (EntityMetadata.Column column : meta.getColumns()) {
+                if (!column.isIgnored()) {
+                    if (column.get(first) != null) {
+                        columns.add(column.getColumnName());
+                        fields.add(column);
+                    } else
+                        others.add(column);
+                }
+            }
+
+            toRow = entity -> {
+                for (EntityMetadata.Column column : others)
+                    if (column.get(entity) != null)
+                        throw new IllegalArgumentException("批量插入的实体的字段须与第一个实体的一致，第一个实体没有值的字段：" + column.getColumnName());
+
+                Object[] row = new Object[fields.size()];
+
+                for (int i = 0; i < row.length; i++)
+                    row[i] = beanValue2SqlValue(fields.get(i).get(entity));
+
+                return row;
+            };
+
+            if (tableName == null)
+                tableName = meta.getTableName();
         }
 
-        log.info("批量插入完成。{}", Arrays.toString(result));
+        if (tableName == null)
+            tableName = this.tableName;
+
+        if (tableName == null)
+            throw new DataAccessException("实体类未提供表名");
+
+        if (columns.isEmpty())
+            throw new NullPointerException("该实体没有任何字段和数据");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("INSERT INTO ").append(tableName).append(" (");
+        columns.forEach(field -> sb.append(" `").append(field).append("`,"));
+        sb.deleteCharAt(sb.length() - 1);// 删除最后一个 ,
+        sb.append(") VALUES (").append(String.join(", ", Collections.nCopies(columns.size(), "?"))).append(")");
+
+        Iterator<Object[]> rows = new Iterator<Object[]>() {
+            boolean isFirst = true;
+
+            @Override
+            public boolean hasNext() {
+                return isFirst || it.hasNext();
+            }
+
+            @Override
+            public Object[] next() {
+                if (isFirst) {
+                    isFirst = false;
+                    return toRow.apply(first);
+                }
+
+                return toRow.apply(it.next());
+            }
+        };
+
+        return batch(sb.toString(), rows, options);
+    }
+
+    /**
+     * 批量插入
+     *
+     * @param entities  Map 列表或 Map 数组
+     * @param tableName 表名
+     * @return 批量操作的结果
+     */
+    public BatchResult createBatchMap(Object entities, String tableName) {
+        return createBatch(tableName, toStream(entities, Map[].class), null);
+    }
+
+    /**
+     * 批量插入，表名通过第一个实体的 TableName 注解获取
+     *
+     * @param entities Bean 列表或 Bean 数组
+     * @return 批量操作的结果
+     */
+    public BatchResult createBatch(Object entities) {
+        return createBatch(null, toStream(entities, Object[].class), null);
+    }
+
+    private static List<Object> diff(Collection<?> keys, Set<String> expected) {
+        List<Object> list = new ArrayList<>();
+
+        for (Object key : keys)
+            if (!expected.contains(key))
+                list.add(key);
+
+        return list;
+    }
+
+    private static Stream<?> toStream(Object entities, Class<?> arrayType) {
+        if (entities instanceof Collection)
+            return ((Collection<?>) entities).stream();
+        else if (arrayType.isInstance(entities))  // Arrays
+            return Arrays.stream((Object[]) entities);
+        else
+            throw new IllegalArgumentException("不支持参数");
     }
 
     /**
@@ -553,9 +879,25 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
      * @return 是否成功
      */
     public boolean delete(Serializable id) {
+        return delete(tableName, idField, id);
+    }
+
+    /**
+     * 物理删除。表名、id 字段作为参数传入，不修改 JdbcWriter 的状态
+     *
+     * @param tableName 表名
+     * @param idField   id 字段名
+     * @param id        实体 ID
+     * @return 是否成功
+     */
+    public boolean delete(String tableName, String idField, Serializable id) {
         String sql = "DELETE FROM " + tableName + " WHERE " + idField + " = ?";
 
-        return write(sql, id) > 0;
+        try {
+            return write(sql, id) > 0;
+        } finally {
+            invalidate(() -> EntityCache.invalidate(tableName, id));
+        }
     }
 
     /**
@@ -579,6 +921,10 @@ public class JdbcWriter extends JdbcConn implements JdbcConstants {
         sb.append(String.join(",", valueHolders));
         sb.append(")");
 
-        return write(sb.toString(), params.toArray()) > 0;
+        try {
+            return write(sb.toString(), params.toArray()) > 0;
+        } finally {
+            invalidate(() -> ids.forEach(id -> EntityCache.invalidate(tableName, id)));
+        }
     }
 }
@@ -0,0 +1,147 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 读写分离：读取分流到从库，写入仍在主库
+ * <p>
+ * 多个从库轮流使用。以下情况读取仍走主库，保证读得到自己刚写入的数据（从库有复制延迟）：
+ * <ul>
+ *     <li>当前线程在主库的事务里</li>
+ *     <li>当前线程主库的工作单元（例如一个请求）已经执行过写入</li>
+ *     <li>通过 {@link #usePrimary(Supplier)} 指定</li>
+ * </ul>
+ * 反过来，{@link #useReplica(Supplier)} 可以指定读取走从库，例如在事务里执行的、不要求实时的统计。使用方式：
+ * <pre>
+ * crud.setReplicas(new ReadReplicas(crud.getReader(), Arrays.asList(replica1, replica2)));
+ * </pre>
+ */
+public class ReadReplicas {
+    /**
+     * 读取走哪里
+     */
+    private enum Route {
+        PRIMARY, REPLICA
+    }
+
+    private static final ThreadLocal<Route> ROUTE = new ThreadLocal<>();
+
+    private final JdbcReader primaryReader;
+
+    private final DataSource primary;
+
+    /**
+     * 每个从库一个 JdbcReader
+     */
+    private final JdbcReader[] readers;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * 创建读写分离
+     *
+     * @param primaryReader 主库的 JdbcReader，须设置了数据源。从库的 JdbcReader 沿用它的设置
+     * @param replicas      从库
+     */
+    public ReadReplicas(JdbcReader primaryReader, List<DataSource> replicas) {
+        this.primaryReader = primaryReader;
+        primary = primaryReader.getDataSource();
+        readers = new JdbcReader[replicas.size()];
+
+        for (int i = 0; i < readers.length; i++) {
+            JdbcReader reader = new JdbcReader();
+            reader.setDataSource(replicas.get(i));
+            reader.setDatabaseVendor(primaryReader.getDatabaseVendor());
+            reader.setFetchSize(primaryReader.getFetchSize());
+            reader.setQueryTimeout(primaryReader.getQueryTimeout());
+            reader.setStatementCacheSize(primaryReader.getStatementCacheSize());
+            readers[i] = reader;
+        }
+    }
+
+    /**
+     * 选择执行读取的 JdbcReader
+     *
+     * @return 需要读主库的话返回主库的，否则轮流返回一个从库的
+     */
+    public JdbcReader select() {
+        if (readers.length == 0 || !isReplicaAllowed())
+            return primaryReader;
+
+        return readers[Math.floorMod(next.getAndIncrement(), readers.length)];
+    }
+
+    /**
+     * 获取从库的数据源
+     *
+     * @return 从库的数据源
+     */
+    public List<DataSource> getDataSources() {
+        List<DataSource> list = new ArrayList<>(readers.length);
+
+        for (JdbcReader reader : readers)
+            list.add(reader.getDataSource());
+
+        return list;
+    }
+
+    /**
+     * 当前线程的读取能否走从库
+     *
+     * @return true 表示可以
+     */
+    public boolean isReplicaAllowed() {
+        Route route = ROUTE.get();
+
+        if (route != null)
+            return route == Route.REPLICA;
+
+        UnitOfWork unit = primary == null ? null : UnitOfWork.current(primary); // 主库固定了连接的话，无从判断，只能靠手动指定
+
+        return unit == null || !unit.isTransactional() && !unit.isWritten();
+    }
+
+    /**
+     * 期间的读取都走主库
+     *
+     * @param action 执行的操作
+     * @param <T>    返回值的类型
+     * @return 操作的返回值
+     */
+    public static <T> T usePrimary(Supplier<T> action) {
+        return with(Route.PRIMARY, action);
+    }
+
+    /**
+     * 期间的读取都走从库，即使在事务里或者已经写入过
+     *
+     * @param action 执行的操作
+     * @param <T>    返回值的类型
+     * @return 操作的返回值
+     */
+    public static <T> T useReplica(Supplier<T> action) {
+        return with(Route.REPLICA, action);
+    }
+
+    private static <T> T with(Route route, Supplier<T> action) {
+        Route old = ROUTE.get();
+        ROUTE.set(route);
+
+        try {
+            return action.get();
+        } finally {
+            if (old == null)
+                ROUTE.remove();
+            else
+                ROUTE.set(old);
+        }
+    }
+
+    public int size() {
+        return readers.length;
+    }
+}
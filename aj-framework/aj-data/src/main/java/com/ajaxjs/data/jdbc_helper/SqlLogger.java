@@ -0,0 +1,19 @@
+package com.ajaxjs.data.jdbc_helper;
+
+/**
+ * SQL 日志。可通过 {@link JdbcConn#setSqlLogger(SqlLogger)} 替换为自定义的实现，例如接入监控
+ * <p>
+ * 实现时注意：该方法在每条语句执行后都会调用，应尽快判断是否需要记录，再去格式化 SQL
+ */
+@FunctionalInterface
+public interface SqlLogger {
+    /**
+     * 记录一条执行过的 SQL
+     *
+     * @param type   语句的类型，如“查询”、“写入”
+     * @param sql    SQL 语句，可以带有 ? 的占位符
+     * @param params 插入到 SQL 中的参数，可能为 null
+     * @param cost   耗时（毫秒）
+     */
+    void log(String type, String sql, Object[] params, long cost);
+}
@@ -0,0 +1,241 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.util.LruCache;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个数据库连接上的 PreparedStatement 缓存，以 SQL 为 key，LRU 淘汰
+ * <p>
+ * 取出的语句在用完归还之前不在缓存里，所以同一条 SQL 嵌套使用时也不会互相干扰。
+ * 被淘汰的语句会关闭。连接关闭后语句也随之失效，下次取出时会重新创建
+ * <p>
+ * 通过 {@link #of(Connection, int)} 获取的缓存按物理连接共用：连接池每次借出的连接对象是代理，但背后的物理连接是同一个，
+ * 所以归还连接池之后再借出，之前 prepare 过的语句仍然可以复用。物理连接关闭了的，在创建新的缓存、获取和归还的时候清理掉
+ */
+@Slf4j
+public class StatementCache {
+    /**
+     * 物理连接 -> 缓存。不用 WeakHashMap，因为缓存的语句引用着连接，弱引用的键永远不会被回收
+     */
+    private static final Map<Connection, StatementCache> CACHES = new ConcurrentHashMap<>();
+
+    /**
+     * 所属的数据库连接
+     */
+    private final Connection conn;
+
+    private final LruCache<String, PreparedStatement> cache;
+
+    /**
+     * 创建语句缓存
+     *
+     * @param conn    数据库连接
+     * @param maxSize 最多缓存多少条语句
+     */
+    public StatementCache(Connection conn, int maxSize) {
+        this.conn = conn;
+        cache = new LruCache<>(maxSize);
+        cache.setEvictionListener((sql, ps) -> close(ps));
+    }
+
+    /**
+     * 获取物理连接的缓存，没有的话创建一个
+     *
+     * @param conn    数据库连接，可以是连接池的代理
+     * @param maxSize 最多缓存多少条语句，只在创建的时候生效
+     * @return 缓存
+     */
+    public static StatementCache of(Connection conn, int maxSize) {
+        Connection physical = unwrap(conn);
+        StatementCache cache = CACHES.get(physical);
+
+        if (cache != null)
+            return cache;
+
+        purge();
+
+        return CACHES.computeIfAbsent(physical, k -> new StatementCache(k, maxSize));
+    }
+
+    /**
+     * 获取已有的缓存
+     *
+     * @param conn 数据库连接，可以是连接池的代理
+     * @return 缓存，没有的话返回 null
+     */
+    public static StatementCache get(Connection conn) {
+        if (conn == null)
+            return null;
+
+        StatementCache cache = CACHES.get(unwrap(conn));
+
+        if (cache != null && cache.isConnClosed()) {
+            cache.remove();
+            return null;
+        }
+
+        return cache;
+    }
+
+    /**
+     * 获取所有物理连接的缓存，可用于查看整体的命中率
+     *
+     * @return 所有的缓存
+     */
+    public static Collection<StatementCache> getAll() {
+        purge();
+
+        return new ArrayList<>(CACHES.values());
+    }
+
+    /**
+     * 获取连接池代理背后的物理连接。不是代理、或者驱动不支持的话返回原来的连接
+     *
+     * @param conn 数据库连接
+     * @return 物理连接
+     */
+    static Connection unwrap(Connection conn) {
+        try {
+            if (conn.isWrapperFor(Connection.class)) {
+                Connection physical = conn.unwrap(Connection.class);
+
+                if (physical != null)
+                    return physical;
+            }
+        } catch (SQLException e) {
+            log.debug("获取物理连接失败", e);
+        }
+
+        return conn;
+    }
+
+    /**
+     * 清理物理连接已经关闭了的缓存
+     */
+    private static void purge() {
+        for (StatementCache cache : CACHES.values())
+            if (cache.isConnClosed())
+                cache.remove();
+    }
+
+    /**
+     * 物理连接是否已经关闭。检查失败的话当作已经关闭
+     */
+    private boolean isConnClosed() {
+        try {
+            return conn.isClosed();
+        } catch (SQLException e) {
+            log.debug("检查连接失败", e);
+            return true;
+        }
+    }
+
+    /**
+     * 从缓存的集合里移除，并关闭所有缓存的语句
+     */
+    private void remove() {
+        if (CACHES.remove(conn, this))
+            close();
+    }
+
+    /**
+     * 取出语句，缓存中没有的话新建一个
+     *
+     * @param sql               SQL 语句
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS 或 Statement.NO_GENERATED_KEYS
+     * @return PreparedStatement
+     * @throws SQLException 创建语句时的异常
+     */
+    public PreparedStatement borrow(String sql, int autoGeneratedKeys) throws SQLException {
+        PreparedStatement ps = cache.take(key(sql, autoGeneratedKeys));
+
+        if (ps != null && !ps.isClosed())
+            return ps;
+
+        return autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(sql);
+    }
+
+    /**
+     * 归还语句。如果缓存里已有同一条 SQL 的语句，则关闭这个
+     *
+     * @param sql               SQL 语句
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS 或 Statement.NO_GENERATED_KEYS
+     * @param ps                用完的语句
+     */
+    public void release(String sql, int autoGeneratedKeys, PreparedStatement ps) {
+        if (isConnClosed()) { // 连接池关闭了物理连接
+            close(ps);
+            remove();
+            return;
+        }
+
+        try {
+            if (ps.isClosed())
+                return;
+
+            ps.clearParameters();
+
+            if (ps.getQueryTimeout() != 0) // 不带给下一个使用者
+                ps.setQueryTimeout(0);
+        } catch (SQLException e) {
+            close(ps);
+            return;
+        }
+
+        if (cache.putIfAbsent(key(sql, autoGeneratedKeys), ps) != null)
+            close(ps);
+    }
+
+    private static String key(String sql, int autoGeneratedKeys) {
+        return autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+    }
+
+    /**
+     * 关闭所有缓存的语句
+     */
+    public void close() {
+        cache.clear();
+    }
+
+    public Connection getConn() {
+        return conn;
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            log.warn("ERROR>>", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCache" + cache.toString().substring("LruCache".length());
+    }
+}
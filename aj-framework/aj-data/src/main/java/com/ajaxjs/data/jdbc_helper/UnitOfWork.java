@@ -0,0 +1,440 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.DataAccessException;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 工作单元：一个请求或者一个事务内共用一个数据库连接
+ * <p>
+ * 打开之后绑定到当前线程，第一次执行 SQL 的时候才从数据源获取连接，关闭的时候归还，没用到数据库的话不会占用连接。
+ * 同一个线程里再次打开同一个数据源的工作单元，会加入已有的，最外层关闭的时候才归还连接。
+ * 设置了 DataSource 的 JdbcReader/JdbcWriter 会使用当前的工作单元；没有的话每次执行 SQL 都临时获取、归还连接。
+ * 虚拟线程也有各自的 ThreadLocal，同样适用；但异步执行的任务不在当前线程，须自己打开工作单元。使用方式：
+ * <pre>
+ * try (UnitOfWork unit = UnitOfWork.open(dataSource)) {
+ *      ....
+ * }
+ *
+ * try (UnitOfWork unit = UnitOfWork.transaction(dataSource)) {
+ *      ....
+ *      unit.commit(); // 没有提交就关闭的话回滚
+ * }
+ * </pre>
+ */
+@Slf4j
+public class UnitOfWork implements AutoCloseable {
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final DataSource dataSource;
+
+    /**
+     * 打开这个工作单元之前的（另一个数据源的）工作单元，关闭之后恢复。
+     * 不是按打开的相反顺序关闭的话，关闭的时候从链上摘掉
+     */
+    private volatile UnitOfWork previous;
+
+    /**
+     * 是否已经关闭。在别的线程关闭的话（例如 Stream 在别的线程关闭），所属线程的链上还留着它，获取的时候跳过
+     */
+    private volatile boolean closed;
+
+    private Connection connection;
+
+    /**
+     * 嵌套了几层
+     */
+    private int depth = 1;
+
+    /**
+     * 在第几层开始的事务，0 表示没有事务
+     */
+    private int txDepth;
+
+    private boolean committed;
+
+    /**
+     * 是否执行过写入，之后的读取不再分流到从库，免得读不到刚写入的数据
+     */
+    private boolean written;
+
+    /**
+     * 正在执行的语句，{@link #cancel()} 的时候取消它
+     */
+    private volatile Statement running;
+
+    private volatile boolean cancelled;
+
+    /**
+     * 截止的时间（System.nanoTime() 的值），之后执行的语句的超时时间不超过剩余的时间
+     */
+    private long deadline;
+
+    private boolean hasDeadline;
+
+    /**
+     * 事务提交之后执行的操作，例如使缓存失效。回滚的话丢弃
+     */
+    private List<Runnable> afterCommit;
+
+    private UnitOfWork(DataSource dataSource, UnitOfWork previous) {
+        this.dataSource = dataSource;
+        this.previous = previous;
+    }
+
+    /**
+     * 打开工作单元，已经有同一个数据源的话加入
+     *
+     * @param dataSource 数据源
+     * @return 工作单元
+     */
+    public static UnitOfWork open(DataSource dataSource) {
+        UnitOfWork current = top();
+
+        if (current != null && current.dataSource == dataSource) {
+            current.depth++;
+
+            return current;
+        }
+
+        UnitOfWork unit = new UnitOfWork(dataSource, current);
+        CURRENT.set(unit);
+
+        return unit;
+    }
+
+    /**
+     * 打开一个新的工作单元，不加入已有的，使用另外一个连接。用于在别的连接上执行、可以单独取消的操作，例如异步的查询
+     *
+     * @param dataSource 数据源
+     * @return 工作单元
+     */
+    public static UnitOfWork openNew(DataSource dataSource) {
+        UnitOfWork unit = new UnitOfWork(dataSource, top());
+        CURRENT.set(unit);
+
+        return unit;
+    }
+
+    /**
+     * 打开事务。已经在事务里的话加入，由最外层提交
+     *
+     * @param dataSource 数据源
+     * @return 工作单元
+     */
+    public static UnitOfWork transaction(DataSource dataSource) {
+        UnitOfWork unit = open(dataSource);
+
+        if (unit.txDepth == 0) {
+            unit.txDepth = unit.depth;
+            unit.committed = false;
+
+            if (unit.connection != null)
+                unit.setAutoCommit(false);
+        }
+
+        return unit;
+    }
+
+    /**
+     * 在工作单元里执行
+     *
+     * @param dataSource 数据源
+     * @param action     执行的操作
+     * @param <T>        返回值的类型
+     * @return 操作的返回值
+     */
+    public static <T> T run(DataSource dataSource, Supplier<T> action) {
+        try (UnitOfWork ignored = open(dataSource)) {
+            return action.get();
+        }
+    }
+
+    /**
+     * 在事务里执行，正常返回的话提交，抛出异常的话回滚
+     *
+     * @param dataSource 数据源
+     * @param action     执行的操作
+     * @param <T>        返回值的类型
+     * @return 操作的返回值
+     */
+    public static <T> T inTransaction(DataSource dataSource, Supplier<T> action) {
+        try (UnitOfWork unit = transaction(dataSource)) {
+            T result = action.get();
+            unit.commit();
+
+            return result;
+        }
+    }
+
+    /**
+     * 获取当前线程的工作单元
+     *
+     * @param dataSource 数据源，为 null 的话返回最近打开的
+     * @return 工作单元，没有的话返回 null
+     */
+    public static UnitOfWork current(DataSource dataSource) {
+        UnitOfWork unit = top();
+
+        while (unit != null && (unit.closed || dataSource != null && unit.dataSource != dataSource))
+            unit = unit.previous;
+
+        return unit;
+    }
+
+    /**
+     * 获取当前线程最近打开的、没有关闭的工作单元，顺便把上面已经关闭的出栈
+     */
+    private static UnitOfWork top() {
+        UnitOfWork top = CURRENT.get(), unit = top;
+
+        while (unit != null && unit.closed)
+            unit = unit.previous;
+
+        if (unit != top) {
+            if (unit == null)
+                CURRENT.remove();
+            else
+                CURRENT.set(unit);
+        }
+
+        return unit;
+    }
+
+    /**
+     * 获取已经打开的连接，不会从数据源获取
+     *
+     * @return 数据库连接，还没有执行过 SQL 的话为 null
+     */
+    public Connection getOpenedConnection() {
+        return connection;
+    }
+
+    /**
+     * 获取连接，第一次调用的时候才从数据源获取
+     *
+     * @return 数据库连接
+     */
+    public Connection getConnection() {
+        if (connection == null) {
+            try {
+                connection = dataSource.getConnection();
+            } catch (SQLException e) {
+                log.warn("ERR:", e);
+                throw new DataAccessException("获取数据库连接失败：" + e.getMessage());
+            }
+
+            if (txDepth > 0)
+                setAutoCommit(false);
+        }
+
+        return connection;
+    }
+
+    /**
+     * 设置超时。之后执行的每个语句都设置剩余的时间为超时时间，超时后由驱动取消语句并抛出异常
+     *
+     * @param timeout 超时时间（毫秒），从现在开始算，0 表示不限制
+     */
+    public void setTimeout(long timeout) {
+        hasDeadline = timeout > 0;
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * 取消：正在执行的语句通知数据库停止执行，之后的语句不再执行。可以在别的线程调用
+     */
+    public void cancel() {
+        cancelled = true;
+        Statement statement = running;
+
+        if (statement != null)
+            cancel(statement);
+    }
+
+    private static void cancel(Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            log.debug("取消语句失败", e); // 已经执行完毕、关闭了的话会失败，不影响
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 执行语句之前调用，设置超时，记录下来以便取消
+     *
+     * @param statement 将要执行的语句
+     * @throws SQLException 设置超时失败
+     */
+    void watch(Statement statement) throws SQLException {
+        if (cancelled)
+            throw new DataAccessException("已经取消，不再执行");
+
+        if (hasDeadline) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+            if (remaining <= 0)
+                throw new DataAccessException("执行超时");
+
+            statement.setQueryTimeout((int) Math.max(1, (remaining + 999) / 1000));
+        } else if (statement.getQueryTimeout() != 0) // 缓存的语句可能留有之前设置的
+            statement.setQueryTimeout(0);
+
+        running = statement;
+
+        if (cancelled) // 记录之前刚好取消了
+            cancel(statement);
+    }
+
+    /**
+     * 语句执行完毕之后调用
+     *
+     * @param statement 执行完毕的语句
+     */
+    void unwatch(Statement statement) {
+        if (running == statement)
+            running = null;
+    }
+
+    /**
+     * 提交事务。嵌套的事务由最外层提交，里层的调用不起作用
+     */
+    public void commit() {
+        if (txDepth == 0)
+            throw new IllegalStateException("没有开启事务");
+
+        if (depth != txDepth)
+            return;
+
+        try {
+            if (connection != null)
+                connection.commit();
+
+            committed = true;
+            runAfterCommit();
+        } catch (SQLException e) {
+            log.warn("ERR:", e);
+            throw new DataAccessException("提交事务失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 在事务提交之后执行，例如使缓存失效：提交之前别的线程读到的仍是旧的数据，可能又放进缓存里。
+     * 回滚的话不执行；不在事务里的话马上执行
+     *
+     * @param action 执行的操作
+     */
+    public void afterCommit(Runnable action) {
+        if (!isTransactional()) {
+            action.run();
+            return;
+        }
+
+        if (afterCommit == null)
+            afterCommit = new ArrayList<>();
+
+        afterCommit.add(action);
+    }
+
+    private void runAfterCommit() {
+        List<Runnable> actions = afterCommit;
+        afterCommit = null;
+
+        if (actions != null)
+            for (Runnable action : actions) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    log.warn("事务提交之后执行的操作失败", e);
+                }
+            }
+    }
+
+    /**
+     * 关闭工作单元，最外层的话归还连接。事务没有提交的话回滚
+     */
+    @Override
+    public void close() {
+        if (closed) // 重复关闭
+            return;
+
+        if (depth == txDepth) {
+            if (connection != null) {
+                if (!committed)
+                    rollback();
+
+                setAutoCommit(true);
+            }
+
+            txDepth = 0;
+            afterCommit = null; // 回滚了的话不再执行
+        }
+
+        if (--depth > 0)
+            return;
+
+        JdbcConn.closeDb(connection);
+        connection = null;
+        closed = true;
+        UnitOfWork top = CURRENT.get();
+
+        if (top == this) // 按打开的相反顺序关闭，出栈
+            top();
+        else if (top != null) { // 不在栈顶，从链上摘掉；在别的线程关闭的话找不到，由所属线程获取的时候跳过
+            for (UnitOfWork unit = top; unit != null; unit = unit.previous) {
+                if (unit.previous == this) {
+                    unit.previous = previous;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.warn("回滚事务失败", e);
+        }
+    }
+
+    private void setAutoCommit(boolean autoCommit) {
+        try {
+            connection.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            log.warn("ERR:", e);
+            throw new DataAccessException(e.getMessage());
+        }
+    }
+
+    public boolean isTransactional() {
+        return txDepth > 0;
+    }
+
+    /**
+     * JdbcWriter 执行写入之后调用
+     */
+    void markWritten() {
+        written = true;
+    }
+
+    public boolean isWritten() {
+        return written;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+}
@@ -0,0 +1,48 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+
+/**
+ * 每个请求一个工作单元，请求里所有的 SQL 共用一个连接，请求结束（包括抛出异常）的时候归还。
+ * 没有执行 SQL 的请求不会占用连接。异步的请求在切换线程之前就关闭，之后的操作各自获取连接
+ */
+public class UnitOfWorkInterceptor implements AsyncHandlerInterceptor {
+    private static final String ATTR = UnitOfWork.class.getName();
+
+    private final DataSource dataSource;
+
+    public UnitOfWorkInterceptor(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getAttribute(ATTR) == null) // forward、include 的时候不重复打开
+            request.setAttribute(ATTR, UnitOfWork.open(dataSource));
+
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        close(request);
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        close(request);
+    }
+
+    private static void close(HttpServletRequest request) {
+        UnitOfWork unit = (UnitOfWork) request.getAttribute(ATTR);
+
+        if (unit != null) {
+            request.removeAttribute(ATTR);
+            unit.close();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.ajaxjs.data.jdbc_helper.common;
+
+/**
+ * 逐行处理记录的回调，用于流式查询
+ *
+ * @param <T> 每一行的类型
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+    /**
+     * 处理一行记录
+     *
+     * @param row 当前行转换后的结果
+     */
+    void handle(T row);
+}
@@ -0,0 +1,147 @@
+package com.ajaxjs.data.util;
+
+import com.ajaxjs.data.DataAccessException;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 把同时发生的单个查询合并为批量查询（类似 DataLoader）
+ * <p>
+ * 没有查询在执行的话，调用者马上自己执行，不额外等待；有的话先排队，当前的批次执行完之后，
+ * 由排在最前的调用者把排队的一起执行。所以并发低的时候与单个查询无异，并发高的时候合并为少数几个批量查询。
+ * 只有分组相同的才合并，例如同一个租户、同一个用户的，免得查询条件不一样的混在一起
+ *
+ * @param <K> 键的类型，例如 id
+ * @param <V> 值的类型
+ */
+public class BatchCoalescer<K, V> {
+    /**
+     * 通知排队的调用者由它执行下一批
+     */
+    private static final Object LEAD = new Object();
+
+    private static class Pending<K> {
+        final K key;
+
+        /**
+         * 结果，或者 LEAD。收到 LEAD 之后换一个新的，等待自己执行的这一批的结果
+         */
+        volatile CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Pending(K key) {
+            this.key = key;
+        }
+    }
+
+    private static class Group<K> {
+        final Deque<Pending<K>> queue = new ArrayDeque<>();
+
+        boolean running;
+    }
+
+    private final int maxBatchSize;
+
+    private final Map<String, Group<K>> groups = new ConcurrentHashMap<>();
+
+    /**
+     * 创建
+     *
+     * @param maxBatchSize 每批最多多少个键
+     */
+    public BatchCoalescer(int maxBatchSize) {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize 必须大于 0");
+
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 获取一个值，可能与其他线程的合并为一次批量查询
+     *
+     * @param group  分组，只有相同的才合并
+     * @param key    键
+     * @param loader 批量查询，返回键 -> 值，查不到的可以不包含。在执行这一批的调用者的线程中执行
+     * @return 值，查不到的话返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public V load(String group, K key, Function<List<K>, Map<K, V>> loader) {
+        Group<K> g = groups.computeIfAbsent(group, k -> new Group<>());
+        Pending<K> pending = new Pending<>(key);
+        CompletableFuture<Object> future;
+        boolean lead;
+
+        synchronized (g) {
+            g.queue.add(pending);
+            future = pending.future; // 在锁里获取，与交接的时候换 future 不冲突
+            lead = !g.running;
+            g.running = true;
+        }
+
+        if (!lead) {
+            Object result = join(future);
+
+            if (result != LEAD)
+                return (V) result;
+        }
+
+        runBatch(group, g, loader);
+
+        return (V) join(pending.future);
+    }
+
+    /**
+     * 执行排队的一批，然后交给下一个排队的调用者，或者结束
+     */
+    private void runBatch(String group, Group<K> g, Function<List<K>, Map<K, V>> loader) {
+        List<Pending<K>> batch = new ArrayList<>();
+
+        synchronized (g) {
+            while (!g.queue.isEmpty() && batch.size() < maxBatchSize)
+                batch.add(g.queue.poll());
+        }
+
+        try {
+            List<K> keys = new ArrayList<>(batch.size());
+
+            for (Pending<K> p : batch)
+                keys.add(p.key);
+
+            Map<K, V> result = loader.apply(keys);
+
+            for (Pending<K> p : batch)
+                p.future.complete(result == null ? null : result.get(p.key));
+        } catch (Throwable e) {
+            for (Pending<K> p : batch)
+                p.future.completeExceptionally(e);
+        } finally {
+            CompletableFuture<Object> signal = null;
+
+            synchronized (g) {
+                if (g.queue.isEmpty()) {
+                    g.running = false;
+                    groups.remove(group, g); // 之后来的重新创建，免得分组越来越多
+                } else {
+                    Pending<K> next = g.queue.peek(); // 仍在队列里，由它执行下一批
+                    signal = next.future;
+                    next.future = new CompletableFuture<>();
+                }
+            }
+
+            if (signal != null)
+                signal.complete(LEAD);
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new DataAccessException(cause.getMessage());
+        }
+    }
+}
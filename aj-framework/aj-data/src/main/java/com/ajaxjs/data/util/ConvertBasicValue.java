@@ -10,6 +10,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Function;
 
 /**
  * 尝试转换目标类型，注意并不是所有的类型都可以进行转换
@@ -96,6 +97,32 @@ public class ConvertBasicValue {
         return null;
     }
 
+    /**
+     * 预先选定某个类型的转换函数，结果与 {@link #basicConvert(Object, Class)} 一致。
+     * 适合在循环里对同一类型反复转换的场合，省去每次的类型判断
+     *
+     * @param clz 期待的类型
+     * @return 转换函数，送入 null 返回 null
+     */
+    public static Function<Object, Object> getConverter(Class<?> clz) {
+        if (clz == String.class)
+            return value -> value == null ? null : value.toString();
+        else if (clz == boolean.class || clz == Boolean.class)
+            return value -> value == null ? null : toBoolean(value);
+        else if (clz == int.class || clz == Integer.class)
+            return value -> value == null || value instanceof Integer ? value : object2int(value);
+        else if (clz == long.class || clz == Long.class)
+            return value -> value == null || value instanceof Long ? value : object2long(value);
+        else if (clz == float.class || clz == Float.class)
+            return value -> value == null || value instanceof Float ? value : object2float(value);
+        else if (clz == double.class || clz == Double.class)
+            return value -> value == null || value instanceof Double ? value : object2double(value);
+        else if (clz == Date.class)
+            return value -> value == null ? null : DateHelper.object2Date(value);
+        else
+            return value -> basicConvert(value, clz);
+    }
+
     /**
      * 转换到数组
      */
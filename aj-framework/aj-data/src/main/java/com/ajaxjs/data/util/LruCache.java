@@ -0,0 +1,277 @@
+package com.ajaxjs.data.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 简单的 LRU 缓存，线程安全，有容量上限和可选的过期时间，并统计命中、未命中和淘汰的次数
+ *
+ * @param <K> 键的类型
+ * @param <V> 值的类型
+ */
+public class LruCache<K, V> {
+    /**
+     * 缓存项
+     */
+    private static class Entry<V> {
+        final V value;
+
+        final long createTime;
+
+        Entry(V value) {
+            this.value = value;
+            this.createTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 最多保存多少项
+     */
+    private final int maxSize;
+
+    /**
+     * 过期时间（毫秒），0 表示不过期
+     */
+    private final long ttl;
+
+    /**
+     * accessOrder = true，最近访问的排在最后
+     */
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * 缓存项被淘汰（超出容量、过期、清空）时的回调，例如用于关闭资源。调用 remove()/take() 取走的不会回调
+     */
+    private BiConsumer<K, V> evictionListener;
+
+    /**
+     * 创建缓存，不过期
+     *
+     * @param maxSize 最多保存多少项
+     */
+    public LruCache(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * 创建缓存
+     *
+     * @param maxSize 最多保存多少项
+     * @param ttl     过期时间（毫秒），0 表示不过期
+     */
+    public LruCache(int maxSize, long ttl) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize 必须大于 0");
+
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    /**
+     * 获取缓存的值
+     *
+     * @param key 键
+     * @return 值，没有或已过期返回 null
+     */
+    public V get(K key) {
+        V value;
+
+        synchronized (this) {
+            value = getValue(key, false);
+        }
+
+        (value == null ? missCount : hitCount).incrementAndGet();
+
+        return value;
+    }
+
+    /**
+     * 取出并移除缓存的值，也会计入命中或未命中
+     *
+     * @param key 键
+     * @return 值，没有或已过期返回 null
+     */
+    public V take(K key) {
+        V value;
+
+        synchronized (this) {
+            value = getValue(key, true);
+        }
+
+        (value == null ? missCount : hitCount).incrementAndGet();
+
+        return value;
+    }
+
+    /**
+     * 获取缓存的值，没有的话用 loader 加载并保存。loader 返回 null 的话不保存
+     *
+     * @param key    键
+     * @param loader 加载函数，在锁外调用
+     * @return 值
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+
+        if (value == null) {
+            value = loader.apply(key);
+
+            if (value != null)
+                put(key, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * 保存值
+     *
+     * @param key   键
+     * @param value 值
+     */
+    public void put(K key, V value) {
+        Map<K, V> evicted = new LinkedHashMap<>();
+
+        synchronized (this) {
+            Entry<V> old = map.put(key, new Entry<>(value));
+
+            if (old != null && old.value != value)
+                evicted.put(key, old.value);
+
+            Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+
+            while (map.size() > maxSize && it.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = it.next();
+                it.remove();
+                evicted.put(eldest.getKey(), eldest.getValue().value);
+            }
+        }
+
+        evictionCount.addAndGet(evicted.size());
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * 保存值，但已有的话不覆盖
+     *
+     * @param key   键
+     * @param value 值
+     * @return 已有的值，没有的话返回 null 表示已保存
+     */
+    public V putIfAbsent(K key, V value) {
+        synchronized (this) {
+            V old = getValue(key, false);
+
+            if (old != null)
+                return old;
+        }
+
+        put(key, value);
+
+        return null;
+    }
+
+    /**
+     * 移除缓存项
+     *
+     * @param key 键
+     * @return 移除的值，没有的话返回 null
+     */
+    public synchronized V remove(K key) {
+        Entry<V> entry = map.remove(key);
+
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        Map<K, V> evicted = new LinkedHashMap<>();
+
+        synchronized (this) {
+            for (Map.Entry<K, Entry<V>> e : map.entrySet())
+                evicted.put(e.getKey(), e.getValue().value);
+
+            map.clear();
+        }
+
+        notifyEvicted(evicted);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    private V getValue(K key, boolean remove) {
+        Entry<V> entry = remove ? map.remove(key) : map.get(key);
+
+        if (entry == null)
+            return null;
+
+        if (ttl > 0 && System.currentTimeMillis() - entry.createTime > ttl) {
+            if (!remove)
+                map.remove(key);
+
+            evictionCount.incrementAndGet();
+
+            if (evictionListener != null)
+                evictionListener.accept(key, entry.value);
+
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    private void notifyEvicted(Map<K, V> evicted) {
+        if (evictionListener != null)
+            evicted.forEach(evictionListener);
+    }
+
+    public void setEvictionListener(BiConsumer<K, V> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 命中率
+     *
+     * @return 0~1，没有访问过返回 0
+     */
+    public double getHitRate() {
+        long hit = hitCount.get(), total = hit + missCount.get();
+
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LruCache{size=%d, maxSize=%d, hit=%d, miss=%d, eviction=%d}", size(), maxSize, getHitCount(), getMissCount(), getEvictionCount());
+    }
+}
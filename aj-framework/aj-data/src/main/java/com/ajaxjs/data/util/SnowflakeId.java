@@ -1,48 +1,76 @@
 package com.ajaxjs.data.util;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * 雪花生成器
  * <p>
  * 默认其生成的 Long 主键是 28 位；但 JS Long 最大值是 16 位（Java Long 没此问题） 这个版本则是生成 16 位的
+ * <p>
+ * 时间戳和毫秒内序号合在一个 AtomicLong 里面，用 CAS 更新，无锁。
+ * 序号用完或者时钟回拨的时候，直接在上一个值上加一，溢出的序号进位到时间戳，相当于借用未来的时间，
+ * 不会自旋等待也不会抛异常；借用超过 {@link #maxBorrowMillis} 的话，才停下来等待时钟追上。
+ * <p>
+ * 多个节点须使用不同的机器 id。默认实例的机器 id 依次从系统属性 snowflake.workerId、环境变量 SNOWFLAKE_WORKER_ID 获取，
+ * 都没有的话为 1；也可以通过 {@link WorkerIdLease#createSnowflakeId()} 从数据库租用一个，再调用 {@link #setInstance(SnowflakeId)}。
+ * 租用的机器 id 没能续租的话，租约到期之后不再生成 id，免得与接手这个机器 id 的节点重复
  *
  * @author <a href="https://www.cnblogs.com/yangzhilong/p/10290862.html">...</a>
  */
+@Slf4j
 public class SnowflakeId {
     /**
      * 时间起始标记点，作为基准，一般取系统的最近时间 此处以2018-01-01为基准时间
      */
-    private final long epoch = 1514736000000L;
+    private static final long EPOCH = 1514736000000L;
 
     /**
      * 机器标识位数
      */
-    private final long workerIdBits = 4L;
+    private static final long WORKER_ID_BITS = 4L;
 
     /**
      * 毫秒内自增位
      */
-    private final long sequenceBits = 12L;
+    private static final long SEQUENCE_BITS = 12L;
 
     /**
-     * 机器ID最大值:16
+     * 机器ID最大值:15
      */
-    private final long maxWorkerId = ~(-1L << workerIdBits);
+    public static final long MAX_WORKER_ID = ~(-1L << WORKER_ID_BITS);
 
-    private final long workerIdShift = sequenceBits;
-    private final long timestampLeftShift = sequenceBits + workerIdBits;
-    private final long sequenceMask = ~(-1L << sequenceBits);
+    private static final long WORKER_ID_SHIFT = SEQUENCE_BITS;
+
+    private static final long TIMESTAMP_LEFT_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS;
+
+    private static final long SEQUENCE_MASK = ~(-1L << SEQUENCE_BITS);
 
     private final long workerId;
 
     /**
-     * 并发控制
+     * 上一个 id 的时间戳（相对 EPOCH）和序号：时间戳 &lt;&lt; SEQUENCE_BITS | 序号
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    /**
+     * 最多借用多少毫秒未来的时间
+     */
+    private long maxBorrowMillis = 1000;
+
+    /**
+     * 机器 id 的租约的到期时间（毫秒），id 的时间戳不能达到这个时间，否则可能与之后租用这个机器 id 的节点重复。
+     * 不是租用的机器 id 的话为 Long.MAX_VALUE，即不限制
      */
-    private long sequence = 0L;
-    private long lastTimestamp = -1L;
+    private volatile long leaseExpireAt = Long.MAX_VALUE;
 
     public SnowflakeId(long workerId) {
-        if (workerId > maxWorkerId || workerId < 0)
-            throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", maxWorkerId));
+        if (workerId > MAX_WORKER_ID || workerId < 0)
+            throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", MAX_WORKER_ID));
 
         this.workerId = workerId;
     }
@@ -51,26 +79,109 @@ public class SnowflakeId {
      * 获得下一个 ID (该方法是线程安全的)
      *
      * @return 雪花 ID
+     * @throws IllegalStateException 机器 id 的租约已经过期或被收回
      */
-    public synchronized long nextId() {
-        long timestamp = System.currentTimeMillis();
+    public long nextId() {
+        return toId(reserve(1));
+    }
 
-        if (lastTimestamp == timestamp) {
-            // 如果上一个 timestamp 与新产生的相等，则 sequence 加一(0-4095 循环);
-            // 对新的 timestamp，sequence 从0开始
-            sequence = sequence + 1 & sequenceMask;
+    /**
+     * 一次获得多个 ID，每 4096 个只需一次 CAS，适合批量插入
+     *
+     * @param n 数量
+     * @return 递增的雪花 ID
+     */
+    public long[] nextIds(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("n 必须大于 0");
+
+        long[] ids = new long[n];
+        int i = 0;
 
-            if (sequence == 0)
-                timestamp = tilNextMillis(lastTimestamp);// 重新生成 timestamp
-        } else
-            sequence = 0;
+        while (i < n) { // 每次最多占用一毫秒的序号，免得数量太大借用过多的时间
+            int size = (int) Math.min(n - i, SEQUENCE_MASK + 1);
+            long first = reserve(size);
 
-        if (timestamp < lastTimestamp)
-            throw new RuntimeException(String.format("clock moved backwards.Refusing to generate id for %d milliseconds", lastTimestamp - timestamp));
+            for (int j = 0; j < size; j++)
+                ids[i++] = toId(first + j);
+        }
+
+        return ids;
+    }
 
-        lastTimestamp = timestamp;
+    /**
+     * 占用 n 个连续的状态值
+     *
+     * @param n 数量
+     * @return 第一个状态值
+     */
+    private long reserve(int n) {
+        while (true) {
+            long last = state.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            long first = now > last >>> SEQUENCE_BITS ? now << SEQUENCE_BITS : last + 1; // 同一毫秒或者时钟回拨，接着上一个序号，满了进位
+            long end = first + n - 1;
+            long borrowed = (end >>> SEQUENCE_BITS) - now;
+
+            if ((end >>> SEQUENCE_BITS) + EPOCH >= leaseExpireAt)
+                throw new IllegalStateException("机器 id " + workerId + " 的租约已经过期或被收回，不能再生成 id");
+
+            if (borrowed > maxBorrowMillis) { // 借得太多，等时钟追上
+                waitFor(borrowed - maxBorrowMillis);
+                continue;
+            }
+
+            if (state.compareAndSet(last, end))
+                return first;
+        }
+    }
+
+    private static void waitFor(long millis) {
+        if (millis > 100)
+            log.warn("雪花 id 借用的时间过多，可能时钟回拨了，等待 {} 毫秒", millis);
+
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private long toId(long state) {
+        return (state >>> SEQUENCE_BITS) << TIMESTAMP_LEFT_SHIFT | workerId << WORKER_ID_SHIFT | state & SEQUENCE_MASK;
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
 
-        return timestamp - epoch << timestampLeftShift | workerId << workerIdShift | sequence;
+    public long getMaxBorrowMillis() {
+        return maxBorrowMillis;
+    }
+
+    /**
+     * 设置最多借用多少毫秒未来的时间。借用的时间越长，时钟回拨时越不用等待，但重启后与之前的 id 重复的风险越大
+     *
+     * @param maxBorrowMillis 毫秒数
+     */
+    public void setMaxBorrowMillis(long maxBorrowMillis) {
+        this.maxBorrowMillis = maxBorrowMillis;
+    }
+
+    public long getLeaseExpireAt() {
+        return leaseExpireAt;
+    }
+
+    /**
+     * 设置机器 id 的租约的到期时间，由 {@link WorkerIdLease} 续租的时候调用。之后生成的 id 的时间戳须早于这个时间，否则抛出 IllegalStateException
+     *
+     * @param leaseExpireAt 到期时间（毫秒）
+     */
+    public void setLeaseExpireAt(long leaseExpireAt) {
+        this.leaseExpireAt = leaseExpireAt;
+    }
+
+    /**
+     * 收回机器 id，之后不能再生成 id
+     */
+    public void revoke() {
+        leaseExpireAt = Long.MIN_VALUE;
     }
 
     /**
@@ -83,8 +194,10 @@ public class SnowflakeId {
     public static long tilNextMillis(long lastTimestamp) {
         long timestamp = System.currentTimeMillis();
 
-        while (timestamp <= lastTimestamp)
+        while (timestamp <= lastTimestamp) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
             timestamp = System.currentTimeMillis();
+        }
 
         return timestamp;
     }
@@ -92,14 +205,41 @@ public class SnowflakeId {
     /**
      * 实例
      */
-    private final static SnowflakeId INSTANCE = new SnowflakeId(1L);
+    private static volatile SnowflakeId instance = new SnowflakeId(getConfiguredWorkerId());
+
+    /**
+     * 从系统属性 snowflake.workerId 或者环境变量 SNOWFLAKE_WORKER_ID 获取机器 id，都没有的话为 1
+     *
+     * @return 机器 id
+     */
+    static long getConfiguredWorkerId() {
+        String value = System.getProperty("snowflake.workerId");
+
+        if (!StringUtils.hasText(value))
+            value = System.getenv("SNOWFLAKE_WORKER_ID");
+
+        return StringUtils.hasText(value) ? Long.parseLong(value.trim()) : 1L;
+    }
+
+    /**
+     * 设置默认的实例，例如换成从数据库租用的机器 id
+     *
+     * @param snowflakeId 实例
+     */
+    public static void setInstance(SnowflakeId snowflakeId) {
+        instance = snowflakeId;
+    }
+
+    public static SnowflakeId getInstance() {
+        return instance;
+    }
 
     /**
      * 生成 id
      *
      * @return 雪花 id
      */
-    public static synchronized long get() {
-        return INSTANCE.nextId();
+    public static long get() {
+        return instance.nextId();
     }
 }
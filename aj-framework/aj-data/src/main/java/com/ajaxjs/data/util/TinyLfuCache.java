@@ -0,0 +1,362 @@
+package com.ajaxjs.data.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * W-TinyLFU 缓存，线程安全，有容量上限和可选的过期时间
+ * <p>
+ * 与 {@link LruCache} 的区别在于淘汰的时候考虑访问频率：新的项先进入很小的窗口（1%），被挤出窗口之后，
+ * 与主区（SLRU：试用区 20%、保护区 80%）里最该淘汰的一项比较最近的访问频率，频率高的才留下。
+ * 这样一次性的扫描（例如爬虫遍历所有详情页）不会把热点数据挤出去。访问频率用 Count-Min Sketch 估算，
+ * 每个键只占 4 个 4 位的计数器，累计一定次数之后全部减半，以适应热点的变化
+ *
+ * @param <K> 键的类型
+ * @param <V> 值的类型
+ */
+public class TinyLfuCache<K, V> {
+    /**
+     * 缓存项
+     */
+    private static class Entry<V> {
+        final V value;
+
+        final long createTime;
+
+        Entry(V value) {
+            this.value = value;
+            this.createTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 最多保存多少项
+     */
+    private final int maxSize;
+
+    /**
+     * 过期时间（毫秒），0 表示不过期
+     */
+    private final long ttl;
+
+    private final int windowMax;
+
+    private final int protectedMax;
+
+    /**
+     * 三个区，accessOrder = true，最近访问的排在最后
+     */
+    private final LinkedHashMap<K, Entry<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<K, Entry<V>> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Count-Min Sketch，每个字节一个计数器，最大 15
+     */
+    private final byte[] sketch;
+
+    private final int sketchMask;
+
+    /**
+     * 累计多少次之后计数器减半
+     */
+    private final int sampleSize;
+
+    private int additions;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * 创建缓存，不过期
+     *
+     * @param maxSize 最多保存多少项
+     */
+    public TinyLfuCache(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * 创建缓存
+     *
+     * @param maxSize 最多保存多少项
+     * @param ttl     过期时间（毫秒），0 表示不过期
+     */
+    public TinyLfuCache(int maxSize, long ttl) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize 必须大于 0");
+
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        windowMax = Math.max(1, maxSize / 100);
+        protectedMax = (int) ((maxSize - windowMax) * 0.8);
+
+        int width = Integer.highestOneBit(Math.max(16, maxSize) * 4 - 1) << 1; // 不小于容量的 4 倍的 2 的幂
+        sketch = new byte[width];
+        sketchMask = width - 1;
+        sampleSize = Math.max(160, maxSize * 10);
+    }
+
+    /**
+     * 获取缓存的值
+     *
+     * @param key 键
+     * @return 值，没有或已过期返回 null
+     */
+    public V get(K key) {
+        V value;
+
+        synchronized (this) {
+            increment(key);
+            value = getValue(key);
+        }
+
+        (value == null ? missCount : hitCount).incrementAndGet();
+
+        return value;
+    }
+
+    /**
+     * 获取缓存的值，没有的话用 loader 加载并保存。loader 返回 null 的话不保存
+     *
+     * @param key    键
+     * @param loader 加载函数，在锁外调用
+     * @return 值
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+
+        if (value == null) {
+            value = loader.apply(key);
+
+            if (value != null)
+                put(key, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * 保存值
+     *
+     * @param key   键
+     * @param value 值
+     */
+    public synchronized void put(K key, V value) {
+        Entry<V> entry = new Entry<>(value);
+
+        if (window.containsKey(key)) {
+            window.put(key, entry);
+            return;
+        }
+
+        if (probation.containsKey(key)) {
+            probation.put(key, entry);
+            return;
+        }
+
+        if (protectedArea.containsKey(key)) {
+            protectedArea.put(key, entry);
+            return;
+        }
+
+        window.put(key, entry);
+
+        if (window.size() > windowMax)
+            admit();
+    }
+
+    /**
+     * 窗口满了，最早的一项与试用区最早的一项比较访问频率，低的淘汰
+     */
+    private void admit() {
+        Map.Entry<K, Entry<V>> candidate = removeEldest(window);
+
+        if (probation.size() + protectedArea.size() < maxSize - windowMax) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+
+        LinkedHashMap<K, Entry<V>> victimArea = probation.isEmpty() ? protectedArea : probation;
+        K victim = victimArea.isEmpty() ? null : victimArea.keySet().iterator().next(); // 容量太小的话没有主区
+
+        if (victim != null && frequency(candidate.getKey()) > frequency(victim)) {
+            victimArea.remove(victim);
+            probation.put(candidate.getKey(), candidate.getValue());
+        }
+
+        evictionCount.incrementAndGet();
+    }
+
+    private Entry<V> find(K key) {
+        Entry<V> entry = window.get(key);
+
+        if (entry != null)
+            return entry;
+
+        entry = protectedArea.get(key);
+
+        if (entry != null)
+            return entry;
+
+        entry = probation.remove(key);
+
+        if (entry != null) { // 试用区的再次被访问，晋升到保护区，保护区满了的话最早的一项降回试用区
+            protectedArea.put(key, entry);
+
+            if (protectedArea.size() > protectedMax) {
+                Map.Entry<K, Entry<V>> demoted = removeEldest(protectedArea);
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        }
+
+        return entry;
+    }
+
+    private V getValue(K key) {
+        Entry<V> entry = find(key);
+
+        if (entry == null)
+            return null;
+
+        if (ttl > 0 && System.currentTimeMillis() - entry.createTime > ttl) {
+            remove(key);
+            evictionCount.incrementAndGet();
+
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    private static <K, V> Map.Entry<K, V> removeEldest(LinkedHashMap<K, V> map) {
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        Map.Entry<K, V> eldest = it.next();
+        it.remove();
+
+        return eldest;
+    }
+
+    /**
+     * 移除缓存项
+     *
+     * @param key 键
+     * @return 移除的值，没有的话返回 null
+     */
+    public synchronized V remove(K key) {
+        Entry<V> entry = window.remove(key);
+
+        if (entry == null)
+            entry = probation.remove(key);
+
+        if (entry == null)
+            entry = protectedArea.remove(key);
+
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * 清空缓存，访问频率也一并清空
+     */
+    public synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedArea.clear();
+        Arrays.fill(sketch, (byte) 0);
+        additions = 0;
+    }
+
+    public synchronized int size() {
+        return window.size() + probation.size() + protectedArea.size();
+    }
+
+    /**
+     * 记录一次访问，4 个计数器各加一
+     */
+    private void increment(K key) {
+        int hash = spread(key);
+        boolean added = false;
+
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+
+            if (sketch[index] < 15) {
+                sketch[index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) { // 老化，全部减半
+            for (int i = 0; i < sketch.length; i++)
+                sketch[i] >>= 1;
+
+            additions /= 2;
+        }
+    }
+
+    /**
+     * 估算访问频率，取 4 个计数器的最小值
+     */
+    private int frequency(K key) {
+        int hash = spread(key), min = 15;
+
+        for (int i = 0; i < 4; i++)
+            min = Math.min(min, sketch[indexOf(hash, i)]);
+
+        return min;
+    }
+
+    private static int spread(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+
+        return h ^ h >>> 16;
+    }
+
+    private int indexOf(int hash, int i) {
+        int h = (hash + i) * (0x85EBCA6B + (i << 1)); // 每一行用不同的散列
+        h ^= h >>> 13;
+
+        return h & sketchMask;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 命中率
+     *
+     * @return 0~1，没有访问过返回 0
+     */
+    public double getHitRate() {
+        long hit = hitCount.get(), total = hit + missCount.get();
+
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TinyLfuCache{size=%d, maxSize=%d, hit=%d, miss=%d, eviction=%d}", size(), maxSize, getHitCount(), getMissCount(), getEvictionCount());
+    }
+}
@@ -0,0 +1,233 @@
+package com.ajaxjs.data.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从数据库租用雪花 id 的机器 id，保证多个节点的机器 id 各不相同。
+ * 租约到期前会自动续租，节点下线后租约过期，机器 id 可以被其他节点使用。须先建表：
+ * <pre>
+ * CREATE TABLE snowflake_worker (worker_id INT PRIMARY KEY, node VARCHAR(100), expire_at BIGINT)
+ * </pre>
+ * 使用方式：
+ * <pre>
+ * WorkerIdLease lease = new WorkerIdLease(dataSource);
+ * SnowflakeId.setInstance(lease.createSnowflakeId());
+ * </pre>
+ * 续租成功的话延长生成器的租约；续租失败（例如长时间 GC 停顿、数据库不可用）的话，生成器的租约到期之后不再生成 id；
+ * 发现机器 id 已被其他节点占用的话，马上收回生成器
+ */
+@Slf4j
+public class WorkerIdLease implements AutoCloseable {
+    public static final String CREATE_TABLE = "CREATE TABLE snowflake_worker (worker_id INT PRIMARY KEY, node VARCHAR(100), expire_at BIGINT)";
+
+    private final DataSource dataSource;
+
+    /**
+     * 节点的标识
+     */
+    private final String node;
+
+    /**
+     * 租约的时长（毫秒）
+     */
+    private final long ttl;
+
+    private long workerId = -1;
+
+    private ScheduledExecutorService renewer;
+
+    /**
+     * 租约的到期时间（毫秒）
+     */
+    private volatile long expireAt;
+
+    /**
+     * 使用这个机器 id 的生成器，续租的时候更新它的租约
+     */
+    private volatile SnowflakeId generator;
+
+    /**
+     * 创建租约，节点标识为 pid@主机名，租约时长一分钟
+     *
+     * @param dataSource 数据源
+     */
+    public WorkerIdLease(DataSource dataSource) {
+        this(dataSource, ManagementFactory.getRuntimeMXBean().getName(), 60 * 1000);
+    }
+
+    /**
+     * 创建租约
+     *
+     * @param dataSource 数据源
+     * @param node       节点的标识，同一个节点重启后可以拿回原来的机器 id
+     * @param ttl        租约的时长（毫秒），每三分之一的时长续租一次
+     */
+    public WorkerIdLease(DataSource dataSource, String node, long ttl) {
+        this.dataSource = dataSource;
+        this.node = node;
+        this.ttl = ttl;
+    }
+
+    /**
+     * 租用一个机器 id，并开始定时续租
+     *
+     * @return 机器 id
+     * @throws IllegalStateException 所有的机器 id 都被占用了
+     */
+    public synchronized long acquire() {
+        if (workerId != -1)
+            return workerId;
+
+        try (Connection conn = dataSource.getConnection()) {
+            for (int id = 0; id <= SnowflakeId.MAX_WORKER_ID; id++) {
+                long now = System.currentTimeMillis();
+
+                if (tryLease(conn, id, now)) {
+                    expireAt = now + ttl;
+                    workerId = id;
+                    startRenew();
+                    log.info("节点 {} 租用雪花 id 的机器 id：{}", node, id);
+
+                    return id;
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("ERR:", e);
+            throw new RuntimeException(e.getMessage());
+        }
+
+        throw new IllegalStateException("没有空闲的雪花 id 机器 id，最多 " + (SnowflakeId.MAX_WORKER_ID + 1) + " 个节点");
+    }
+
+    /**
+     * 过期的或者本节点原来的，可以租用；没有记录的话插入一条，主键冲突说明被其他节点抢先了
+     */
+    private boolean tryLease(Connection conn, int id, long now) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("UPDATE snowflake_worker SET node = ?, expire_at = ? WHERE worker_id = ? AND (expire_at < ? OR node = ?)")) {
+            ps.setString(1, node);
+            ps.setLong(2, now + ttl);
+            ps.setInt(3, id);
+            ps.setLong(4, now);
+            ps.setString(5, node);
+
+            if (ps.executeUpdate() > 0)
+                return true;
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO snowflake_worker (worker_id, node, expire_at) VALUES (?, ?, ?)")) {
+            ps.setInt(1, id);
+            ps.setString(2, node);
+            ps.setLong(3, now + ttl);
+
+            return ps.executeUpdate() > 0;
+        } catch (SQLException e) { // 已经有记录
+            return false;
+        }
+    }
+
+    /**
+     * 租用机器 id，创建使用它的雪花 id 生成器。生成器的租约随着续租延长
+     *
+     * @return 雪花 id 生成器
+     */
+    public synchronized SnowflakeId createSnowflakeId() {
+        SnowflakeId snowflakeId = new SnowflakeId(acquire());
+        snowflakeId.setLeaseExpireAt(expireAt);
+        generator = snowflakeId;
+
+        return snowflakeId;
+    }
+
+    private void startRenew() {
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snowflake-lease");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        renewer.scheduleAtFixedRate(this::renew, ttl / 3, ttl / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 续租
+     *
+     * @return 是否成功，失败的话说明租约已经过期并被其他节点占用，不能再用这个机器 id 生成 id
+     */
+    public boolean renew() {
+        long now = System.currentTimeMillis(); // 以开始续租的时间算，宁可早一点到期
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("UPDATE snowflake_worker SET expire_at = ? WHERE worker_id = ? AND node = ?")) {
+            ps.setLong(1, now + ttl);
+            ps.setLong(2, workerId);
+            ps.setString(3, node);
+
+            if (ps.executeUpdate() > 0) { // 仍是本节点的，说明没有其他节点用过，即使过期了也可以续
+                expireAt = now + ttl;
+                SnowflakeId snowflakeId = generator;
+
+                if (snowflakeId != null)
+                    snowflakeId.setLeaseExpireAt(expireAt);
+
+                return true;
+            }
+
+            log.error("节点 {} 的雪花 id 机器 id {} 的已被其他节点占用，停止生成 id", node, workerId);
+            revoke();
+        } catch (SQLException e) {
+            log.warn("续租雪花 id 的机器 id 失败，租约到期之后停止生成 id", e);
+        }
+
+        return false;
+    }
+
+    private void revoke() {
+        SnowflakeId snowflakeId = generator;
+
+        if (snowflakeId != null)
+            snowflakeId.revoke();
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getExpireAt() {
+        return expireAt;
+    }
+
+    /**
+     * 停止续租并释放机器 id
+     */
+    @Override
+    public synchronized void close() {
+        if (renewer != null)
+            renewer.shutdownNow();
+
+        revoke(); // 释放之后其他节点可以马上租用
+
+        if (workerId == -1)
+            return;
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("UPDATE snowflake_worker SET expire_at = 0 WHERE worker_id = ? AND node = ?")) {
+            ps.setLong(1, workerId);
+            ps.setString(2, node);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            log.warn("ERR:", e);
+        }
+
+        workerId = -1;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ajaxjs.data;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比每次扫描 if 标签、解析表达式、正则替换的方式，与预先编译模板的方式，生成 SQL 的耗时。
+ * 在 IDE 里直接运行 main() 即可
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmallMyBatisBenchmark {
+    static final String SQL = "SELECT * FROM shop_order WHERE stat = #{stat} " +
+            "<if test=\"name != null\">AND name LIKE #{name} </if>" +
+            "<if test=\"minPrice != null\">AND price &gt;= #{minPrice} </if>" +
+            "<if test=\"maxPrice != null\">AND price &lt;= #{maxPrice} </if>" +
+            "<if test=\"userId != null\">AND user_id = #{userId} </if>" +
+            "ORDER BY ${orderBy} DESC";
+
+    Map<String, Object> params;
+
+    SqlTemplate template;
+
+    @Setup
+    public void setup() {
+        params = new HashMap<>();
+        params.put("stat", 1);
+        params.put("name", "%phone%");
+        params.put("minPrice", 100);
+        params.put("orderBy", "create_date");
+
+        template = SmallMyBatis.getTemplate(SQL);
+    }
+
+    @Benchmark
+    public String legacy() {
+        return TestSqlTemplate.legacy(SQL, params);
+    }
+
+    @Benchmark
+    public String compiled() {
+        return SmallMyBatis.handleSql(SQL, params);
+    }
+
+    @Benchmark
+    public String compiledTemplate() {
+        return template.render(params);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(SmallMyBatisBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,167 @@
+package com.ajaxjs.data;
+
+import com.ajaxjs.data.crud.CRUD_Service;
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
+import com.ajaxjs.data.jdbc_helper.JdbcReader;
+import com.ajaxjs.data.jdbc_helper.ReadReplicas;
+import com.ajaxjs.data.jdbc_helper.common.ResultSetProcessor;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TestAsyncDataAccessObject {
+    static DataSource ds;
+
+    static CRUD_Service crud;
+
+    @BeforeClass
+    public static void init() {
+        ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:async_dao;create=true", "", "");
+        crud = CRUD_Service.factory(ds);
+        crud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+
+        crud.getWriter().write("CREATE TABLE shop (id INT PRIMARY KEY, name VARCHAR(50))");
+        crud.getWriter().write("INSERT INTO shop (id, name) VALUES (1, 'foo'), (2, 'bar')");
+    }
+
+    @AfterClass
+    public static void destroy() {
+        ds.close();
+    }
+
+    @Test
+    public void test() throws Exception {
+        AsyncDataAccessObject async = new AsyncDataAccessObject(crud);
+
+        CompletableFuture<Integer> count = async.queryOne(Integer.class, "SELECT COUNT(*) FROM shop");
+        CompletableFuture<Map<String, Object>> info = async.infoMap("SELECT * FROM shop WHERE id = ?", 1);
+        CompletableFuture<List<Map<String, Object>>> list = async.listMap("SELECT * FROM shop");
+        CompletableFuture.allOf(count, info, list).join();
+
+        assertEquals(2, count.get().intValue());
+        assertEquals("foo", info.get().get("NAME"));
+        assertEquals(2, list.get().size());
+
+        // 两个调用同时执行：第一个等第二个执行了才返回
+        CountDownLatch latch = new CountDownLatch(1);
+        CompletableFuture<Boolean> first = async.supply(dao -> {
+            try {
+                return latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        async.supply(dao -> {
+            latch.countDown();
+            return null;
+        });
+        assertTrue(first.get());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        AsyncDataAccessObject async = new AsyncDataAccessObject(crud);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Throwable> afterTimeout = new AtomicReference<>();
+
+        CompletableFuture<Integer> future = async.supply(dao -> {
+            try {
+                Thread.sleep(300);
+                return dao.queryOne(Integer.class, "SELECT COUNT(*) FROM shop");
+            } catch (Throwable e) {
+                afterTimeout.set(e);
+                throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+            } finally {
+                done.countDown();
+            }
+        }, 100);
+
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof TimeoutException);
+
+        done.await(5, TimeUnit.SECONDS);
+        assertTrue(afterTimeout.get() instanceof DataAccessException); // 超时之后的语句不再执行
+
+        CompletableFuture<Integer> cancelled = async.supply(dao -> dao.queryOne(Integer.class, "SELECT COUNT(*) FROM shop"));
+        cancelled.cancel(true);
+        assertTrue(cancelled.isCancelled());
+    }
+
+    @Test
+    public void testReplicas() throws Exception {
+        DataSource replica = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:async_dao_replica;create=true", "", "");
+
+        try {
+            CRUD_Service replicaCrud = CRUD_Service.factory(replica);
+            replicaCrud.getWriter().write("CREATE TABLE shop (id INT PRIMARY KEY, name VARCHAR(50))");
+            replicaCrud.getWriter().write("INSERT INTO shop (id, name) VALUES (1, 'replica')");
+
+            CRUD_Service rwCrud = CRUD_Service.factory(ds);
+            rwCrud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+            rwCrud.setReplicas(new ReadReplicas(rwCrud.getReader(), Collections.singletonList(replica)));
+            AsyncDataAccessObject async = new AsyncDataAccessObject(rwCrud);
+
+            assertEquals("replica", async.queryOne(String.class, "SELECT name FROM shop WHERE id = 1").get());
+
+            // 在从库执行的语句同样受超时控制
+            AtomicReference<Throwable> afterTimeout = new AtomicReference<>();
+            CountDownLatch done = new CountDownLatch(1);
+
+            CompletableFuture<String> future = async.supply(dao -> {
+                try {
+                    Thread.sleep(300);
+                    return dao.queryOne(String.class, "SELECT name FROM shop WHERE id = 1");
+                } catch (Throwable e) {
+                    afterTimeout.set(e);
+                    return null;
+                } finally {
+                    done.countDown();
+                }
+            }, 100);
+
+            assertThrows(ExecutionException.class, future::get);
+            done.await(5, TimeUnit.SECONDS);
+            assertTrue(afterTimeout.get() instanceof DataAccessException);
+        } finally {
+            replica.close();
+        }
+    }
+
+    @Test
+    public void testCachedStatementTimeout() throws Exception {
+        DataSource pool = new DataSource();
+        pool.setDriverClassName("org.apache.derby.jdbc.EmbeddedDriver");
+        pool.setUrl("jdbc:derby:memory:async_dao;create=true");
+        pool.setMaxActive(1); // 每次借出的都是同一个物理连接，共用缓存的语句
+
+        try {
+            CRUD_Service cached = CRUD_Service.factory(pool);
+            cached.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+            cached.getReader().setStatementCacheSize(10);
+            String sql = "SELECT name FROM shop WHERE id = ?";
+            JdbcReader reader = cached.getReader();
+
+            ResultSetProcessor<Object[]> statement = rs -> new Object[]{rs.getStatement(), rs.getStatement().getQueryTimeout()};
+
+            Object[] timed = new AsyncDataAccessObject(cached).supply(dao -> reader.executeQuery(statement, sql, 1), 5000).get();
+            assertTrue((int) timed[1] > 0);
+
+            // 之后不限时的查询复用同一个语句，不再带有之前的超时
+            Object[] unbounded = reader.executeQuery(statement, sql, 1);
+            assertSame(timed[0], unbounded[0]);
+            assertEquals(0, unbounded[1]);
+        } finally {
+            pool.close();
+        }
+    }
+}
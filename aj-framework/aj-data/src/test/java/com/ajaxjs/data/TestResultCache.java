@@ -0,0 +1,87 @@
+package com.ajaxjs.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestResultCache {
+    @Test
+    public void testSingleFlight() throws Exception {
+        ResultCache cache = ResultCache.of("test-single-flight", 100, 60 * 1000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<String>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+
+                return cache.get("k", () -> {
+                    loads.incrementAndGet();
+                    sleep(200);
+
+                    return "v";
+                });
+            }));
+        }
+
+        start.countDown();
+
+        for (Future<String> future : futures)
+            assertEquals("v", future.get());
+
+        pool.shutdown();
+        assertEquals(1, loads.get()); // 同时只查询一次
+    }
+
+    @Test
+    public void testStale() throws Exception {
+        ResultCache cache = ResultCache.of("test-stale", 100, 100);
+        cache.get("k", () -> "old");
+        Thread.sleep(150); // 过期了
+
+        CountDownLatch loading = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<String> refresh = pool.submit(() -> cache.get("k", () -> {
+            loading.countDown();
+            sleep(200);
+
+            return "new";
+        }));
+
+        loading.await();
+        assertEquals("old", cache.get("k", () -> "should not load")); // 有请求在重新查询，先返回旧的
+        assertEquals("new", refresh.get());
+        assertEquals("new", cache.get("k", () -> "should not load"));
+        pool.shutdown();
+    }
+
+    @Test
+    public void testKey() {
+        Map<String, String[]> a = new LinkedHashMap<>(), b = new HashMap<>();
+        a.put("q_name", new String[]{"foo"});
+        a.put("pageNo", new String[]{"2"});
+        b.put("pageNo", new String[]{"2"});
+        b.put("q_name", new String[]{"foo"});
+
+        assertEquals(ResultCache.key("list", a), ResultCache.key("list", b));
+        assertNotEquals(ResultCache.key("list;tenant=1", a), ResultCache.key("list;tenant=2", a));
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
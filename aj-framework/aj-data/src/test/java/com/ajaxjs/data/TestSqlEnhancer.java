@@ -1,10 +1,105 @@
 package com.ajaxjs.data;
 
+import com.ajaxjs.data.crud.CRUD_Service;
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
+import org.apache.tomcat.jdbc.pool.DataSource;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
 public class TestSqlEnhancer {
     @Test
     public void testPage() {
         new PageEnhancer().initSql("SELECT first_name, last_name FROM employees WHERE department_id = 5 ORDER BY hire_date DESC", 0, 10);
     }
+
+    @Test
+    public void testParse() {
+        PageEnhancer.PageSql pageSql = PageEnhancer.parse("SELECT first_name, last_name FROM employees WHERE department_id = ? ORDER BY hire_date DESC", DatabaseVendor.MYSQL);
+        System.out.println(pageSql.countSql);
+        assertEquals("SELECT COUNT(*) FROM employees WHERE department_id = ?", pageSql.countSql);
+        assertEquals("SELECT first_name, last_name FROM employees WHERE department_id = ? ORDER BY hire_date DESC LIMIT ?, ?", pageSql.pageSql);
+
+        pageSql = PageEnhancer.parse("SELECT department_id FROM employees GROUP BY department_id", DatabaseVendor.DERBY);
+        assertEquals("SELECT COUNT(*) FROM (SELECT department_id FROM employees GROUP BY department_id) t", pageSql.countSql);
+        assertEquals("SELECT department_id FROM employees GROUP BY department_id OFFSET ? ROWS FETCH NEXT ? ROWS ONLY", pageSql.pageSql);
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("SELECT * FROM t WHERE a = '  x'", PageEnhancer.normalize("  SELECT *\n FROM  t\tWHERE a = '  x'  "));
+    }
+
+    @Test
+    public void testKeysetSql() {
+        String[] keys = {"create_date", "id"};
+        String sql = PageEnhancer.keysetSql("SELECT * FROM article WHERE stat = ? OR stat = 2 ORDER BY id", DatabaseVendor.MYSQL, keys, true, false);
+        assertEquals("SELECT * FROM article WHERE stat = ? OR stat = 2 ORDER BY create_date DESC, id DESC LIMIT ?", sql);
+
+        sql = PageEnhancer.keysetSql("SELECT * FROM article WHERE stat = ? OR stat = 2", DatabaseVendor.MYSQL, keys, true, true);
+        assertEquals("SELECT * FROM article WHERE (stat = ? OR stat = 2) AND ((create_date < ?) OR (create_date = ? AND id < ?)) ORDER BY create_date DESC, id DESC LIMIT ?", sql);
+
+        sql = PageEnhancer.keysetSql("SELECT a.id, COUNT(*) c FROM article a GROUP BY a.id", DatabaseVendor.DERBY, new String[]{"a.id"}, false, true);
+        assertEquals("SELECT * FROM (SELECT a.id, COUNT(*) c FROM article a GROUP BY a.id) t WHERE ((id > ?)) ORDER BY id FETCH FIRST ? ROWS ONLY", sql);
+    }
+
+    @Test
+    public void testCapSql() {
+        // 没有 LIMIT 的直接加上，保留原来的排序
+        assertEquals("SELECT * FROM article WHERE stat = ? ORDER BY id DESC LIMIT ?", PageEnhancer.capSql("SELECT * FROM article WHERE stat = ? ORDER BY id DESC", DatabaseVendor.MARIADB));
+
+        // 已经有 LIMIT 的用子查询，外层再排序
+        assertEquals("SELECT * FROM (SELECT id, name AS n FROM article ORDER BY n DESC, id LIMIT 10) t ORDER BY t.n DESC, t.id LIMIT ?",
+                PageEnhancer.capSql("SELECT id, name AS n FROM article ORDER BY n DESC, id LIMIT 10", DatabaseVendor.MARIADB));
+        assertEquals("SELECT * FROM (SELECT name FROM article ORDER BY id LIMIT 10) t FETCH FIRST ? ROWS ONLY",
+                PageEnhancer.capSql("SELECT name FROM article ORDER BY id LIMIT 10", DatabaseVendor.DERBY)); // 排序的字段不在结果里
+    }
+
+    @Test
+    public void testCursor() {
+        Object[] values = {1L, "abc", null, new java.math.BigDecimal("1.50"), new java.sql.Timestamp(1000L)};
+        String cursor = PageOptions.encodeCursor(values);
+        System.out.println(cursor);
+        assertArrayEquals(values, PageOptions.decodeCursor(cursor));
+    }
+
+    @Test
+    public void testKeysetMap() {
+        DataSource ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:keyset_map;create=true", "", "");
+
+        try {
+            CRUD_Service crud = CRUD_Service.factory(ds);
+            crud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+            crud.getWriter().write("CREATE TABLE article (\"id\" INT PRIMARY KEY, \"sort_no\" INT)");
+
+            for (int i = 1; i <= 5; i++)
+                crud.getWriter().write("INSERT INTO article (\"id\", \"sort_no\") VALUES (?, ?)", i, 10 - i);
+
+            // Map 的键是驼峰的 sortNo，排序字段是 sort_no
+            PageOptions options = new PageOptions().setKeys(new String[]{"\"sort_no\"", "\"id\""}).setLimit(2).setCountMode(PageOptions.CountMode.SKIP);
+            assertArrayEquals(new Object[]{9, 1}, PageEnhancer.getKeyValues(crud.infoMap("SELECT * FROM article WHERE \"id\" = 1"), new String[]{"sort_no", "id"}));
+
+            List<Object> ids = new ArrayList<>();
+            PageResult<Map<String, Object>> page;
+
+            do {
+                page = crud.page(null, "SELECT * FROM article", null, options);
+
+                for (Map<String, Object> row : page)
+                    ids.add(row.get("id"));
+
+                options.setCursor(page.getNextCursor());
+            } while (page.isHasMore());
+
+            System.out.println(ids);
+            assertEquals(java.util.Arrays.asList(5, 4, 3, 2, 1), ids);
+        } finally {
+            ds.close();
+        }
+    }
 }
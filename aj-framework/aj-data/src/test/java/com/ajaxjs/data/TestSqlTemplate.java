@@ -0,0 +1,142 @@
+package com.ajaxjs.data;
+
+import com.ajaxjs.data.jdbc_helper.JdbcWriter;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestSqlTemplate {
+    static final String SQL = "SELECT * FROM user WHERE name LIKE #{name} AND stat = #{stat} " +
+            "<if test=\"age eq 20\">AND age = ${age}</if><if test=\"age ne 20\">AND age &lt;&gt; #{age}</if> " +
+            "<if test=\"deleted\">AND deleted = #{deleted}</if> ORDER BY ${orderBy}";
+
+    static String legacy(String sql, Map<String, Object> params) {
+        sql = SmallMyBatis.generateIfBlock(sql, params);
+        sql = SmallMyBatis.getValuedSQL(sql, params);
+
+        return sql.replaceAll("&lt;", "<").replaceAll("&gt;", ">");
+    }
+
+    @Test
+    public void testSameAsLegacy() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "%Tom%");
+        params.put("age", 20);
+        params.put("deleted", false);
+        params.put("orderBy", "id DESC");
+
+        SqlTemplate template = SqlTemplate.compile(SQL);
+        System.out.println(template.render(params));
+        assertEquals(legacy(SQL, params), template.render(params));
+
+        params.put("age", "240");
+        params.put("deleted", true);
+        assertEquals(legacy(SQL, params), template.render(params));
+        assertEquals("SELECT * FROM user WHERE name LIKE '%Tom%' AND stat =  AND age <> '240' AND deleted = 1 ORDER BY id DESC", template.render(params));
+    }
+
+    @Test
+    public void testNested() {
+        SqlTemplate template = SqlTemplate.compile("SELECT * FROM t WHERE 1=1<if test=\"a != null\"> AND a = #{a}<if test=\"b != null\"> AND b = #{b}</if></if>");
+        Map<String, Object> params = new HashMap<>();
+        assertEquals("SELECT * FROM t WHERE 1=1", template.render(params));
+
+        params.put("a", 1);
+        assertEquals("SELECT * FROM t WHERE 1=1 AND a = 1", template.render(params));
+
+        params.put("b", "x");
+        assertEquals("SELECT * FROM t WHERE 1=1 AND a = 1 AND b = 'x'", template.render(params));
+    }
+
+    @Test
+    public void testCache() {
+        String sql = "SELECT * FROM t WHERE id = #{id}";
+        assertEquals(SmallMyBatis.getTemplate(sql), SmallMyBatis.getTemplate(sql));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("id", 1);
+        assertEquals("SELECT * FROM t WHERE id = 1", SmallMyBatis.handleSql(sql, params));
+    }
+
+    @Test
+    public void testBind() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "%Tom%");
+        params.put("age", 240);
+        params.put("deleted", true);
+        params.put("orderBy", "id DESC");
+
+        JdbcWriter.SqlParams sp = SqlTemplate.compile(SQL).bind(params);
+        assertEquals("SELECT * FROM user WHERE name LIKE ? AND stat = ? AND age <> ? AND deleted = ? ORDER BY id DESC", sp.sql);
+        assertArrayEquals(new Object[]{"%Tom%", null, 240, true}, sp.values);
+
+        params.put("name", "%Jerry%"); // 值不同，SQL 不变
+        assertEquals(sp.sql, SqlTemplate.compile(SQL).bind(params).sql);
+
+        // 原有的 ? 按顺序与 #{} 合并，引号里的 ? 不算
+        sp = SqlTemplate.compile("SELECT * FROM t WHERE a = ? AND b = #{name} AND c = '?' AND d = ?").bind(params, 1, 2, 3);
+        assertEquals("SELECT * FROM t WHERE a = ? AND b = ? AND c = '?' AND d = ?", sp.sql);
+        assertArrayEquals(new Object[]{1, "%Jerry%", 2, 3}, sp.values);
+    }
+
+    @Test
+    public void testForEach() {
+        SqlTemplate template = SqlTemplate.compile("SELECT * FROM t WHERE stat = #{stat} AND id IN <forEach collection=\"ids\" item=\"id\" open=\"(\" separator=\", \" close=\")\">#{id}</forEach>");
+        Map<String, Object> params = new HashMap<>();
+        params.put("stat", 1);
+        params.put("ids", Arrays.asList(3, 5, 7));
+        assertEquals("SELECT * FROM t WHERE stat = 1 AND id IN (3, 5, 7)", template.render(params));
+
+        JdbcWriter.SqlParams sp = template.bind(params);
+        assertEquals("SELECT * FROM t WHERE stat = ? AND id IN (?, ?, ?)", sp.sql);
+        assertArrayEquals(new Object[]{1, 3, 5, 7}, sp.values);
+
+        params.put("ids", new long[]{1L, 2L});
+        assertEquals("SELECT * FROM t WHERE stat = ? AND id IN (?, ?)", template.bind(params).sql);
+
+        params.put("ids", Collections.emptyList());
+        assertEquals("SELECT * FROM t WHERE stat = ? AND id IN ", template.bind(params).sql);
+    }
+
+    @Test
+    public void testForEachInsert() {
+        SqlTemplate template = SqlTemplate.compile("INSERT INTO t (name, age) VALUES <foreach collection=\"list\" separator=\",\">(#{item.name}, #{item.age})</foreach>");
+
+        List<Map<String, Object>> list = new ArrayList<>();
+
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", "n" + i);
+            row.put("age", 20 + i);
+            list.add(row);
+        }
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("list", list);
+
+        JdbcWriter.SqlParams sp = template.bind(params);
+        assertEquals("INSERT INTO t (name, age) VALUES (?, ?),(?, ?)", sp.sql);
+        assertArrayEquals(new Object[]{"n0", 20, "n1", 21}, sp.values);
+    }
+
+    @Test
+    public void testChunks() {
+        SqlTemplate template = SqlTemplate.compile("SELECT * FROM t WHERE stat = ? AND id IN <forEach collection=\"ids\" open=\"(\" separator=\",\" close=\")\" chunkSize=\"2\">#{item}</forEach>");
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", Arrays.asList(1, 2, 3, 4, 5));
+
+        List<JdbcWriter.SqlParams> chunks = template.bindChunks(params, 9);
+        assertEquals(3, chunks.size());
+        assertEquals("SELECT * FROM t WHERE stat = ? AND id IN (?,?)", chunks.get(0).sql);
+        assertArrayEquals(new Object[]{9, 1, 2}, chunks.get(0).values);
+        assertArrayEquals(new Object[]{9, 3, 4}, chunks.get(1).values);
+        assertEquals("SELECT * FROM t WHERE stat = ? AND id IN (?)", chunks.get(2).sql);
+        assertArrayEquals(new Object[]{9, 5}, chunks.get(2).values);
+
+        params.put("ids", Arrays.asList(1, 2));
+        assertEquals(1, template.bindChunks(params, 9).size());
+    }
+}
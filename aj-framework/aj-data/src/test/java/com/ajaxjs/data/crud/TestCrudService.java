@@ -1,21 +1,32 @@
 package com.ajaxjs.data.crud;
 
 import com.ajaxjs.data.BaseTest;
+import com.ajaxjs.data.CountCache;
+import com.ajaxjs.data.PageOptions;
+import com.ajaxjs.data.PageResult;
+import com.ajaxjs.data.SmallMyBatis;
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
+import com.ajaxjs.data.jdbc_helper.JdbcWriter;
+import com.ajaxjs.data.jdbc_helper.UnitOfWork;
 import com.ajaxjs.data.crud.CRUD_Service;
 import lombok.Data;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.util.Date;
-import java.util.Map;
+import javax.sql.DataSource;
+import java.util.*;
 
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.*;
 import static org.junit.Assert.assertTrue;
 
 public class TestCrudService extends BaseTest {
     @Autowired
     CRUD_Service crud;
 
+    @Autowired
+    DataSource dataSource;
+
     @Test
     public void testQueryOne() {
         int total = crud.queryOne(int.class, "SELECT count(*) FROM Employees");
@@ -53,4 +64,146 @@ public class TestCrudService extends BaseTest {
 
         assertNotNull(employee);
     }
+
+    @Test
+    public void testPageBind() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("dept", "Finance");
+
+        PageResult<Map<String, Object>> page = crud.page(null, "SELECT * FROM Employees WHERE 1=1<if test=\"dept != null\"> AND department = #{dept}</if> AND id > ?", params, 0);
+        System.out.println(page);
+        assertEquals(1, page.getTotalCount());
+    }
+
+    @Test
+    public void testPageNullParams() {
+        // 没有参数的话同样作模板处理
+        PageResult<Map<String, Object>> page = crud.page(null, "SELECT * FROM Employees WHERE 1=1<if test=\"dept != null\"> AND department = #{dept}</if>", null);
+        assertEquals(4, page.getTotalCount());
+
+        page = crud.pageRaw(null, "SELECT * FROM Employees WHERE id > ?", new PageOptions().setLimit(2), 1);
+        assertEquals(3, page.getTotalCount());
+        assertEquals(2, page.size());
+    }
+
+    @Test
+    public void testForEachChunks() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", Arrays.asList(1, 2, 3, 4, 5));
+
+        String sql = "SELECT * FROM Employees WHERE id IN <forEach collection=\"ids\" open=\"(\" separator=\",\" close=\")\" chunkSize=\"2\">#{item}</forEach>";
+        List<Map<String, Object>> list = new ArrayList<>();
+
+        for (JdbcWriter.SqlParams sp : SmallMyBatis.getTemplate(sql).bindChunks(params))
+            list.addAll(crud.listMap(sp.sql, sp.values));
+
+        System.out.println(list);
+        assertEquals(4, list.size());
+    }
+
+    @Test
+    public void testForEachNoChunksByDefault() {
+        List<Integer> ids = new ArrayList<>();
+
+        for (int i = 2; i < 1502; i++)
+            ids.add(i);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", ids);
+
+        // 没有设置 chunkSize 的话不分批，NOT IN、COUNT 的结果与一条 SQL 的一致
+        String sql = "SELECT COUNT(*) AS c FROM Employees WHERE id NOT IN <forEach collection=\"ids\" open=\"(\" separator=\",\" close=\")\">#{item}</forEach>";
+        List<JdbcWriter.SqlParams> chunks = SmallMyBatis.getTemplate(sql).bindChunks(params);
+        assertEquals(1, chunks.size());
+
+        List<Map<String, Object>> list = new ArrayList<>();
+
+        for (JdbcWriter.SqlParams sp : chunks)
+            list.addAll(crud.listMap(sp.sql, sp.values));
+
+        System.out.println(list);
+        assertEquals(1, list.size());
+        int expected = crud.queryOne(int.class, "SELECT COUNT(*) FROM Employees WHERE id < 2 OR id >= 1502");
+        assertEquals(expected, ((Number) list.get(0).get("C")).intValue());
+    }
+
+    @Test
+    public void testKeysetPage() {
+        PageOptions options = new PageOptions().setKeys(new String[]{"id"}).setDesc(true).setLimit(3).setCountMode(PageOptions.CountMode.SKIP);
+
+        PageResult<Map<String, Object>> page = crud.page(null, "SELECT * FROM Employees", null, options);
+        System.out.println(page);
+        assertEquals(3, page.size());
+        assertEquals(-1, page.getTotalCount());
+        assertTrue(page.isHasMore());
+        assertNotNull(page.getNextCursor());
+
+        options.setCursor(page.getNextCursor()).setCountMode(PageOptions.CountMode.CACHE);
+        page = crud.page(null, "SELECT * FROM Employees", null, options);
+        System.out.println(page);
+        assertEquals(1, page.size());
+        assertEquals(4, page.getTotalCount());
+        assertFalse(page.isHasMore());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testParallelCount() {
+        crud.setDataSource(dataSource);
+        PageOptions options = new PageOptions().setLimit(3).setParallelCount(true).setCountTimeout(5000);
+
+        PageResult<Map<String, Object>> page = crud.page(null, "SELECT * FROM Employees ORDER BY id", null, options);
+        System.out.println(page);
+        assertEquals(3, page.size());
+        assertEquals(4, page.getTotalCount());
+        assertTrue(page.isHasMore());
+
+        page = crud.page(null, "SELECT * FROM Employees WHERE id > ?", null, options, 10);
+        assertEquals(0, page.getTotalCount());
+        assertTrue(page.isZero());
+    }
+
+    @Test
+    public void testParallelCountInTransaction() {
+        org.apache.tomcat.jdbc.pool.DataSource ds = (org.apache.tomcat.jdbc.pool.DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:parallel_count;create=true", "", "");
+
+        try {
+            CRUD_Service crud = CRUD_Service.factory(ds);
+            crud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+            crud.getWriter().write("CREATE TABLE pc (id INT PRIMARY KEY)");
+            crud.getWriter().write("INSERT INTO pc (id) VALUES (1), (2)");
+            PageOptions options = new PageOptions().setLimit(10).setParallelCount(true);
+
+            try (UnitOfWork ignored = UnitOfWork.transaction(ds)) { // 另外的连接看不到没有提交的数据，不同时统计
+                crud.getWriter().write("INSERT INTO pc (id) VALUES (3)");
+                PageResult<Map<String, Object>> page = crud.page(null, "SELECT * FROM pc ORDER BY id", null, options);
+                System.out.println(page);
+                assertEquals(3, page.size());
+                assertEquals(3, page.getTotalCount());
+            }
+        } finally {
+            ds.close();
+        }
+    }
+
+    @Test
+    public void testCountCache() {
+        PageOptions options = new PageOptions().setLimit(2).setCountMode(PageOptions.CountMode.CACHE);
+        String sql = "SELECT * FROM Employees WHERE id > ?";
+
+        assertEquals(4, crud.page(null, sql, null, options, 0).getTotalCount());
+        long hit = CountCache.getCache().getHitCount();
+        assertEquals(4, crud.page(null, sql, null, options, 0).getTotalCount());
+        assertEquals(hit + 1, CountCache.getCache().getHitCount());
+
+        crud.getWriter().write("INSERT INTO employees (id, name) VALUES (99, 'Tmp')");
+
+        try {
+            assertEquals(5, crud.page(null, sql, null, options, 0).getTotalCount());
+        } finally {
+            crud.getWriter().write("DELETE FROM Employees WHERE id = 99");
+        }
+
+        assertEquals(4, crud.page(null, sql, null, options, 0).getTotalCount());
+    }
 }
@@ -0,0 +1,118 @@
+package com.ajaxjs.data.crud;
+
+import com.ajaxjs.data.EntityCache;
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
+import lombok.Data;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestEntityCache {
+    static DataSource ds;
+
+    static CRUD_Service crud;
+
+    @BeforeClass
+    public static void init() {
+        ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:entity_cache;create=true", "", "");
+        crud = CRUD_Service.factory(ds);
+        crud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+
+        crud.getWriter().write("CREATE TABLE dict (id INT PRIMARY KEY, name VARCHAR(50))");
+        crud.getWriter().write("INSERT INTO dict (id, name) VALUES (1, 'foo'), (2, 'bar')");
+    }
+
+    @AfterClass
+    public static void destroy() {
+        ds.close();
+    }
+
+    @Test
+    public void test() {
+        FastCRUD<Map<String, Object>, Integer> fastCRUD = new FastCRUD<>();
+        fastCRUD.setDao(crud);
+        fastCRUD.setNamespace("dict");
+        fastCRUD.setTableName("dict");
+        TableModel tableModel = new TableModel();
+        tableModel.setHasIsDeleted(false);
+        fastCRUD.setTableModel(tableModel);
+        fastCRUD.setEntityCache(true);
+
+        assertEquals("foo", fastCRUD.infoMap(1).get("NAME"));
+
+        crud.getWriter().write("UPDATE dict SET name = 'changed' WHERE id = 1"); // 直接执行 SQL，不会作废缓存
+        assertEquals("foo", fastCRUD.infoMap(1).get("NAME"));
+
+        fastCRUD.infoMap(1).put("NAME", "dirty"); // 返回的是副本
+        assertEquals("foo", fastCRUD.infoMap(1).get("NAME"));
+
+        EntityCache cache = fastCRUD.getEntityCacheInstance();
+        System.out.println(cache.getLocal());
+        assertTrue(cache.getLocal().getHitCount() >= 3);
+
+        cache.invalidate(1);
+        assertEquals("changed", fastCRUD.infoMap(1).get("NAME"));
+
+        // 按 id 删除，作废这张表的缓存
+        assertNotNull(fastCRUD.infoMap(2));
+        crud.getWriter().delete("dict", "id", 2);
+        assertNull(fastCRUD.infoMap(2));
+
+        fastCRUD.delete(1);
+        assertNull(fastCRUD.infoMap(1));
+    }
+
+    @Test
+    public void testInvalidateWhileLoading() {
+        EntityCache cache = EntityCache.of("loading", "dict", 100, EntityCache.DEFAULT_TTL, false);
+
+        assertEquals("old", cache.get(1, "v", String.class, () -> {
+            cache.invalidate(1); // 加载期间作废了，加载的旧数据不保存
+            return "old";
+        }));
+        assertEquals("new", cache.get(1, "v", String.class, () -> "new"));
+        assertEquals("new", cache.get(1, "v", String.class, () -> "other"));
+    }
+
+    /**
+     * Derby 返回的列名是大写的
+     */
+    @Data
+    public static class Dict {
+        private Integer ID;
+
+        private String NAME;
+    }
+
+    @Test
+    public void testBeanCopy() {
+        FastCRUD<Dict, Integer> fastCRUD = new FastCRUD<>();
+        fastCRUD.setDao(crud);
+        fastCRUD.setClz(Dict.class);
+        fastCRUD.setNamespace("dict_bean");
+        fastCRUD.setTableName("dict");
+        TableModel tableModel = new TableModel();
+        tableModel.setHasIsDeleted(false);
+        fastCRUD.setTableModel(tableModel);
+        fastCRUD.setEntityCache(true);
+        crud.getWriter().write("INSERT INTO dict (id, name) VALUES (3, 'baz')");
+
+        try {
+            fastCRUD.info(3).setNAME("dirty"); // 返回的是副本，不影响缓存的
+            assertEquals("baz", fastCRUD.info(3).getNAME());
+
+            fastCRUD.infoBatch(Collections.singletonList(3)).get(3).setNAME("dirty");
+            assertEquals("baz", fastCRUD.info(3).getNAME());
+            assertTrue(fastCRUD.getEntityCacheInstance().getLocal().getHitCount() >= 2);
+        } finally {
+            crud.getWriter().write("DELETE FROM dict WHERE id = 3");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.ajaxjs.data.crud;
+
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestFilteredSql {
+    @Test
+    public void testOf() {
+        FilteredSql f = FilteredSql.of("SELECT * FROM t WHERE 1=1 AND id = ?", true, true);
+        System.out.println(f.sql);
+        assertEquals("SELECT * FROM t WHERE 1=1 AND user_id = ? AND tenant_id = ? AND id = ?", f.sql);
+        assertArrayEquals(new Object[]{7L, 1, 100}, f.bind(new Object[]{100}, 7L, 1));
+
+        f = FilteredSql.of("SELECT * FROM t WHERE name = ? AND x = '1=1?'", false, true); // 引号里的不算
+        assertEquals("SELECT * FROM t WHERE name = ? AND x = '1=1?' AND tenant_id = ?", f.sql);
+        assertArrayEquals(new Object[]{"foo", 1}, f.bind(new Object[]{"foo"}, null, 1));
+
+        f = FilteredSql.of("SELECT * FROM t WHERE a = ? AND id IN (SELECT id FROM t2 WHERE 1=1 AND b = ?) AND 1=1", true, false);
+        assertEquals("SELECT * FROM t WHERE a = ? AND id IN (SELECT id FROM t2 WHERE 1=1 AND user_id = ? AND b = ?) AND 1=1 AND user_id = ?", f.sql);
+        assertArrayEquals(new Object[]{"a", 7L, "b", 7L}, f.bind(new Object[]{"a", "b"}, 7L, null));
+
+        f = FilteredSql.of("SELECT * FROM t WHERE 1=1", false, false);
+        assertNull(f.bind(null, null, null));
+    }
+
+    @Test
+    public void testTenant() {
+        DataSource ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:filtered_sql;create=true", "", "");
+
+        try {
+            CRUD_Service crud = CRUD_Service.factory(ds);
+            crud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+            crud.getWriter().write("CREATE TABLE goods (id INT PRIMARY KEY, name VARCHAR(50), tenant_id INT)");
+            crud.getWriter().write("INSERT INTO goods (id, name, tenant_id) VALUES (1, 'foo', 1), (2, 'bar', 2)");
+
+            FastCRUD<Map<String, Object>, Integer> fastCRUD = new FastCRUD<>();
+            fastCRUD.setDao(crud);
+            fastCRUD.setTableName("goods");
+            TableModel tableModel = new TableModel();
+            tableModel.setHasIsDeleted(false);
+            fastCRUD.setTableModel(tableModel);
+            fastCRUD.setListOrderByDate(false);
+            fastCRUD.setTenantIsolation(true); // 单测时租户 id 为 1
+
+            List<Map<String, Object>> list = fastCRUD.listMap(null);
+            System.out.println(list);
+            assertEquals(1, list.size());
+            assertEquals("foo", list.get(0).get("NAME"));
+
+            assertNotNull(fastCRUD.infoMap(1));
+            assertNull(fastCRUD.infoMap(2)); // 其他租户的
+
+            fastCRUD.delete(2); // 其他租户的，删不了
+            assertEquals(2, crud.queryOne(Integer.class, "SELECT COUNT(*) FROM goods").intValue());
+        } finally {
+            ds.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.ajaxjs.data.crud;
+
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TestInfoBatch {
+    static DataSource ds;
+
+    static CRUD_Service crud;
+
+    @BeforeClass
+    public static void init() {
+        ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:info_batch;create=true", "", "");
+        crud = CRUD_Service.factory(ds);
+        crud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+
+        crud.getWriter().write("CREATE TABLE author (id INT PRIMARY KEY, name VARCHAR(50), tenant_id INT)");
+
+        for (int i = 1; i <= 20; i++)
+            crud.getWriter().write("INSERT INTO author (id, name, tenant_id) VALUES (?, ?, ?)", i, "author" + i, i == 20 ? 2 : 1);
+    }
+
+    @AfterClass
+    public static void destroy() {
+        ds.close();
+    }
+
+    static FastCRUD<Map<String, Object>, Long> create() {
+        FastCRUD<Map<String, Object>, Long> fastCRUD = new FastCRUD<>();
+        fastCRUD.setDao(crud);
+        fastCRUD.setNamespace("author_" + System.nanoTime());
+        fastCRUD.setTableName("author");
+        TableModel tableModel = new TableModel();
+        tableModel.setHasIsDeleted(false);
+        fastCRUD.setTableModel(tableModel);
+
+        return fastCRUD;
+    }
+
+    @Test
+    public void testFindByIds() {
+        Map<Long, Map<String, Object>> map = crud.findMapByIds("author", "id", Arrays.asList(3L, 1L, 99L, 3L, 2L));
+        System.out.println(map);
+        assertEquals(Arrays.asList(3L, 1L, 2L), new ArrayList<>(map.keySet())); // 按输入的顺序，去掉重复的、查不到的
+        assertEquals("author1", map.get(1L).get("NAME"));
+
+        assertEquals("?, ?, ?", CRUD_Service.inPlaceholders(3));
+        assertTrue(crud.findMapByIds("author", "id", Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testInfoBatch() {
+        FastCRUD<Map<String, Object>, Long> fastCRUD = create();
+        fastCRUD.setTenantIsolation(true); // 单测时租户 id 为 1
+        fastCRUD.setEntityCache(true);
+
+        assertEquals("author2", fastCRUD.infoMap(2L).get("NAME"));
+
+        Map<Long, Map<String, Object>> map = fastCRUD.infoMapBatch(Arrays.asList(1L, 2L, 20L, 5L));
+        assertEquals(Arrays.asList(1L, 2L, 5L), new ArrayList<>(map.keySet())); // 20 是其他租户的
+        assertTrue(fastCRUD.getEntityCacheInstance().getLocal().getHitCount() >= 1); // 2 已经缓存了
+
+        fastCRUD.infoMapBatch(Arrays.asList(1L, 5L)).get(1L).put("NAME", "dirty"); // 返回的是副本
+        assertEquals("author1", fastCRUD.infoMap(1L).get("NAME"));
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        FastCRUD<Map<String, Object>, Long> fastCRUD = create();
+        fastCRUD.setInfoCoalesce(true);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Map<String, Object>>> futures = new ArrayList<>();
+
+        for (long i = 1; i <= 19; i++) {
+            long id = i;
+            futures.add(pool.submit(() -> fastCRUD.infoMap(id)));
+        }
+
+        for (int i = 0; i < futures.size(); i++)
+            assertEquals("author" + (i + 1), futures.get(i).get().get("NAME"));
+
+        assertNull(fastCRUD.infoMap(99L));
+        pool.shutdown();
+    }
+}
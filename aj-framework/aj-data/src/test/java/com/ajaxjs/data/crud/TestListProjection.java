@@ -0,0 +1,104 @@
+package com.ajaxjs.data.crud;
+
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestListProjection {
+    static DataSource ds;
+
+    static CRUD_Service crud;
+
+    @BeforeClass
+    public static void init() {
+        ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:list_projection;create=true", "", "");
+        crud = CRUD_Service.factory(ds);
+        crud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+
+        crud.getWriter().write("CREATE TABLE article (id INT PRIMARY KEY, name VARCHAR(50), content CLOB)");
+        crud.getWriter().write("INSERT INTO article (id, name, content) VALUES (1, 'foo', 'long text'), (2, 'bar', 'long text'), (3, 'zoo', 'long text')");
+    }
+
+    @AfterClass
+    public static void destroy() {
+        RequestContextHolder.resetRequestAttributes();
+        ds.close();
+    }
+
+    static FastCRUD<Map<String, Object>, Integer> create() {
+        FastCRUD<Map<String, Object>, Integer> fastCRUD = new FastCRUD<>();
+        fastCRUD.setDao(crud);
+        fastCRUD.setTableName("article");
+        TableModel tableModel = new TableModel();
+        tableModel.setHasIsDeleted(false);
+        fastCRUD.setTableModel(tableModel);
+        fastCRUD.setListOrderByDate(false);
+
+        return fastCRUD;
+    }
+
+    static void request(String fields) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        if (fields != null)
+            request.setParameter(FastCRUD.FIELDS_PARAM, fields);
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @Test
+    public void testFields() {
+        FastCRUD<Map<String, Object>, Integer> fastCRUD = create();
+        fastCRUD.setFields("id, name");
+
+        request(null);
+        List<Map<String, Object>> list = fastCRUD.listMap(null);
+        System.out.println(list);
+        assertEquals(3, list.size());
+        assertFalse(list.get(0).containsKey("CONTENT"));
+
+        request("name");
+        assertEquals(1, fastCRUD.listMap(null).get(0).size());
+
+        request("content"); // 不在配置的字段里
+        assertThrows(IllegalArgumentException.class, () -> fastCRUD.listMap(null));
+
+        FastCRUD<Map<String, Object>, Integer> all = create(); // 没有配置的话，按表的字段检查
+        request("ID,Content");
+        assertEquals(2, all.listMap(null).get(0).size());
+
+        request("id,(SELECT 1)");
+        assertThrows(IllegalArgumentException.class, () -> all.listMap(null));
+    }
+
+    @Test
+    public void testLimit() {
+        request(null);
+        FastCRUD<Map<String, Object>, Integer> fastCRUD = create();
+        fastCRUD.setListLimit(2);
+        assertEquals(2, fastCRUD.listMap(null).size());
+        assertEquals(3, fastCRUD.pageMap(null).getTotalCount()); // 不影响分页
+
+        fastCRUD.setListSql("SELECT * FROM article WHERE 1=1 ORDER BY id DESC");
+        List<Map<String, Object>> list = fastCRUD.listMap(null);
+        assertEquals(2, list.size());
+        assertEquals(3, list.get(0).get("ID"));
+
+        fastCRUD.setListSql("SELECT * FROM article WHERE 1=1 ORDER BY id DESC OFFSET 0 ROWS FETCH FIRST 3 ROWS ONLY"); // 已经有限制的，外层同样排序
+        list = fastCRUD.listMap(null);
+        assertEquals(2, list.size());
+        assertEquals(3, list.get(0).get("ID"));
+        assertEquals(2, list.get(1).get("ID"));
+    }
+}
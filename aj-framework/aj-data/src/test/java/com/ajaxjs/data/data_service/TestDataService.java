@@ -2,10 +2,15 @@ package com.ajaxjs.data.data_service;
 
 import com.ajaxjs.data.BaseTest;
 import com.ajaxjs.data.crud.CRUD_Service;
+import com.ajaxjs.data.jdbc_helper.DatabaseVendor;
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
+import org.apache.tomcat.jdbc.pool.DataSource;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import static org.junit.Assert.assertNotNull;
+import java.util.Map;
+
+import static org.junit.Assert.*;
 
 public class TestDataService extends BaseTest {
     static class ExtDataService extends DataService {
@@ -20,4 +25,34 @@ public class TestDataService extends BaseTest {
 
         assertNotNull(service);
     }
+
+    @Test
+    public void testReloadConfig() {
+        DataSource ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:data_service;create=true", "", "");
+        CRUD_Service dao = CRUD_Service.factory(ds);
+        dao.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+        dao.getWriter().write("CREATE TABLE ds_common_api (\"id\" INT PRIMARY KEY, \"pid\" INT, \"namespace\" VARCHAR(50), \"table_name\" VARCHAR(50), stat INT)"); // Derby 的列名默认是大写
+        dao.getWriter().write("INSERT INTO ds_common_api VALUES (1, -1, 'dict', 'dict', 0)");
+        dao.getWriter().write("CREATE TABLE dict (id INT PRIMARY KEY, name VARCHAR(50))");
+        dao.getWriter().write("INSERT INTO dict (id, name) VALUES (1, 'foo')");
+
+        try {
+            DataService service = new ExtDataService();
+            service.setDao(dao);
+            assertTrue(service.getNamespaces().isEmpty());
+
+            service.reloadConfig();
+            Map<String, DataServiceConfig> first = service.getNamespaces();
+            assertEquals("foo", service.info("dict", 1L).get("NAME"));
+
+            service.reloadConfig(); // 整个替换，之前拿到的不受影响
+            assertNotSame(first, service.getNamespaces());
+            assertTrue(first.containsKey("dict"));
+            assertEquals("foo", service.info("dict", 1L).get("NAME"));
+
+            assertThrows(UnsupportedOperationException.class, () -> service.getNamespaces().remove("dict"));
+        } finally {
+            ds.close();
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package com.ajaxjs.data.data_service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class TestSecurityContext {
+    public static class User {
+        public long getId() {
+            return 100L;
+        }
+
+        public Integer getTenantId() {
+            return 2;
+        }
+    }
+
+    static MockHttpServletRequest request(String tenantId) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("USER_KEY_IN_REQUEST", new User());
+
+        if (tenantId != null)
+            request.addHeader(TenantService.AUTH_TENANT_ID, tenantId);
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+        return request;
+    }
+
+    @After
+    public void reset() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void test() {
+        request(null);
+        SecurityContext context = SecurityContext.current();
+        assertSame(context, SecurityContext.current()); // 每个请求只解析一次
+
+        assertEquals(100L, DataServiceUtils.getCurrentUserId());
+        assertEquals(2, DataServiceUtils.getCurrentUserTenantId().intValue());
+        assertEquals(2, TenantService.getTenantId().intValue()); // 没有请求头，使用用户的
+
+        request("2");
+        assertEquals(2, TenantService.getTenantId().intValue());
+
+        request("3");
+        assertThrows(SecurityException.class, TenantService::getTenantId); // 越权
+    }
+
+    @Test
+    public void testAsync() {
+        request(null);
+        Supplier<Long> task = SecurityContext.wrap(DataServiceUtils::getCurrentUserId);
+        reset();
+
+        assertEquals(100L, CompletableFuture.supplyAsync(task).join().longValue());
+        assertNull(SecurityContext.current());
+    }
+}
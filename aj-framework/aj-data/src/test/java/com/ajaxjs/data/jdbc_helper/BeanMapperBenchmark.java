@@ -0,0 +1,125 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.DataUtils;
+import com.ajaxjs.data.util.ConvertBasicValue;
+import com.ajaxjs.util.reflect.Methods;
+import com.ajaxjs.util.reflect.NewInstance;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.beans.IntrospectionException;
+import java.beans.PropertyDescriptor;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比原来每行每列内省 + 反射的方式，与缓存映射器的方式，转换 Bean 的性能。
+ * 在 IDE 里直接运行 main() 即可
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeanMapperBenchmark {
+    static final String SQL = "SELECT id AS \"id\", name AS \"name\", birthday AS \"birthday\", hire_date AS \"hire_date\", " +
+            "department AS \"department\" FROM Employees";
+
+    @Param({"1000"})
+    int rows;
+
+    Connection conn;
+
+    @Setup
+    public void setup() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:derby:memory:benchmark;create=true");
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE Employees (id INT PRIMARY KEY, name VARCHAR(50), birthday DATE, hire_date DATE, department VARCHAR(50))");
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO Employees VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, "Name" + i);
+                ps.setDate(3, Date.valueOf("1980-01-01"));
+                ps.setDate(4, Date.valueOf("2005-06-15"));
+                ps.setString(5, "Dept" + (i % 10));
+                ps.addBatch();
+            }
+
+            ps.executeBatch();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE Employees");
+        }
+
+        conn.close();
+    }
+
+    @Benchmark
+    public List<TestBeanMapper.Employee> legacy() throws SQLException {
+        return query(BeanMapperBenchmark::legacyMap);
+    }
+
+    @Benchmark
+    public List<TestBeanMapper.Employee> cached() throws SQLException {
+        return query(JdbcReader.getResultBean(TestBeanMapper.Employee.class)::process);
+    }
+
+    interface RowMapper {
+        TestBeanMapper.Employee map(ResultSet rs) throws SQLException;
+    }
+
+    private List<TestBeanMapper.Employee> query(RowMapper mapper) throws SQLException {
+        List<TestBeanMapper.Employee> list = new ArrayList<>(rows);
+
+        try (PreparedStatement ps = conn.prepareStatement(SQL); ResultSet rs = ps.executeQuery()) {
+            while (rs.next())
+                list.add(mapper.map(rs));
+        }
+
+        return list;
+    }
+
+    /**
+     * 原来 JdbcReader.getResultBean() 的做法（去掉了 JSON 和 extractData 的分支）
+     */
+    static TestBeanMapper.Employee legacyMap(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        TestBeanMapper.Employee bean = NewInstance.newInstance(TestBeanMapper.Employee.class);
+
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String key = metaData.getColumnLabel(i);
+            Object _value = rs.getObject(i);
+
+            if (key.contains("_"))
+                key = DataUtils.changeColumnToFieldName(key);
+
+            try {
+                PropertyDescriptor property = new PropertyDescriptor(key, TestBeanMapper.Employee.class);
+                Object value = ConvertBasicValue.basicConvert(_value, property.getPropertyType());
+                Methods.executeMethod(bean, property.getWriteMethod(), value);
+            } catch (IntrospectionException | IllegalArgumentException e) {
+                // ignore
+            }
+        }
+
+        return bean;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(BeanMapperBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,74 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.BaseTest;
+import lombok.Data;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestBeanMapper extends BaseTest {
+    @Autowired
+    DataSource ds;
+
+    @Data
+    public static class Employee {
+        private Integer id;
+
+        private String name;
+
+        private Date birthday;
+
+        private Date hireDate;
+
+        private String department;
+
+        public Map<String, Object> extractData = new HashMap<>();
+    }
+
+    /**
+     * Derby 返回的列名是大写的，这里用引号括起来的别名
+     */
+    static final String SQL = "SELECT id AS \"id\", name AS \"name\", birthday AS \"birthday\", hire_date AS \"hire_date\", " +
+            "department AS \"department\", 'foo' AS \"other\" FROM Employees ORDER BY id";
+
+    @Test
+    public void testQueryAsBeanList() throws SQLException {
+        JdbcReader reader = new JdbcReader();
+        reader.setConn(ds.getConnection());
+
+        List<Employee> list = reader.queryAsBeanList(Employee.class, SQL);
+        System.out.println(list);
+
+        assertEquals(4, list.size());
+        Employee employee = list.get(0);
+        assertEquals(Integer.valueOf(1), employee.getId());
+        assertEquals("John", employee.getName());
+        assertNotNull(employee.getHireDate());
+        assertEquals("foo", employee.getExtractData().get("other"));
+        assertNull(list.get(1).getBirthday());
+    }
+
+    @Test
+    public void testCache() throws SQLException {
+        JdbcReader reader = new JdbcReader();
+        reader.setConn(ds.getConnection());
+
+        reader.queryAsBean(Employee.class, SQL);
+
+        // 同样结构的记录集合，映射器是同一个
+        reader.executeQuery(rs -> {
+            BeanMapper<Employee> mapper = BeanMapper.of(Employee.class, rs.getMetaData());
+            assertSame(mapper, BeanMapper.of(Employee.class, rs.getMetaData()));
+
+            return null;
+        }, SQL);
+    }
+}
@@ -0,0 +1,41 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+public class TestDataSourceRegistry {
+    static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+
+    static final String URL = "jdbc:derby:memory:registry;create=true";
+
+    @Test
+    public void test() throws SQLException {
+        try {
+            DataSource ds = DataSourceRegistry.getDataSource(1L, DRIVER, URL, "", "", DataSourceRegistry.PoolPreset.SMALL);
+            assertSame(ds, DataSourceRegistry.getDataSource(1L, DRIVER, URL, "", "", DataSourceRegistry.PoolPreset.SMALL));
+
+            try (Connection conn = DataSourceRegistry.getConnection(1L, DRIVER, URL, "", "", DataSourceRegistry.PoolPreset.SMALL)) {
+                DataSourceRegistry.PoolStats stats = DataSourceRegistry.getStats(1L);
+                System.out.println(stats);
+                assertEquals(1, stats.getActive());
+                assertEquals(1, stats.getBorrowed());
+                assertNotNull(conn.getMetaData().getURL());
+            }
+
+            assertEquals(0, DataSourceRegistry.getStats(1L).getActive());
+
+            // 配置变了，重新创建连接池
+            assertNotSame(ds, DataSourceRegistry.getDataSource(1L, DRIVER, URL, "foo", "", DataSourceRegistry.PoolPreset.SMALL));
+            assertEquals(1, DataSourceRegistry.getAllStats().size());
+        } finally {
+            DataSourceRegistry.remove(1L);
+        }
+
+        assertNull(DataSourceRegistry.getStats(1L));
+    }
+}
@@ -0,0 +1,70 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.crud.CRUD_Service;
+import com.ajaxjs.data.jdbc_helper.common.IdField;
+import com.ajaxjs.data.jdbc_helper.common.TableName;
+import com.ajaxjs.framework.IgnoreDB;
+import lombok.Data;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestEntityMetadata {
+    @Data
+    @TableName("user")
+    @IdField("user_id")
+    public static class User {
+        private Long userId;
+
+        private String name;
+
+        private Integer age;
+
+        private String temp;
+
+        @IgnoreDB
+        public String getTemp() {
+            return temp;
+        }
+    }
+
+    @Test
+    public void testMetadata() {
+        EntityMetadata meta = EntityMetadata.of(User.class);
+
+        assertSame(meta, EntityMetadata.of(User.class));
+        assertEquals("user", meta.getTableName());
+        assertEquals("user_id", meta.getIdField());
+        assertTrue(meta.getColumn("temp").isIgnored());
+
+        User user = new User();
+        user.setTemp("foo");
+        assertEquals("user", CRUD_Service.getTableName(user));
+        assertEquals("user_id", CRUD_Service.getIdField(user));
+    }
+
+    @Test
+    public void testSql() {
+        User user = new User();
+        user.setName("Tom");
+        user.setAge(20);
+        user.setTemp("foo");
+
+        JdbcWriter.SqlParams sp = JdbcWriter.entity2InsertSql("user", user);
+        System.out.println(sp.sql);
+        assertEquals("INSERT INTO user ( `age`, `name`) VALUES ( ?, ?)", sp.sql);
+        assertArrayEquals(new Object[]{20, "Tom"}, sp.values);
+
+        user.setUserId(1L);
+        sp = JdbcWriter.entity2UpdateSql("user", user, "user_id", 1L);
+        System.out.println(sp.sql);
+        assertEquals("UPDATE user SET `age` = ?, `name` = ? WHERE user_id = ?", sp.sql);
+        assertArrayEquals(new Object[]{20, "Tom", 1L}, sp.values);
+
+        // 同样的有值字段组合，SQL 是同一个对象
+        User user2 = new User();
+        user2.setName("Jack");
+        user2.setAge(30);
+        assertSame(JdbcWriter.entity2InsertSql("user", user2).sql, JdbcWriter.entity2InsertSql("user", user2).sql);
+    }
+}
@@ -1,17 +1,35 @@
 package com.ajaxjs.data.jdbc_helper;
 
 import com.ajaxjs.data.BaseTest;
+import com.ajaxjs.data.DataAccessException;
 import com.ajaxjs.data.data_service.DataService;
+import lombok.Data;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.sql.DataSource;
 
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 public class TestJdbcHelper extends BaseTest {
     @Autowired
@@ -26,4 +44,238 @@ public class TestJdbcHelper extends BaseTest {
 
         assertNotNull(list);
     }
+
+    @Test
+    public void testForEach() throws SQLException {
+        JdbcReader reader = new JdbcReader();
+        reader.setDatabaseVendor(DatabaseVendor.DERBY);
+        reader.setConn(ds.getConnection());
+        reader.setFetchSize(2);
+
+        List<Object> names = new ArrayList<>();
+        int count = reader.forEachMap(row -> names.add(row.get("NAME")), "SELECT * FROM Employees ORDER BY id");
+        System.out.println(names);
+
+        assertEquals(4, count);
+        assertEquals(4, names.size());
+    }
+
+    @Test
+    public void testStream() throws SQLException {
+        JdbcReader reader = new JdbcReader();
+        reader.setDatabaseVendor(DatabaseVendor.DERBY);
+        reader.setConn(ds.getConnection());
+
+        try (Stream<Map<String, Object>> stream = reader.streamAsMap("SELECT * FROM Employees WHERE id > ?", 1)) {
+            List<Object> ids = stream.map(row -> row.get("ID")).collect(Collectors.toList());
+            System.out.println(ids);
+            assertEquals(3, ids.size());
+        }
+    }
+
+    @Test
+    public void testStatementCache() throws SQLException {
+        JdbcReader reader = new JdbcReader();
+        reader.setDatabaseVendor(DatabaseVendor.DERBY);
+        reader.setConn(ds.getConnection());
+        reader.setStatementCacheSize(10);
+
+        for (int i = 1; i <= 3; i++)
+            assertNotNull(reader.queryAsMap("SELECT * FROM Employees WHERE id = ?", i));
+
+        StatementCache cache = reader.getStatementCache();
+        System.out.println(cache);
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testStatementCachePooled() {
+        org.apache.tomcat.jdbc.pool.DataSource pool = new org.apache.tomcat.jdbc.pool.DataSource();
+        pool.setDriverClassName("org.apache.derby.jdbc.EmbeddedDriver");
+        pool.setUrl("jdbc:derby:memory:stmt_cache;create=true");
+        pool.setInitialSize(1);
+        pool.setMaxActive(1); // 每次借出的都是同一个物理连接
+
+        try {
+            JdbcReader reader = new JdbcReader();
+            reader.setDatabaseVendor(DatabaseVendor.DERBY);
+            reader.setDataSource(pool);
+            reader.setStatementCacheSize(10);
+
+            for (int i = 0; i < 3; i++) // 每次都借出、归还连接
+                assertEquals(Integer.valueOf(1), reader.queryOne("SELECT COUNT(*) FROM SYSIBM.SYSDUMMY1", Integer.class));
+
+            try (UnitOfWork unit = UnitOfWork.open(pool)) {
+                reader.queryOne("SELECT COUNT(*) FROM SYSIBM.SYSDUMMY1", Integer.class);
+                StatementCache cache = reader.getStatementCache();
+                System.out.println(cache);
+
+                assertSame(StatementCache.get(unit.getConnection()), cache);
+                assertEquals(1, cache.getMissCount()); // 归还连接池之后再借出，仍然复用
+                assertEquals(3, cache.getHitCount());
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testStatementCacheClosed() {
+        org.apache.tomcat.jdbc.pool.DataSource pool = new org.apache.tomcat.jdbc.pool.DataSource();
+        pool.setDriverClassName("org.apache.derby.jdbc.EmbeddedDriver");
+        pool.setUrl("jdbc:derby:memory:stmt_cache_closed;create=true");
+        pool.setMaxActive(1);
+        StatementCache cache;
+
+        try {
+            JdbcReader reader = new JdbcReader();
+            reader.setDataSource(pool);
+            reader.setStatementCacheSize(10);
+
+            try (UnitOfWork ignored = UnitOfWork.open(pool)) {
+                reader.queryOne("SELECT COUNT(*) FROM SYSIBM.SYSDUMMY1", Integer.class);
+                cache = reader.getStatementCache();
+            }
+
+            assertTrue(StatementCache.getAll().contains(cache));
+        } finally {
+            pool.close(); // 关闭物理连接
+        }
+
+        // 不再引用已经关闭的连接和语句
+        assertNull(StatementCache.get(cache.getConn()));
+        assertFalse(StatementCache.getAll().contains(cache));
+    }
+
+    @Test
+    public void testSqlLogger() throws SQLException {
+        JdbcReader reader = new JdbcReader();
+        reader.setDatabaseVendor(DatabaseVendor.DERBY);
+        reader.setConn(ds.getConnection());
+
+        List<String> logs = new ArrayList<>();
+        SqlLogger old = JdbcConn.getSqlLogger();
+        JdbcConn.setSqlLogger((type, sql, params, cost) -> logs.add(type + ":" + sql));
+
+        try {
+            reader.queryAsMap("SELECT * FROM Employees WHERE id = ?", 1);
+        } finally {
+            JdbcConn.setSqlLogger(old);
+        }
+
+        System.out.println(logs);
+        assertEquals(1, logs.size());
+
+        // 不区分慢查询，普通语句抽样一半输出
+        JdbcConn.setSqlLogger(new DefaultSqlLogger().setSlowThreshold(0).setSampleRate(0.5));
+        reader.queryAsMap("SELECT * FROM Employees WHERE id = ?", 1);
+        JdbcConn.setSqlLogger(old);
+    }
+
+    @Test
+    public void testBatch() throws SQLException {
+        JdbcWriter writer = new JdbcWriter();
+        writer.setDatabaseVendor(DatabaseVendor.DERBY);
+        writer.setConn(ds.getConnection());
+
+        Stream<Object[]> rows = IntStream.range(100, 125).mapToObj(i -> new Object[]{i, "Batch" + i, "Batch"});
+        JdbcWriter.BatchOptions options = new JdbcWriter.BatchOptions().setChunkSize(10).setCommitPerChunk(true);
+        JdbcWriter.BatchResult result = writer.batch("INSERT INTO Employees (id, name, department) VALUES (?, ?, ?)", rows.iterator(), options);
+        System.out.println(result);
+
+        assertEquals(25, result.getRows());
+        assertEquals(3, result.getChunks());
+
+        JdbcReader reader = new JdbcReader();
+        reader.setConn(writer.getConn());
+        assertEquals(Integer.valueOf(25), reader.queryOne("SELECT COUNT(*) FROM Employees WHERE department = ?", Integer.class, "Batch"));
+
+        writer.write("DELETE FROM Employees WHERE department = ?", "Batch");
+    }
+
+    @Test
+    public void testBatchInTransaction() {
+        JdbcWriter writer = new JdbcWriter();
+        writer.setDatabaseVendor(DatabaseVendor.DERBY);
+        writer.setDataSource(ds);
+
+        JdbcWriter.BatchOptions options = new JdbcWriter.BatchOptions().setCommitPerChunk(true);
+        Iterator<Object[]> rows = Collections.singletonList(new Object[]{200, "Tx", "Tx"}).iterator();
+
+        try (UnitOfWork ignored = UnitOfWork.transaction(ds)) { // 不能把外层的事务提交一部分
+            assertThrows(IllegalStateException.class, () -> writer.batch("INSERT INTO Employees (id, name, department) VALUES (?, ?, ?)", rows, options));
+        }
+    }
+
+    @Test
+    public void testBatchCancelled() {
+        JdbcWriter writer = new JdbcWriter();
+        writer.setDatabaseVendor(DatabaseVendor.DERBY);
+        writer.setDataSource(ds);
+
+        Iterator<Object[]> rows = Collections.singletonList(new Object[]{201, "Cancelled", "Cancelled"}).iterator();
+
+        try (UnitOfWork unit = UnitOfWork.open(ds)) { // 工作单元的取消同样作用于批量操作
+            unit.cancel();
+            assertThrows(DataAccessException.class, () -> writer.batch("INSERT INTO Employees (id, name, department) VALUES (?, ?, ?)", rows, null));
+        }
+
+        JdbcReader reader = new JdbcReader();
+        reader.setDataSource(ds);
+        assertEquals(Integer.valueOf(0), reader.queryOne("SELECT COUNT(*) FROM Employees WHERE id = ?", Integer.class, 201));
+    }
+
+    /**
+     * 什么也不做的 JDBC 对象，用于检查发送到数据库之前的处理
+     */
+    static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Class<?> returnType = method.getReturnType();
+
+            if (returnType == PreparedStatement.class)
+                return stub(PreparedStatement.class);
+            else if (returnType == int[].class)
+                return new int[0];
+            else if (returnType == boolean.class)
+                return method.getName().equals("getAutoCommit");
+            else if (returnType == int.class)
+                return 0;
+            else if (returnType == long.class)
+                return 0L;
+
+            return null;
+        }));
+    }
+
+    @Data
+    public static class Row {
+        private Integer id;
+
+        private String name;
+    }
+
+    @Test
+    public void testCreateBatchShape() {
+        JdbcWriter writer = new JdbcWriter();
+        writer.setConn(stub(Connection.class));
+
+        Map<String, Object> first = new HashMap<>(), second = new HashMap<>();
+        first.put("id", 1);
+        second.put("id", 2);
+        second.put("name", "bar"); // 第一个实体没有的字段，值不能被丢掉
+
+        assertEquals(1, writer.createBatch("t", Stream.of(first, first), null).getChunks());
+        assertThrows(IllegalArgumentException.class, () -> writer.createBatch("t", Stream.of(first, second), null));
+
+        Row a = new Row(), b = new Row();
+        a.setId(1);
+        b.setId(2);
+        b.setName("bar");
+
+        assertEquals(1, writer.createBatch("t", Stream.of(b, a), null).getChunks()); // 之后的实体没有值的插入 null
+        assertThrows(IllegalArgumentException.class, () -> writer.createBatch("t", Stream.of(a, b), null));
+    }
 }
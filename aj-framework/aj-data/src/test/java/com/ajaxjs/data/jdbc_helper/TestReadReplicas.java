@@ -0,0 +1,81 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.crud.CRUD_Service;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestReadReplicas {
+    static DataSource primary, replica1, replica2;
+
+    static CRUD_Service crud;
+
+    static DataSource create(String name) {
+        DataSource ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:" + name + ";create=true", "", "");
+
+        JdbcWriter writer = new JdbcWriter();
+        writer.setDataSource(ds);
+        writer.write("CREATE TABLE rw (id INT PRIMARY KEY, name VARCHAR(50))");
+        writer.write("INSERT INTO rw (id, name) VALUES (1, ?)", name); // 每个库的数据不同，以便区分读的是哪个库
+
+        return ds;
+    }
+
+    @BeforeClass
+    public static void init() {
+        primary = create("rw_primary");
+        replica1 = create("rw_replica1");
+        replica2 = create("rw_replica2");
+
+        crud = CRUD_Service.factory(primary);
+        crud.getReader().setDatabaseVendor(DatabaseVendor.DERBY);
+        crud.setReplicas(new ReadReplicas(crud.getReader(), Arrays.asList(replica1, replica2)));
+    }
+
+    @AfterClass
+    public static void destroy() {
+        primary.close();
+        replica1.close();
+        replica2.close();
+    }
+
+    static String read() {
+        return crud.queryOne(String.class, "SELECT name FROM rw WHERE id = 1");
+    }
+
+    @Test
+    public void testRoute() {
+        String first = read(), second = read();
+        System.out.println(first + ", " + second);
+        assertTrue(first.startsWith("rw_replica"));
+        assertTrue(second.startsWith("rw_replica"));
+        assertNotEquals(first, second); // 轮流使用
+
+        assertEquals("rw_primary", ReadReplicas.usePrimary(TestReadReplicas::read));
+    }
+
+    @Test
+    public void testSticky() {
+        crud.transaction(() -> {
+            assertEquals("rw_primary", read()); // 事务里读主库
+            assertTrue(ReadReplicas.useReplica(TestReadReplicas::read).startsWith("rw_replica"));
+
+            return null;
+        });
+
+        try (UnitOfWork ignored = UnitOfWork.open(primary)) { // 例如一个请求
+            assertTrue(read().startsWith("rw_replica"));
+
+            crud.getWriter().write("UPDATE rw SET name = ? WHERE id = 1", "rw_primary");
+            assertEquals("rw_primary", read()); // 写入之后读主库
+        }
+
+        assertTrue(read().startsWith("rw_replica"));
+        assertEquals(0, primary.getActive() + replica1.getActive() + replica2.getActive());
+    }
+}
@@ -0,0 +1,262 @@
+package com.ajaxjs.data.jdbc_helper;
+
+import com.ajaxjs.data.crud.CRUD_Service;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class TestUnitOfWork {
+    static DataSource ds;
+
+    static JdbcReader reader;
+
+    static JdbcWriter writer;
+
+    @BeforeClass
+    public static void init() {
+        ds = (DataSource) JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:uow;create=true", "", "");
+
+        reader = new JdbcReader();
+        reader.setDataSource(ds);
+        writer = new JdbcWriter();
+        writer.setDataSource(ds);
+
+        writer.write("CREATE TABLE uow (id INT PRIMARY KEY, name VARCHAR(50))");
+    }
+
+    @AfterClass
+    public static void destroy() {
+        ds.close();
+    }
+
+    static int count() {
+        return reader.queryOne("SELECT COUNT(*) FROM uow", Integer.class);
+    }
+
+    @Test
+    public void testLazy() {
+        writer.write("DELETE FROM uow");
+        assertEquals(0, ds.getActive()); // 没有工作单元，每条 SQL 用完就归还
+
+        try (UnitOfWork unit = UnitOfWork.open(ds)) {
+            assertEquals(0, ds.getActive()); // 还没执行 SQL，不占用连接
+
+            writer.insert("INSERT INTO uow (id, name) VALUES (?, ?)", 1, "foo");
+            assertEquals(1, ds.getActive());
+
+            try (UnitOfWork inner = UnitOfWork.open(ds)) { // 加入已有的
+                assertSame(unit, inner);
+                assertEquals(1, count());
+                assertEquals(1, ds.getActive());
+            }
+
+            assertNotNull(UnitOfWork.current(ds));
+        }
+
+        assertNull(UnitOfWork.current(ds));
+        assertEquals(0, ds.getActive());
+    }
+
+    @Test
+    public void testTransaction() {
+        writer.write("DELETE FROM uow");
+
+        try (UnitOfWork ignored = UnitOfWork.transaction(ds)) {
+            writer.insert("INSERT INTO uow (id, name) VALUES (?, ?)", 2, "bar");
+            assertEquals(1, count());
+        } // 没有提交，回滚
+
+        assertEquals(0, count());
+
+        CRUD_Service crud = CRUD_Service.factory(ds);
+        crud.transaction(() -> {
+            writer.insert("INSERT INTO uow (id, name) VALUES (?, ?)", 3, "bar");
+            crud.transaction(() -> writer.write("UPDATE uow SET name = ? WHERE id = ?", "baz", 3)); // 嵌套的由最外层提交
+
+            return null;
+        });
+
+        assertEquals("baz", reader.queryOne("SELECT name FROM uow WHERE id = ?", String.class, 3));
+
+        try {
+            crud.transaction(() -> {
+                writer.delete("uow", "id", 3);
+                throw new IllegalStateException("rollback");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(1, count());
+        }
+
+        assertEquals(0, ds.getActive());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        writer.write("DELETE FROM uow");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) { // 多个线程共用一个 JdbcWriter
+            int id = 100 + i;
+            futures.add(pool.submit(() -> UnitOfWork.run(ds, () -> writer.insert("INSERT INTO uow (id, name) VALUES (?, ?)", id, "t" + id))));
+        }
+
+        for (Future<?> future : futures)
+            future.get();
+
+        pool.shutdown();
+
+        assertEquals(100, count());
+        assertEquals(0, ds.getActive());
+        System.out.println("borrowed: " + ds.getBorrowedCount());
+    }
+
+    @Test
+    public void testCloseOutOfOrder() throws Exception {
+        writer.write("DELETE FROM uow");
+        writer.insert("INSERT INTO uow (id, name) VALUES (?, ?)", 1, "foo");
+        reader.setDatabaseVendor(DatabaseVendor.DERBY);
+
+        // 两个 Stream 各自占用一个临时的工作单元，先打开的先关闭
+        java.util.stream.Stream<java.util.Map<String, Object>> first = reader.streamAsMap("SELECT * FROM uow");
+        UnitOfWork a = UnitOfWork.current(null);
+        UnitOfWork b = UnitOfWork.openNew(ds);
+        first.close();
+
+        assertSame(b, UnitOfWork.current(ds));
+        b.close();
+        assertNull(UnitOfWork.current(ds)); // 不会留下已经关闭的
+        assertNotNull(a);
+
+        // 在别的线程关闭
+        java.util.stream.Stream<java.util.Map<String, Object>> stream = reader.streamAsMap("SELECT * FROM uow");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        pool.submit(stream::close).get();
+        pool.shutdown();
+
+        assertNull(UnitOfWork.current(ds));
+        assertEquals(1, count()); // 不会用到已经归还的连接
+        assertEquals(0, ds.getActive());
+    }
+
+    /**
+     * 代理 JDBC 对象，记录哪些语句被取消了
+     */
+    static <T> T tracking(Class<T> type, Object target, List<Object> cancelled) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getName().equals("cancel"))
+                cancelled.add(proxy);
+
+            Object result;
+
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+            if (result instanceof Connection)
+                return tracking(Connection.class, result, cancelled);
+            else if (result instanceof PreparedStatement)
+                return tracking(PreparedStatement.class, result, cancelled);
+
+            return result;
+        }));
+    }
+
+    @Test
+    public void testUnwatchStreaming() {
+        writer.write("DELETE FROM uow");
+        writer.insert("INSERT INTO uow (id, name) VALUES (?, ?)", 1, "foo");
+
+        List<Object> cancelled = new ArrayList<>();
+        javax.sql.DataSource tracked = tracking(javax.sql.DataSource.class, ds, cancelled);
+        JdbcReader reader = new JdbcReader();
+        reader.setDataSource(tracked);
+        reader.setDatabaseVendor(DatabaseVendor.DERBY);
+
+        try (UnitOfWork unit = UnitOfWork.open(tracked)) {
+            assertEquals(1, reader.forEachMap(row -> {
+            }, "SELECT * FROM uow"));
+            unit.cancel(); // 执行完毕的不再记录，不会被取消
+            assertTrue(cancelled.isEmpty());
+        }
+
+        try (UnitOfWork unit = UnitOfWork.open(tracked)) {
+            reader.streamAsMap("SELECT * FROM uow").close();
+            unit.cancel();
+            assertTrue(cancelled.isEmpty());
+        }
+
+        try (UnitOfWork unit = UnitOfWork.open(tracked); Stream<Map<String, Object>> ignored = reader.streamAsMap("SELECT * FROM uow")) {
+            unit.cancel(); // 还在读取的会被取消
+            assertEquals(1, cancelled.size());
+        }
+    }
+
+    @Test
+    public void testAfterCommit() {
+        List<String> done = new ArrayList<>();
+
+        try (UnitOfWork unit = UnitOfWork.transaction(ds)) {
+            writer.insert("INSERT INTO uow (id, name) VALUES (?, ?)", 30, "foo");
+            unit.afterCommit(() -> done.add("commit"));
+            assertTrue(done.isEmpty()); // 提交之后才执行
+            unit.commit();
+        }
+
+        assertEquals(1, done.size());
+
+        try (UnitOfWork unit = UnitOfWork.transaction(ds)) {
+            writer.write("DELETE FROM uow WHERE id = ?", 30);
+            unit.afterCommit(() -> done.add("rollback"));
+        } // 回滚了不执行
+
+        assertEquals(1, done.size());
+
+        writer.write("DELETE FROM uow WHERE id = ?", 30);
+        UnitOfWork.open(ds).afterCommit(() -> done.add("now")); // 不在事务里的话马上执行
+        UnitOfWork.current(ds).close();
+        assertEquals(2, done.size());
+    }
+
+    @Test
+    public void testLegacyCreateBatch() throws Exception {
+        writer.write("DELETE FROM uow");
+        JdbcWriter legacy = new JdbcWriter();
+        legacy.setDataSource(ds);
+        legacy.setTableName("uow");
+
+        try (UnitOfWork unit = UnitOfWork.open(ds)) { // 请求的工作单元
+            legacy.createBatch("id, name", "(40, 'a')");
+            assertTrue(unit.getConnection().getAutoCommit()); // 恢复自动提交，之后的写入照常提交
+        }
+
+        try (UnitOfWork unit = UnitOfWork.transaction(ds)) {
+            writer.insert("INSERT INTO uow (id, name) VALUES (?, ?)", 41, "foo");
+            legacy.createBatch("id, name", "(42, 'b')"); // Derby 不支持 VALUE，执行失败
+            assertFalse(unit.getConnection().getAutoCommit());
+            assertEquals(1, count()); // 不会回滚（或者提交）外层的事务
+            unit.commit();
+        }
+
+        assertEquals(1, count());
+        writer.write("DELETE FROM uow");
+    }
+}
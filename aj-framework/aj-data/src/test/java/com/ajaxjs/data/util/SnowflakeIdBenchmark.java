@@ -0,0 +1,114 @@
+package com.ajaxjs.data.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比原来两把锁、自旋等待的雪花 id，与 CAS 的雪花 id，多线程生成 id 的吞吐量。
+ * 注意单机每毫秒最多 4096 个，到了上限之后两者都要等待时钟，所以批量的更能看出差别。
+ * 在 IDE 里直接运行 main() 即可
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class SnowflakeIdBenchmark {
+    /**
+     * 原来的实现
+     */
+    static class LegacySnowflakeId {
+        private final long epoch = 1514736000000L;
+        private final long workerIdBits = 4L;
+        private final long sequenceBits = 12L;
+        private final long workerIdShift = sequenceBits;
+        private final long timestampLeftShift = sequenceBits + workerIdBits;
+        private final long sequenceMask = ~(-1L << sequenceBits);
+        private final long workerId;
+        private long sequence = 0L;
+        private long lastTimestamp = -1L;
+
+        LegacySnowflakeId(long workerId) {
+            this.workerId = workerId;
+        }
+
+        synchronized long nextId() {
+            long timestamp = System.currentTimeMillis();
+
+            if (lastTimestamp == timestamp) {
+                sequence = sequence + 1 & sequenceMask;
+
+                if (sequence == 0)
+                    timestamp = tilNextMillis(lastTimestamp);
+            } else
+                sequence = 0;
+
+            if (timestamp < lastTimestamp)
+                throw new RuntimeException("clock moved backwards");
+
+            lastTimestamp = timestamp;
+
+            return timestamp - epoch << timestampLeftShift | workerId << workerIdShift | sequence;
+        }
+
+        static long tilNextMillis(long lastTimestamp) {
+            long timestamp = System.currentTimeMillis();
+
+            while (timestamp <= lastTimestamp)
+                timestamp = System.currentTimeMillis();
+
+            return timestamp;
+        }
+
+        private final static LegacySnowflakeId INSTANCE = new LegacySnowflakeId(1L);
+
+        static synchronized long get() {
+            return INSTANCE.nextId();
+        }
+    }
+
+    SnowflakeId snowflakeId = new SnowflakeId(1);
+
+    /**
+     * 不限制借用的时间，不受每毫秒 4096 个的限制，用来看生成器本身的开销
+     */
+    SnowflakeId unbounded = new SnowflakeId(2);
+
+    @Setup
+    public void setup() {
+        unbounded.setMaxBorrowMillis(Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long legacy() {
+        return LegacySnowflakeId.get();
+    }
+
+    @Benchmark
+    public long cas() {
+        return snowflakeId.nextId();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public long[] casBatch() {
+        return snowflakeId.nextIds(100);
+    }
+
+    @Benchmark
+    public long casUnbounded() {
+        return unbounded.nextId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(SnowflakeIdBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,70 @@
+package com.ajaxjs.data.util;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestBatchCoalescer {
+    @Test
+    public void test() throws Exception {
+        BatchCoalescer<Integer, String> coalescer = new BatchCoalescer<>(100);
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(11);
+        Future<String> first = pool.submit(() -> coalescer.load("g", 0, keys -> {
+            started.countDown();
+
+            try {
+                release.await(); // 执行期间其他的排队
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+
+            return load(keys, calls, batches);
+        }));
+
+        started.await();
+        List<Future<String>> others = new ArrayList<>();
+
+        for (int i = 1; i <= 10; i++) {
+            int id = i;
+            others.add(pool.submit(() -> coalescer.load("g", id, keys -> load(keys, calls, batches))));
+        }
+
+        Thread.sleep(200);
+        release.countDown();
+
+        assertEquals("v0", first.get());
+
+        for (int i = 0; i < others.size(); i++)
+            assertEquals("v" + (i + 1), others.get(i).get());
+
+        System.out.println(batches);
+        assertEquals(2, calls.get()); // 排队的合并为一批
+        assertEquals(10, batches.get(1).size());
+        pool.shutdown();
+
+        assertEquals("v1", coalescer.load("g", 1, keys -> load(keys, calls, batches))); // 没有并发的话，马上执行
+        assertNull(coalescer.load("g", 99, keys -> Collections.emptyMap()));
+        assertThrows(IllegalStateException.class, () -> coalescer.load("g", 1, keys -> {
+            throw new IllegalStateException();
+        }));
+    }
+
+    static Map<Integer, String> load(List<Integer> keys, AtomicInteger calls, List<List<Integer>> batches) {
+        calls.incrementAndGet();
+        batches.add(keys);
+        Map<Integer, String> map = new HashMap<>();
+
+        for (Integer key : keys)
+            map.put(key, "v" + key);
+
+        return map;
+    }
+}
@@ -0,0 +1,51 @@
+package com.ajaxjs.data.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestLruCache {
+    @Test
+    public void testEvict() {
+        List<String> evicted = new ArrayList<>();
+        LruCache<String, Integer> cache = new LruCache<>(2);
+        cache.setEvictionListener((k, v) -> evicted.add(k));
+
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a"); // a 最近访问过，淘汰的应该是 b
+        cache.put("c", 3);
+
+        System.out.println(cache);
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals("[b]", evicted.toString());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testTtl() throws InterruptedException {
+        LruCache<String, Integer> cache = new LruCache<>(10, 50);
+        cache.put("a", 1);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTake() {
+        LruCache<String, Integer> cache = new LruCache<>(10);
+        cache.put("a", 1);
+
+        assertEquals(Integer.valueOf(1), cache.take("a"));
+        assertNull(cache.take("a"));
+        assertEquals(Integer.valueOf(2), cache.computeIfAbsent("a", k -> 2));
+    }
+}
@@ -1,8 +1,21 @@
 package com.ajaxjs.data.util;
 
 
+import com.ajaxjs.data.jdbc_helper.JdbcConn;
 import org.junit.Test;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
 public class TestSnowflakeId {
     @Test
     public void test1() {
@@ -23,4 +36,77 @@ public class TestSnowflakeId {
         for (int i = 0; i < 30; i++)
             System.out.println(SnowflakeId.get());
     }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        SnowflakeId worker = new SnowflakeId(3);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+
+        for (int t = 0; t < 8; t++)
+            pool.execute(() -> {
+                for (int i = 0; i < 50000; i++)
+                    ids.add(worker.nextId());
+            });
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(400000, ids.size());
+    }
+
+    @Test
+    public void testNextIds() {
+        SnowflakeId worker = new SnowflakeId(2);
+        long[] ids = worker.nextIds(10000); // 超过一毫秒的序号，借用未来的时间
+
+        for (int i = 1; i < ids.length; i++)
+            assertTrue(ids[i] > ids[i - 1]);
+
+        assertTrue(worker.nextId() > ids[ids.length - 1]);
+        assertEquals(2, ids[0] >> 12 & 15);
+    }
+
+    @Test
+    public void testLease() throws SQLException {
+        DataSource dataSource = JdbcConn.setupJdbcPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:lease;create=true", "", "");
+
+        try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(WorkerIdLease.CREATE_TABLE);
+        }
+
+        try (WorkerIdLease a = new WorkerIdLease(dataSource, "node-a", 60000);
+             WorkerIdLease b = new WorkerIdLease(dataSource, "node-b", 60000)) {
+            long idA = a.acquire(), idB = b.acquire();
+            System.out.println(idA + ", " + idB);
+            assertNotEquals(idA, idB);
+            assertTrue(a.renew());
+
+            SnowflakeId generator = b.createSnowflakeId();
+            assertEquals(idB, generator.getWorkerId());
+            assertEquals(b.getExpireAt(), generator.getLeaseExpireAt());
+            generator.nextId();
+
+            try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+                stmt.execute("UPDATE snowflake_worker SET node = 'node-x' WHERE worker_id = " + idB); // 租约过期后被其他节点占用
+            }
+
+            assertFalse(b.renew());
+            assertThrows(IllegalStateException.class, generator::nextId); // 不再生成 id，免得重复
+
+            SnowflakeId expired = new SnowflakeId(3);
+            expired.setLeaseExpireAt(System.currentTimeMillis() - 1); // 没能续租，租约到期
+            assertThrows(IllegalStateException.class, expired::nextId);
+
+            a.close(); // 释放之后可以被其他节点租用
+            WorkerIdLease c = new WorkerIdLease(dataSource, "node-c", 60000);
+            assertEquals(idA, c.acquire());
+            c.close();
+        } finally {
+            try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE snowflake_worker");
+            }
+
+            ((org.apache.tomcat.jdbc.pool.DataSource) dataSource).close();
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package com.ajaxjs.data.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestTinyLfuCache {
+    @Test
+    public void testScan() {
+        TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<>(100);
+        LruCache<Integer, Integer> lru = new LruCache<>(100);
+
+        for (int round = 0; round < 5; round++) { // 热点数据，反复访问
+            for (int i = 0; i < 50; i++) {
+                cache.computeIfAbsent(i, k -> k);
+                lru.computeIfAbsent(i, k -> k);
+            }
+        }
+
+        for (int i = 1000; i < 2000; i++) { // 一次性的扫描
+            cache.computeIfAbsent(i, k -> k);
+            lru.computeIfAbsent(i, k -> k);
+        }
+
+        int hot = 0, lruHot = 0;
+
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(i) != null)
+                hot++;
+
+            if (lru.get(i) != null)
+                lruHot++;
+        }
+
+        System.out.println(cache + " hot: " + hot + ", LRU hot: " + lruHot);
+        assertTrue(hot >= 45); // 扫描没有把热点挤出去，访问频率是估算的，允许个别误差
+        assertEquals(0, lruHot);
+        assertTrue(cache.size() <= 100);
+    }
+
+    @Test
+    public void testTtl() throws InterruptedException {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(10, 50);
+        cache.put("a", 1);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemove() {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(1);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(1, cache.size());
+
+        assertNotNull(cache.remove("b"));
+        assertNull(cache.get("b"));
+    }
+}